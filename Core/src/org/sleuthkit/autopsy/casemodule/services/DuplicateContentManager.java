@@ -0,0 +1,184 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.casemodule.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Keeps track of the files of the case whose content has been processed by
+ * each module, by the MD5 hash of the content, so that a module can reuse its
+ * results for an earlier file with the same content instead of processing a
+ * duplicate from scratch. For example, the same DLL is found many times in an
+ * image, and the same documents are often found in several data sources of a
+ * case.
+ *
+ * The processed files are tracked while the case is open and are not saved
+ * with the case. The work saved by reusing results is tracked per module and
+ * logged when the case is closed.
+ */
+public class DuplicateContentManager implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(DuplicateContentManager.class.getName());
+    private final ConcurrentHashMap<String, ConcurrentHashMap<ContentKey, Long>> processedFilesByModule = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong[]> savingsByModule = new ConcurrentHashMap<>(); // Files and bytes.
+
+    DuplicateContentManager() {
+    }
+
+    /**
+     * Gets the id of an earlier file with the given content that a module has
+     * finished processing.
+     *
+     * @param moduleName The name of the module.
+     * @param md5Hash The MD5 hash of the content, may be null.
+     * @return The object id of the earlier file, or null if there is none.
+     */
+    public Long getProcessedFileId(String moduleName, String md5Hash) {
+        ContentKey key = ContentKey.fromMd5Hash(md5Hash);
+        if (key == null) {
+            return null;
+        }
+        Map<ContentKey, Long> processedFiles = processedFilesByModule.get(moduleName);
+        return (processedFiles != null) ? processedFiles.get(key) : null;
+    }
+
+    /**
+     * Records that a module has finished processing a file, so that its
+     * results can be reused for later files with the same content. Only the
+     * first file with given content is recorded.
+     *
+     * @param moduleName The name of the module.
+     * @param md5Hash The MD5 hash of the content of the file, may be null.
+     * @param fileId The object id of the file.
+     */
+    public void recordProcessedFile(String moduleName, String md5Hash, long fileId) {
+        ContentKey key = ContentKey.fromMd5Hash(md5Hash);
+        if (key == null) {
+            return;
+        }
+        ConcurrentHashMap<ContentKey, Long> processedFiles = processedFilesByModule.get(moduleName);
+        if (processedFiles == null) {
+            processedFiles = new ConcurrentHashMap<>();
+            ConcurrentHashMap<ContentKey, Long> existing = processedFilesByModule.putIfAbsent(moduleName, processedFiles);
+            if (existing != null) {
+                processedFiles = existing;
+            }
+        }
+        processedFiles.putIfAbsent(key, fileId);
+    }
+
+    /**
+     * Records that a module reused its results for an earlier file instead of
+     * processing a file.
+     *
+     * @param moduleName The name of the module.
+     * @param size The size of the file.
+     */
+    public void recordReuse(String moduleName, long size) {
+        AtomicLong[] savings = savingsByModule.get(moduleName);
+        if (savings == null) {
+            savings = new AtomicLong[]{new AtomicLong(0L), new AtomicLong(0L)};
+            AtomicLong[] existing = savingsByModule.putIfAbsent(moduleName, savings);
+            if (existing != null) {
+                savings = existing;
+            }
+        }
+        savings[0].incrementAndGet();
+        savings[1].addAndGet(size);
+    }
+
+    /**
+     * Gets a one line summary of the work saved by reusing results, suitable
+     * for logging.
+     *
+     * @return The summary.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        Map<String, AtomicLong[]> savings = new TreeMap<>(savingsByModule);
+        for (Map.Entry<String, AtomicLong[]> entry : savings.entrySet()) {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(entry.getKey()).append(": "); //NON-NLS
+            summary.append(entry.getValue()[0].get()).append(" files/"); //NON-NLS
+            summary.append(entry.getValue()[1].get()).append(" bytes"); //NON-NLS
+        }
+        return summary.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!savingsByModule.isEmpty()) {
+            logger.log(Level.INFO, "Results reused for duplicate content: {0}", getSummary()); //NON-NLS
+        }
+        processedFilesByModule.clear();
+        savingsByModule.clear();
+    }
+
+    /**
+     * An MD5 hash held as two longs, much smaller than the hex string.
+     */
+    private static final class ContentKey {
+
+        private final long high;
+        private final long low;
+
+        private ContentKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        static ContentKey fromMd5Hash(String md5Hash) {
+            if (md5Hash == null || md5Hash.length() != 32) {
+                return null;
+            }
+            try {
+                return new ContentKey(parseHex(md5Hash, 0), parseHex(md5Hash, 16));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        private static long parseHex(String hex, int start) {
+            return (Long.parseLong(hex.substring(start, start + 8), 16) << 32) | Long.parseLong(hex.substring(start + 8, start + 16), 16);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey key = (ContentKey) other;
+            return high == key.high && low == key.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (low ^ (low >>> 32));
+        }
+    }
+}
@@ -42,6 +42,7 @@ public class Services implements Closeable {
     // services
     private FileManager fileManager;
     private TagsManager tagsManager;
+    private DuplicateContentManager duplicateContentManager;
 
     public Services(SleuthkitCase tskCase) {
         this.tskCase = tskCase;
@@ -51,6 +52,9 @@ public Services(SleuthkitCase tskCase) {
         
         tagsManager = new TagsManager(tskCase);
         services.add(tagsManager);
+
+        duplicateContentManager = new DuplicateContentManager();
+        services.add(duplicateContentManager);
     }
     
     public FileManager getFileManager() {
@@ -61,6 +65,10 @@ public TagsManager getTagsManager() {
         return tagsManager;
     }
 
+    public DuplicateContentManager getDuplicateContentManager() {
+        return duplicateContentManager;
+    }
+
     @Override
     public void close() throws IOException {
         // close all services
@@ -34,6 +34,10 @@ public final class UserPreferences {
     public static final String HIDE_KNOWN_FILES_IN_VIEWS_TREE = "HideKnownFilesInViewsTree"; //NON-NLS 
     public static final String DISPLAY_TIMES_IN_LOCAL_TIME = "DisplayTimesInLocalTime"; //NON-NLS
     public static final String NUMBER_OF_FILE_INGEST_THREADS = "NumberOfFileIngestThreads"; //NON-NLS
+    public static final String NUMBER_OF_DATA_SOURCE_INGEST_THREADS = "NumberOfDataSourceIngestThreads"; //NON-NLS
+    public static final String ADAPT_NUMBER_OF_FILE_INGEST_THREADS = "AdaptNumberOfFileIngestThreads"; //NON-NLS
+    public static final String LARGE_FILE_INGEST_THREADS_PERCENTAGE = "LargeFileIngestThreadsPercentage"; //NON-NLS
+    public static final String ADDITIONAL_FILE_HASH_TYPES = "AdditionalFileHashTypes"; //NON-NLS
     
     // Prevent instantiation.
     private UserPreferences() {
@@ -86,4 +90,45 @@ public static int numberOfFileIngestThreads() {
     public static void setNumberOfFileIngestThreads(int value) {
         preferences.putInt(NUMBER_OF_FILE_INGEST_THREADS, value);
     }        
+
+    public static int numberOfDataSourceIngestThreads() {
+        return preferences.getInt(NUMBER_OF_DATA_SOURCE_INGEST_THREADS, 1);
+    }
+
+    public static void setNumberOfDataSourceIngestThreads(int value) {
+        preferences.putInt(NUMBER_OF_DATA_SOURCE_INGEST_THREADS, value);
+    }
+
+    public static boolean adaptNumberOfFileIngestThreads() {
+        return preferences.getBoolean(ADAPT_NUMBER_OF_FILE_INGEST_THREADS, false);
+    }
+
+    public static void setAdaptNumberOfFileIngestThreads(boolean value) {
+        preferences.putBoolean(ADAPT_NUMBER_OF_FILE_INGEST_THREADS, value);
+    }
+
+    public static int largeFileIngestThreadsPercentage() {
+        return preferences.getInt(LARGE_FILE_INGEST_THREADS_PERCENTAGE, 50);
+    }
+
+    public static void setLargeFileIngestThreadsPercentage(int value) {
+        preferences.putInt(LARGE_FILE_INGEST_THREADS_PERCENTAGE, value);
+    }
+
+    /**
+     * Gets the hashes to calculate for each file in addition to MD5, as a
+     * comma separated list of ContentHasher.HashType names, empty by default.
+     * The MD5 hash is calculated and stored by the TSK hash calculation, so
+     * the additional hashes take a second read of each file without an MD5
+     * hash, and should only be turned on when they are needed.
+     *
+     * @return The hash types, e.g., "SHA-1,SHA-256".
+     */
+    public static String additionalFileHashTypes() {
+        return preferences.get(ADDITIONAL_FILE_HASH_TYPES, "");
+    }
+
+    public static void setAdditionalFileHashTypes(String value) {
+        preferences.put(ADDITIONAL_FILE_HASH_TYPES, value);
+    }
 }
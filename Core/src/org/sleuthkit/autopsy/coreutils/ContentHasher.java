@@ -0,0 +1,399 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.coreutils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Computes several digests of content in a single pass over the content. The
+ * content is read into large buffers that are reused from one call to the
+ * next by the calling thread. Content larger than one buffer is read ahead by
+ * a separate thread, so that reading the next buffer through the native
+ * library overlaps with computing the digests of the current one.
+ */
+public final class ContentHasher {
+
+    /**
+     * The digests that can be computed.
+     */
+    public enum HashType {
+
+        MD5("MD5"), //NON-NLS
+        SHA1("SHA-1"), //NON-NLS
+        SHA256("SHA-256"), //NON-NLS
+        /**
+         * A context triggered piecewise (fuzzy) hash, see FuzzyHash.
+         */
+        SSDEEP("ssdeep"); //NON-NLS
+        private final String algorithm;
+
+        private HashType(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * Gets the name of the digest algorithm, e.g., "SHA-1".
+         *
+         * @return The algorithm name.
+         */
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        /**
+         * Parses a comma separated list of hash types, as either enum
+         * constant names or algorithm names. Unknown names are ignored.
+         *
+         * @param hashTypes The list, e.g., "SHA-1,SHA-256".
+         * @return The hash types.
+         */
+        public static Set<HashType> parse(String hashTypes) {
+            Set<HashType> types = EnumSet.noneOf(HashType.class);
+            if (hashTypes == null) {
+                return types;
+            }
+            for (String name : hashTypes.split(",")) {
+                name = name.trim();
+                for (HashType type : values()) {
+                    if (type.name().equalsIgnoreCase(name) || type.algorithm.equalsIgnoreCase(name)) {
+                        types.add(type);
+                    }
+                }
+            }
+            return types;
+        }
+    }
+
+    /**
+     * Reads the content to be hashed. Lets the hasher read content through a
+     * cache rather than directly from a Content object.
+     */
+    public interface ContentReader {
+
+        /**
+         * Reads bytes of the content into the start of a buffer.
+         *
+         * @param buf The buffer.
+         * @param offset The offset in the content of the first byte to read.
+         * @param len The number of bytes to read.
+         * @return The number of bytes read, zero or less at the end of the
+         * content.
+         * @throws TskCoreException If the content cannot be read.
+         */
+        int read(byte[] buf, long offset, int len) throws TskCoreException;
+    }
+
+    /**
+     * Receives the progress of a hash computation and can stop it.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called after each buffer of the content has been hashed.
+         *
+         * @param bytesHashed The number of bytes hashed so far.
+         * @return False to stop the computation.
+         */
+        boolean progress(long bytesHashed);
+    }
+
+    private static final Logger logger = Logger.getLogger(ContentHasher.class.getName());
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int NUMBER_OF_BUFFERS = 3;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //NON-NLS
+    private static final ThreadLocal<byte[][]> threadBuffers = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[NUMBER_OF_BUFFERS][BUFFER_SIZE];
+        }
+    };
+    private static final ExecutorService readAheadThreadPool = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ContentHasher read ahead"); //NON-NLS
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private ContentHasher() {
+    }
+
+    /**
+     * Computes digests of content.
+     *
+     * @param content The content.
+     * @param hashTypes The digests to compute.
+     * @param listener A progress listener, may be null.
+     * @return The digests as lower case hex strings, and the fuzzy hash if
+     * requested, or null if the listener stopped the computation.
+     * @throws TskCoreException If the content cannot be read.
+     */
+    public static Map<HashType, String> calculateHashes(final Content content, Set<HashType> hashTypes, ProgressListener listener) throws TskCoreException {
+        return calculateHashes(new ContentReader() {
+            @Override
+            public int read(byte[] buf, long offset, int len) throws TskCoreException {
+                return content.read(buf, offset, len);
+            }
+        }, content.getSize(), hashTypes, listener);
+    }
+
+    /**
+     * Computes digests of content read with a content reader.
+     *
+     * @param reader The reader.
+     * @param size The size of the content.
+     * @param hashTypes The digests to compute.
+     * @param listener A progress listener, may be null.
+     * @return The digests as lower case hex strings, and the fuzzy hash if
+     * requested, or null if the listener stopped the computation.
+     * @throws TskCoreException If the content cannot be read.
+     */
+    public static Map<HashType, String> calculateHashes(ContentReader reader, long size, Set<HashType> hashTypes, ProgressListener listener) throws TskCoreException {
+        Map<HashType, MessageDigest> digests = new EnumMap<>(HashType.class);
+        for (HashType type : hashTypes) {
+            if (type == HashType.SSDEEP) {
+                continue;
+            }
+            try {
+                digests.put(type, MessageDigest.getInstance(type.getAlgorithm()));
+            } catch (NoSuchAlgorithmException ex) {
+                logger.log(Level.SEVERE, "No provider for digest algorithm " + type.getAlgorithm(), ex); //NON-NLS
+            }
+        }
+        Digests digestList = new Digests(new ArrayList<>(digests.values()), hashTypes.contains(HashType.SSDEEP) ? new FuzzyHash() : null);
+        byte[][] buffers = threadBuffers.get();
+
+        boolean completed;
+        if (size <= BUFFER_SIZE) {
+            completed = hashInCallingThread(reader, size, buffers[0], digestList, listener);
+        } else {
+            completed = hashWithReadAhead(reader, size, buffers, digestList, listener);
+        }
+        if (!completed) {
+            return null;
+        }
+
+        Map<HashType, String> hashes = new EnumMap<>(HashType.class);
+        for (Map.Entry<HashType, MessageDigest> entry : digests.entrySet()) {
+            hashes.put(entry.getKey(), toHexString(entry.getValue().digest()));
+        }
+        if (digestList.fuzzyHash != null) {
+            hashes.put(HashType.SSDEEP, digestList.fuzzyHash.digest());
+        }
+        return Collections.unmodifiableMap(hashes);
+    }
+
+    private static boolean hashInCallingThread(ContentReader reader, long size, byte[] buffer, Digests digests, ProgressListener listener) throws TskCoreException {
+        long offset = 0;
+        while (offset < size) {
+            int read = reader.read(buffer, offset, (int) Math.min(buffer.length, size - offset));
+            if (read <= 0) {
+                break;
+            }
+            digests.update(buffer, read);
+            offset += read;
+            if (listener != null && !listener.progress(offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hashWithReadAhead(ContentReader reader, long size, byte[][] buffers, Digests digests, ProgressListener listener) throws TskCoreException {
+        ReadAheadTask readAhead = new ReadAheadTask(reader, size, buffers);
+        readAheadThreadPool.execute(readAhead);
+        boolean completed = false;
+        try {
+            long bytesHashed = 0;
+            while (true) {
+                Chunk chunk = readAhead.filledChunks.take();
+                if (chunk.error != null) {
+                    throw chunk.error;
+                }
+                if (chunk.buffer == null) {
+                    completed = true;
+                    break;
+                }
+                digests.update(chunk.buffer, chunk.length);
+                readAhead.freeBuffers.put(chunk.buffer);
+                bytesHashed += chunk.length;
+                if (listener != null && !listener.progress(bytesHashed)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!completed) {
+                readAhead.stop();
+            }
+            // The buffers are reused by the next call, so wait until the read
+            // ahead thread can no longer write into them.
+            readAhead.awaitDone();
+        }
+        return completed;
+    }
+
+    private static String toHexString(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The digests being computed.
+     */
+    private static final class Digests {
+
+        private final List<MessageDigest> messageDigests;
+        private final FuzzyHash fuzzyHash;
+
+        Digests(List<MessageDigest> messageDigests, FuzzyHash fuzzyHash) {
+            this.messageDigests = messageDigests;
+            this.fuzzyHash = fuzzyHash;
+        }
+
+        void update(byte[] buffer, int length) {
+            for (MessageDigest digest : messageDigests) {
+                digest.update(buffer, 0, length);
+            }
+            if (fuzzyHash != null) {
+                fuzzyHash.update(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * A buffer of content read ahead, or the end of the content if the buffer
+     * is null, or a read error.
+     */
+    private static final class Chunk {
+
+        private final byte[] buffer;
+        private final int length;
+        private final TskCoreException error;
+
+        Chunk(byte[] buffer, int length, TskCoreException error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    private static final class ReadAheadTask implements Runnable {
+
+        private final ContentReader reader;
+        private final long size;
+        private final BlockingQueue<byte[]> freeBuffers;
+        // Never holds more chunks than there are buffers, plus the end or
+        // error chunk, so putting a chunk never blocks.
+        private final BlockingQueue<Chunk> filledChunks;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean stopped = false;
+
+        ReadAheadTask(ContentReader reader, long size, byte[][] buffers) {
+            this.reader = reader;
+            this.size = size;
+            this.freeBuffers = new LinkedBlockingQueue<>();
+            this.filledChunks = new ArrayBlockingQueue<>(buffers.length + 1);
+            for (byte[] buffer : buffers) {
+                this.freeBuffers.add(buffer);
+            }
+        }
+
+        @Override
+        public void run() {
+            // The hashing thread waits for an end or error chunk, so one is
+            // always queued, whatever goes wrong here.
+            Chunk lastChunk = null;
+            try {
+                long offset = 0;
+                while (offset < size) {
+                    byte[] buffer = freeBuffers.take();
+                    if (stopped) {
+                        break;
+                    }
+                    int read = reader.read(buffer, offset, (int) Math.min(buffer.length, size - offset));
+                    if (read <= 0) {
+                        break;
+                    }
+                    filledChunks.add(new Chunk(buffer, read, null));
+                    offset += read;
+                }
+                lastChunk = new Chunk(null, 0, null);
+            } catch (TskCoreException ex) {
+                lastChunk = new Chunk(null, 0, ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                lastChunk = new Chunk(null, 0, new TskCoreException("Reading ahead was interrupted", ex)); //NON-NLS
+            } catch (Throwable ex) {
+                lastChunk = new Chunk(null, 0, new TskCoreException("Error reading ahead", ex)); //NON-NLS
+            } finally {
+                filledChunks.offer(lastChunk);
+                done.countDown();
+            }
+        }
+
+        /**
+         * Stops reading ahead. The empty buffer wakes the read ahead thread if
+         * it is waiting for a free buffer.
+         */
+        void stop() {
+            stopped = true;
+            freeBuffers.add(new byte[0]);
+        }
+
+        void awaitDone() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
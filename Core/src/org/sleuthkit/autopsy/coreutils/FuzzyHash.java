@@ -0,0 +1,377 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.coreutils;
+
+/**
+ * Context triggered piecewise hashing, compatible with ssdeep. A fuzzy hash
+ * has the form BLOCKSIZE:SIGNATURE1:SIGNATURE2, where each character of a
+ * signature is derived from a piece of the content whose end is chosen by a
+ * rolling hash of the content, so that a change to the content changes only
+ * the characters for the pieces it touches. Two fuzzy hashes can be compared
+ * to give a similarity score from 0 to 100.
+ *
+ * A hash is computed in a single pass over the content: the signatures for all
+ * of the candidate block sizes are computed at once, and the block size is
+ * chosen at the end, as ssdeep does.
+ */
+public final class FuzzyHash {
+
+    /**
+     * The length of the common substring that two signatures must share for
+     * them to be compared; shorter matches are considered coincidental.
+     */
+    public static final int ROLLING_WINDOW = 7;
+    /**
+     * The smallest block size.
+     */
+    public static final int MIN_BLOCK_SIZE = 3;
+    private static final int SPAMSUM_LENGTH = 64;
+    private static final int NUM_BLOCKHASHES = 31;
+    private static final int HASH_PRIME = 0x01000193;
+    private static final int HASH_INIT = 0x28021967;
+    private static final char[] B64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray(); //NON-NLS
+    private static final int MAX_RUN = 3;
+
+    // The rolling hash.
+    private final byte[] window = new byte[ROLLING_WINDOW];
+    private int h1;
+    private int h2;
+    private int h3;
+    private int n;
+    // The piecewise hashes for each block size.
+    private final int[] h = new int[NUM_BLOCKHASHES];
+    private final int[] halfh = new int[NUM_BLOCKHASHES];
+    private final char[][] digest = new char[NUM_BLOCKHASHES][SPAMSUM_LENGTH];
+    private final int[] dlen = new int[NUM_BLOCKHASHES];
+    private final char[] halfdigest = new char[NUM_BLOCKHASHES];
+    private int bhstart = 0;
+    private int bhend = 1;
+    private long totalSize = 0;
+
+    /**
+     * Creates a fuzzy hash computation for content to be passed to update().
+     */
+    public FuzzyHash() {
+        h[0] = HASH_INIT;
+        halfh[0] = HASH_INIT;
+    }
+
+    /**
+     * Adds bytes of the content to the hash.
+     *
+     * @param buf The buffer holding the bytes.
+     * @param offset The position of the first byte in the buffer.
+     * @param len The number of bytes.
+     */
+    public void update(byte[] buf, int offset, int len) {
+        totalSize += len;
+        for (int i = offset; i < offset + len; ++i) {
+            step(buf[i]);
+        }
+    }
+
+    private void step(byte b) {
+        int c = b & 0xFF;
+        // Roll the hash of the last ROLLING_WINDOW bytes.
+        h2 -= h1;
+        h2 += ROLLING_WINDOW * c;
+        h1 += c;
+        h1 -= window[n % ROLLING_WINDOW] & 0xFF;
+        window[n % ROLLING_WINDOW] = b;
+        n = (n + 1) % ROLLING_WINDOW;
+        h3 = (h3 << 5) ^ c;
+        long roll = (h1 + h2 + h3) & 0xFFFFFFFFL;
+
+        for (int i = bhstart; i < bhend; ++i) {
+            h[i] = (h[i] * HASH_PRIME) ^ c;
+            halfh[i] = (halfh[i] * HASH_PRIME) ^ c;
+        }
+
+        // A piece ends when the rolling hash hits the trigger value for the
+        // block size. The trigger values nest, so the block sizes can be
+        // tried in ascending order until one does not trigger.
+        for (int i = bhstart; i < bhend; ++i) {
+            long blockSize = blockSize(i);
+            if (roll % blockSize != blockSize - 1) {
+                break;
+            }
+            if (dlen[i] == 0) {
+                forkBlockHash();
+            }
+            digest[i][dlen[i]] = B64[(int) ((h[i] & 0xFFFFFFFFL) % 64)];
+            halfdigest[i] = B64[(int) ((halfh[i] & 0xFFFFFFFFL) % 64)];
+            if (dlen[i] < SPAMSUM_LENGTH - 1) {
+                ++dlen[i];
+                digest[i][dlen[i]] = 0;
+                h[i] = HASH_INIT;
+                if (dlen[i] < SPAMSUM_LENGTH / 2) {
+                    halfh[i] = HASH_INIT;
+                    halfdigest[i] = 0;
+                }
+            } else {
+                tryReduceBlockHash();
+            }
+        }
+    }
+
+    private void forkBlockHash() {
+        if (bhend < NUM_BLOCKHASHES) {
+            // The new block size has not triggered yet, so its piece hashes
+            // are those of the block size below it.
+            h[bhend] = h[bhend - 1];
+            halfh[bhend] = halfh[bhend - 1];
+            dlen[bhend] = 0;
+            digest[bhend][0] = 0;
+            halfdigest[bhend] = 0;
+            ++bhend;
+        }
+    }
+
+    private void tryReduceBlockHash() {
+        if (bhend - bhstart < 2) {
+            return;
+        }
+        if (blockSize(bhstart) * SPAMSUM_LENGTH >= totalSize) {
+            return;
+        }
+        if (dlen[bhstart + 1] < SPAMSUM_LENGTH / 2) {
+            return;
+        }
+        // The smallest block size can no longer be chosen.
+        ++bhstart;
+    }
+
+    private static long blockSize(int index) {
+        return ((long) MIN_BLOCK_SIZE) << index;
+    }
+
+    /**
+     * Gets the fuzzy hash of the content added so far.
+     *
+     * @return The hash, e.g., "96:ABCD...:EFG...".
+     */
+    public String digest() {
+        long roll = (h1 + h2 + h3) & 0xFFFFFFFFL;
+        int bi = bhstart;
+        while (blockSize(bi) * SPAMSUM_LENGTH < totalSize) {
+            ++bi;
+        }
+        while (bi >= bhend) {
+            --bi;
+        }
+        while (bi > bhstart && dlen[bi] < SPAMSUM_LENGTH / 2) {
+            --bi;
+        }
+
+        StringBuilder result = new StringBuilder(16 + SPAMSUM_LENGTH + SPAMSUM_LENGTH / 2);
+        result.append(blockSize(bi)).append(':');
+        result.append(digest[bi], 0, dlen[bi]);
+        if (roll != 0) {
+            result.append(B64[(int) ((h[bi] & 0xFFFFFFFFL) % 64)]);
+        } else if (digest[bi][dlen[bi]] != 0) {
+            result.append(digest[bi][dlen[bi]]);
+        }
+        result.append(':');
+        if (bi < bhend - 1) {
+            ++bi;
+            int length = Math.min(dlen[bi], SPAMSUM_LENGTH / 2 - 1);
+            result.append(digest[bi], 0, length);
+            if (roll != 0) {
+                result.append(B64[(int) ((halfh[bi] & 0xFFFFFFFFL) % 64)]);
+            } else if (halfdigest[bi] != 0) {
+                result.append(halfdigest[bi]);
+            }
+        } else if (roll != 0) {
+            result.append(B64[(int) ((h[bi] & 0xFFFFFFFFL) % 64)]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * A parsed fuzzy hash, with runs of more than three identical characters
+     * in the signatures shortened to three, as is done for comparisons.
+     */
+    public static final class Signature {
+
+        private final long blockSize;
+        private final String signature1;
+        private final String signature2;
+
+        private Signature(long blockSize, String signature1, String signature2) {
+            this.blockSize = blockSize;
+            this.signature1 = signature1;
+            this.signature2 = signature2;
+        }
+
+        /**
+         * Parses a fuzzy hash.
+         *
+         * @param fuzzyHash The hash, e.g., "96:ABCD...:EFG...".
+         * @return The signature, or null if the hash is malformed.
+         */
+        public static Signature parse(String fuzzyHash) {
+            int first = fuzzyHash.indexOf(':');
+            int second = (first < 0) ? -1 : fuzzyHash.indexOf(':', first + 1);
+            if (first <= 0 || second < 0) {
+                return null;
+            }
+            long blockSize;
+            try {
+                blockSize = Long.parseLong(fuzzyHash.substring(0, first));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+            int end = fuzzyHash.indexOf(',', second + 1);
+            if (end < 0) {
+                end = fuzzyHash.length();
+            }
+            String signature1 = fuzzyHash.substring(first + 1, second);
+            String signature2 = fuzzyHash.substring(second + 1, end);
+            if (blockSize < MIN_BLOCK_SIZE || signature1.length() > SPAMSUM_LENGTH || signature2.length() > SPAMSUM_LENGTH) {
+                return null;
+            }
+            return new Signature(blockSize, eliminateRuns(signature1), eliminateRuns(signature2));
+        }
+
+        /**
+         * Gets the block size of the first signature; the block size of the
+         * second is twice that.
+         *
+         * @return The block size.
+         */
+        public long getBlockSize() {
+            return blockSize;
+        }
+
+        /**
+         * Gets the signature for the block size.
+         *
+         * @return The signature.
+         */
+        public String getSignature1() {
+            return signature1;
+        }
+
+        /**
+         * Gets the signature for twice the block size.
+         *
+         * @return The signature.
+         */
+        public String getSignature2() {
+            return signature2;
+        }
+    }
+
+    /**
+     * Compares two fuzzy hashes.
+     *
+     * @param a A hash.
+     * @param b Another hash.
+     * @return The similarity of the content the hashes were computed from,
+     * from 0 for no similarity to 100 for a very close match.
+     */
+    public static int compare(Signature a, Signature b) {
+        long bsA = a.blockSize;
+        long bsB = b.blockSize;
+        if (bsA != bsB && bsA != bsB * 2 && bsB != bsA * 2) {
+            return 0;
+        }
+        if (bsA == bsB && a.signature1.equals(b.signature1)) {
+            return 100;
+        }
+        if (bsA == bsB) {
+            return Math.max(scoreStrings(a.signature1, b.signature1, bsA), scoreStrings(a.signature2, b.signature2, bsA * 2));
+        } else if (bsA == bsB * 2) {
+            return scoreStrings(a.signature1, b.signature2, bsA);
+        } else {
+            return scoreStrings(a.signature2, b.signature1, bsB);
+        }
+    }
+
+    private static int scoreStrings(String s1, String s2, long blockSize) {
+        if (s1.length() > SPAMSUM_LENGTH || s2.length() > SPAMSUM_LENGTH) {
+            return 0;
+        }
+        if (!hasCommonSubstring(s1, s2)) {
+            return 0;
+        }
+        long score = editDistance(s1, s2);
+        score = (score * SPAMSUM_LENGTH) / (s1.length() + s2.length());
+        score = (100 * score) / SPAMSUM_LENGTH;
+        if (score >= 100) {
+            return 0;
+        }
+        score = 100 - score;
+        // Small block sizes can give high scores for unrelated content, so
+        // the score is capped by the length of the match.
+        if (blockSize >= (99 + ROLLING_WINDOW) / ROLLING_WINDOW * MIN_BLOCK_SIZE) {
+            return (int) score;
+        }
+        long cap = blockSize / MIN_BLOCK_SIZE * Math.min(s1.length(), s2.length());
+        return (int) Math.min(score, cap);
+    }
+
+    private static boolean hasCommonSubstring(String s1, String s2) {
+        if (s1.length() < ROLLING_WINDOW || s2.length() < ROLLING_WINDOW) {
+            return false;
+        }
+        for (int i = 0; i + ROLLING_WINDOW <= s1.length(); ++i) {
+            if (s2.contains(s1.substring(i, i + ROLLING_WINDOW))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the edit distance between two strings, where an insertion or
+     * deletion costs 1 and a substitution costs 2.
+     */
+    private static int editDistance(String s1, String s2) {
+        int[] previous = new int[s2.length() + 1];
+        int[] current = new int[s2.length() + 1];
+        for (int j = 0; j <= s2.length(); ++j) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= s1.length(); ++i) {
+            current[0] = i;
+            for (int j = 1; j <= s2.length(); ++j) {
+                int substitution = previous[j - 1] + ((s1.charAt(i - 1) == s2.charAt(j - 1)) ? 0 : 2);
+                current[j] = Math.min(substitution, Math.min(previous[j] + 1, current[j - 1] + 1));
+            }
+            int[] temp = previous;
+            previous = current;
+            current = temp;
+        }
+        return previous[s2.length()];
+    }
+
+    private static String eliminateRuns(String signature) {
+        StringBuilder result = new StringBuilder(signature.length());
+        for (int i = 0; i < signature.length(); ++i) {
+            char c = signature.charAt(i);
+            int length = result.length();
+            if (length >= MAX_RUN && result.charAt(length - 1) == c && result.charAt(length - 2) == c && result.charAt(length - 3) == c) {
+                continue;
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Provides read access to the content of the file that is being processed by a
+ * file ingest pipeline. The first time the content is read, a small file is read
+ * from the image in its entirety and the header of a larger file is read, into a
+ * buffer owned by the pipeline. Later reads of the cached range by the same or
+ * subsequent modules in the pipeline are served from the buffer instead of
+ * going through the Sleuth Kit again. Reads outside of the cached range go
+ * directly to the file.
+ *
+ * Instances are obtained from IngestJobContext.getFileContent() and are only
+ * valid until the pipeline finishes with the file, after which all reads go
+ * directly to the file.
+ */
+public final class CachedFileContent {
+
+    static final int HEADER_SIZE = 64 * 1024;
+    static final int MAX_FULLY_CACHED_FILE_SIZE = 1024 * 1024;
+    private static final ThreadLocal<CachedFileContent> currentContent = new ThreadLocal<>();
+    private final AbstractFile file;
+    private byte[] buffer; // Guarded by this
+    private int cachedLength = -1; // Guarded by this, -1 until the cache is loaded
+
+    /**
+     * Gets the cached content for a file if the file is the one being
+     * processed by the file ingest pipeline of the calling thread, otherwise
+     * gets uncached content for the file.
+     *
+     * @param file The file.
+     * @return The content of the file.
+     */
+    static CachedFileContent getCachedFileContent(AbstractFile file) {
+        CachedFileContent content = currentContent.get();
+        if (content != null && content.file.getId() == file.getId()) {
+            return content;
+        }
+        return new CachedFileContent(file, null);
+    }
+
+    /**
+     * Makes cached content for a file available to the ingest modules in the
+     * file ingest pipeline of the calling thread.
+     *
+     * @param file The file about to be processed by the pipeline.
+     * @param buffer A buffer owned by the pipeline, at least
+     * MAX_FULLY_CACHED_FILE_SIZE bytes.
+     * @return The cached content, to be released when processing of the file
+     * is done.
+     */
+    static CachedFileContent startCaching(AbstractFile file, byte[] buffer) {
+        CachedFileContent content = new CachedFileContent(file, buffer);
+        currentContent.set(content);
+        return content;
+    }
+
+    private CachedFileContent(AbstractFile file, byte[] buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Gives the buffer back to the pipeline. Any reads after this, e.g., by
+     * threads that outlived the processing of the file, go to the file.
+     */
+    synchronized void release() {
+        buffer = null;
+        if (currentContent.get() == this) {
+            currentContent.remove();
+        }
+    }
+
+    /**
+     * Gets the file whose content this is.
+     *
+     * @return The file.
+     */
+    public AbstractFile getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the size of the content.
+     *
+     * @return The size in bytes.
+     */
+    public long getSize() {
+        return file.getSize();
+    }
+
+    /**
+     * Reads bytes from the content, in the same manner as AbstractFile.read().
+     *
+     * @param buf The buffer to read into, starting at index 0.
+     * @param offset The offset in the content to start reading from.
+     * @param len The number of bytes to read.
+     * @return The number of bytes read.
+     * @throws TskCoreException
+     */
+    public int read(byte[] buf, long offset, int len) throws TskCoreException {
+        return read(buf, 0, offset, len);
+    }
+
+    private int read(byte[] buf, int bufOffset, long offset, int len) throws TskCoreException {
+        synchronized (this) {
+            if (buffer != null) {
+                loadCache();
+                if (offset >= 0 && offset < cachedLength) {
+                    int available = cachedLength - (int) offset;
+                    if (len <= available || cachedLength == file.getSize()) {
+                        int bytesToCopy = Math.min(len, available);
+                        System.arraycopy(buffer, (int) offset, buf, bufOffset, bytesToCopy);
+                        return bytesToCopy;
+                    }
+                }
+            }
+        }
+        if (bufOffset == 0) {
+            return file.read(buf, offset, len);
+        }
+        byte[] tmp = new byte[len];
+        int bytesRead = file.read(tmp, offset, len);
+        if (bytesRead > 0) {
+            System.arraycopy(tmp, 0, buf, bufOffset, bytesRead);
+        }
+        return bytesRead;
+    }
+
+    private void loadCache() {
+        if (cachedLength >= 0) {
+            return;
+        }
+        cachedLength = 0;
+        long size = file.getSize();
+        int bytesToCache = (int) Math.min(size, (size <= MAX_FULLY_CACHED_FILE_SIZE) ? MAX_FULLY_CACHED_FILE_SIZE : HEADER_SIZE);
+        bytesToCache = Math.min(bytesToCache, buffer.length);
+        try {
+            while (cachedLength < bytesToCache) {
+                byte[] readBuf = buffer;
+                int bytesRead;
+                if (cachedLength == 0) {
+                    bytesRead = file.read(readBuf, 0, bytesToCache);
+                } else {
+                    // AbstractFile.read() always fills from the start of the 
+                    // buffer, so read the remainder via a temporary buffer.
+                    readBuf = new byte[bytesToCache - cachedLength];
+                    bytesRead = file.read(readBuf, cachedLength, readBuf.length);
+                    if (bytesRead > 0) {
+                        System.arraycopy(readBuf, 0, buffer, cachedLength, bytesRead);
+                    }
+                }
+                if (bytesRead <= 0) {
+                    break;
+                }
+                cachedLength += bytesRead;
+            }
+        } catch (TskCoreException ex) {
+            // Leave whatever was read in the cache, the remainder will be read
+            // from the file, which will report the error to the caller.
+        }
+    }
+
+    /**
+     * Gets an input stream for the content. The stream does not need to be
+     * closed, but may be.
+     *
+     * @return The input stream.
+     */
+    public InputStream getInputStream() {
+        return new CachedFileContentInputStream();
+    }
+
+    private final class CachedFileContentInputStream extends InputStream {
+
+        private long position = 0;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int bytesRead = read(b, 0, 1);
+            return (bytesRead == 1) ? (b[0] & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long remaining = getSize() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int bytesToRead = (int) Math.min(len, remaining);
+            try {
+                int bytesRead = CachedFileContent.this.read(b, off, position, bytesToRead);
+                if (bytesRead <= 0) {
+                    return -1;
+                }
+                position += bytesRead;
+                return bytesRead;
+            } catch (TskCoreException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        @Override
+        public long skip(long n) {
+            long toSkip = Math.max(0, Math.min(n, getSize() - position));
+            position += toSkip;
+            return toSkip;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, getSize() - position));
+        }
+    }
+}
@@ -22,18 +22,28 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.progress.ProgressHandleFactory;
 import org.openide.util.NbBundle;
 import org.sleuthkit.datamodel.Content;
 
 /**
  * A data source ingest pipeline composed of a sequence of data source ingest
- * modules constructed from ingest module templates.
+ * modules constructed from ingest module templates. Adjacent modules that are
+ * declared concurrent in the pipeline configuration are run at the same time.
  */
 final class DataSourceIngestPipeline {
 
+    private static final ExecutorService concurrentModulesThreadPool = Executors.newCachedThreadPool();
     private final IngestJobContext context;
     private List<DataSourceIngestModuleDecorator> modules = new ArrayList<>();
+    private List<List<DataSourceIngestModuleDecorator>> stages = new ArrayList<>();
 
     DataSourceIngestPipeline(IngestJobContext context, List<IngestModuleTemplate> moduleTemplates) {
         this.context = context;
@@ -64,6 +74,23 @@ final class DataSourceIngestPipeline {
         for (DataSourceIngestModuleDecorator module : modulesByClass.values()) {
             modules.add(module);
         }
+
+        // Divide the pipeline into stages. Each run of adjacent modules that 
+        // declare no ordering dependency becomes a single stage, every other
+        // module is a stage by itself.
+        Set<String> concurrentModules = IngestPipelinesConfiguration.getInstance().getConcurrentDataSourceIngestModules();
+        boolean lastStageIsConcurrent = false;
+        for (DataSourceIngestModuleDecorator module : modules) {
+            boolean isConcurrent = concurrentModules.contains(module.getClassName());
+            if (isConcurrent && lastStageIsConcurrent) {
+                stages.get(stages.size() - 1).add(module);
+            } else {
+                List<DataSourceIngestModuleDecorator> stage = new ArrayList<>();
+                stage.add(module);
+                stages.add(stage);
+            }
+            lastStageIsConcurrent = isConcurrent;
+        }
     }
 
     boolean isEmpty() {
@@ -84,14 +111,18 @@ List<IngestModuleError> startUp() {
 
     List<IngestModuleError> process(Content dataSource, ProgressHandle progress) {
         List<IngestModuleError> errors = new ArrayList<>();
-        for (DataSourceIngestModuleDecorator module : modules) {
-            try {
+        for (List<DataSourceIngestModuleDecorator> stage : stages) {
+            if (stage.size() == 1) {
+                DataSourceIngestModuleDecorator module = stage.get(0);
                 progress.setDisplayName(NbBundle.getMessage(this.getClass(),
                         "IngestJob.progress.dataSourceIngest.displayName",
                         module.getDisplayName(), dataSource.getName()));
-                module.process(dataSource, new DataSourceIngestModuleProgress(progress));
-            } catch (Exception ex) {
-                errors.add(new IngestModuleError(module.getDisplayName(), ex));
+                IngestModuleError error = processWithModule(module, dataSource, progress);
+                if (error != null) {
+                    errors.add(error);
+                }
+            } else {
+                errors.addAll(processConcurrently(stage, dataSource, progress));
             }
             if (context.isJobCancelled()) {
                 break;
@@ -100,6 +131,84 @@ List<IngestModuleError> process(Content dataSource, ProgressHandle progress) {
         return errors;
     }
 
+    private List<IngestModuleError> processConcurrently(List<DataSourceIngestModuleDecorator> stage, final Content dataSource, final ProgressHandle progress) {
+        List<IngestModuleError> errors = new ArrayList<>();
+        StringBuilder moduleNames = new StringBuilder();
+        for (DataSourceIngestModuleDecorator module : stage) {
+            if (moduleNames.length() > 0) {
+                moduleNames.append(", ");
+            }
+            moduleNames.append(module.getDisplayName());
+        }
+        progress.setDisplayName(NbBundle.getMessage(this.getClass(),
+                "IngestJob.progress.dataSourceIngest.displayName",
+                moduleNames.toString(), dataSource.getName()));
+        // The work units of the modules are unrelated, so each module reports
+        // its progress on a progress bar of its own, and the progress bar of
+        // the job just shows that the modules are running.
+        progress.switchToIndeterminate();
+        final List<ProgressHandle> moduleProgresses = new ArrayList<>();
+        for (DataSourceIngestModuleDecorator module : stage) {
+            ProgressHandle moduleProgress = ProgressHandleFactory.createHandle(NbBundle.getMessage(this.getClass(),
+                    "IngestJob.progress.dataSourceIngest.displayName",
+                    module.getDisplayName(), dataSource.getName()));
+            moduleProgress.start();
+            moduleProgress.switchToIndeterminate();
+            moduleProgresses.add(moduleProgress);
+        }
+
+        try {
+            // Run all but the first module of the stage in the shared thread 
+            // pool and the first module in the calling thread, then wait for 
+            // the others.
+            List<Future<IngestModuleError>> handles = new ArrayList<>();
+            for (int i = 1; i < stage.size(); ++i) {
+                final DataSourceIngestModuleDecorator module = stage.get(i);
+                final ProgressHandle moduleProgress = moduleProgresses.get(i);
+                handles.add(concurrentModulesThreadPool.submit(new Callable<IngestModuleError>() {
+                    @Override
+                    public IngestModuleError call() {
+                        return processWithModule(module, dataSource, moduleProgress);
+                    }
+                }));
+            }
+            IngestModuleError error = processWithModule(stage.get(0), dataSource, moduleProgresses.get(0));
+            if (error != null) {
+                errors.add(error);
+            }
+            for (int i = 0; i < handles.size(); ++i) {
+                try {
+                    error = handles.get(i).get();
+                    if (error != null) {
+                        errors.add(error);
+                    }
+                } catch (InterruptedException ex) {
+                    for (Future<IngestModuleError> handle : handles) {
+                        handle.cancel(true);
+                    }
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ex) {
+                    errors.add(new IngestModuleError(stage.get(i + 1).getDisplayName(), ex));
+                }
+            }
+        } finally {
+            for (ProgressHandle moduleProgress : moduleProgresses) {
+                moduleProgress.finish();
+            }
+        }
+        return errors;
+    }
+
+    private IngestModuleError processWithModule(DataSourceIngestModuleDecorator module, Content dataSource, ProgressHandle progress) {
+        try {
+            module.process(dataSource, new DataSourceIngestModuleProgress(progress));
+        } catch (Exception ex) {
+            return new IngestModuleError(module.getDisplayName(), ex);
+        }
+        return null;
+    }
+
     private static class DataSourceIngestModuleDecorator implements DataSourceIngestModule {
 
         private final DataSourceIngestModule module;
@@ -0,0 +1,194 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.TskData;
+
+/**
+ * Facts about the file being processed by a file ingest pipeline, published by
+ * the ingest modules that derive them for the modules later in the pipeline.
+ * For example, the file type identification module publishes the MIME type of
+ * the file, so that modules that need the type do not have to query the case
+ * database for the attribute the file type identification module just posted
+ * to the blackboard. Publishing a fact does not persist it; modules still post
+ * their results to the blackboard.
+ *
+ * Instances are obtained from IngestJobContext.getFileIngestContext(). The
+ * facts are discarded when the pipeline finishes with the file.
+ */
+public final class FileIngestContext {
+
+    /**
+     * The MIME type of the file as determined from its signature, a String.
+     */
+    public static final String MIME_TYPE = "MimeType"; //NON-NLS
+    /**
+     * The MD5 hash of the file as a hex string.
+     */
+    public static final String MD5_HASH = "Md5Hash"; //NON-NLS
+    /**
+     * The SHA-1 hash of the file as a hex string, if configured.
+     */
+    public static final String SHA1_HASH = "Sha1Hash"; //NON-NLS
+    /**
+     * The SHA-256 hash of the file as a hex string, if configured.
+     */
+    public static final String SHA256_HASH = "Sha256Hash"; //NON-NLS
+    /**
+     * The ssdeep fuzzy hash of the file, if there is a fuzzy hash set to
+     * compare it to.
+     */
+    public static final String FUZZY_HASH = "FuzzyHash"; //NON-NLS
+    /**
+     * The known status of the file, a TskData.FileKnown.
+     */
+    public static final String KNOWN_STATUS = "KnownStatus"; //NON-NLS
+    private static final ThreadLocal<FileIngestContext> currentContext = new ThreadLocal<>();
+    private final AbstractFile file;
+    private final ConcurrentHashMap<String, Object> facts = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the context for a file if the file is the one being processed by
+     * the file ingest pipeline of the calling thread, otherwise gets an empty
+     * context for the file.
+     *
+     * @param file The file.
+     * @return The context for the file.
+     */
+    static FileIngestContext getFileIngestContext(AbstractFile file) {
+        FileIngestContext context = currentContext.get();
+        if (context != null && context.file.getId() == file.getId()) {
+            return context;
+        }
+        return new FileIngestContext(file);
+    }
+
+    /**
+     * Makes a new, empty context for a file available to the ingest modules in
+     * the file ingest pipeline of the calling thread.
+     *
+     * @param file The file about to be processed by the pipeline.
+     * @return The context, to be released when processing of the file is
+     * done.
+     */
+    static FileIngestContext start(AbstractFile file) {
+        FileIngestContext context = new FileIngestContext(file);
+        currentContext.set(context);
+        return context;
+    }
+
+    private FileIngestContext(AbstractFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Stops making the context available to the ingest modules.
+     */
+    void release() {
+        if (currentContext.get() == this) {
+            currentContext.remove();
+        }
+    }
+
+    /**
+     * Gets the file the context is for.
+     *
+     * @return The file.
+     */
+    public AbstractFile getFile() {
+        return file;
+    }
+
+    /**
+     * Publishes a fact about the file.
+     *
+     * @param name The name of the fact, e.g., MIME_TYPE.
+     * @param value The value of the fact.
+     */
+    public void put(String name, Object value) {
+        facts.put(name, value);
+    }
+
+    /**
+     * Gets a fact about the file published by a module earlier in the
+     * pipeline.
+     *
+     * @param name The name of the fact, e.g., MIME_TYPE.
+     * @return The value of the fact, or null if it has not been published.
+     */
+    public Object get(String name) {
+        return facts.get(name);
+    }
+
+    /**
+     * Gets the MIME type of the file, if published. An empty string means the
+     * type could not be determined.
+     *
+     * @return The MIME type, or null if it has not been published.
+     */
+    public String getMimeType() {
+        Object value = facts.get(MIME_TYPE);
+        return (value instanceof String) ? (String) value : null;
+    }
+
+    /**
+     * Gets the MD5 hash of the file, either as published by a module earlier
+     * in the pipeline or from the case database.
+     *
+     * @return The MD5 hash as a hex string, or null if it has not been
+     * calculated.
+     */
+    public String getMd5Hash() {
+        Object value = facts.get(MD5_HASH);
+        if (value instanceof String) {
+            return (String) value;
+        }
+        String md5Hash = file.getMd5Hash();
+        return (md5Hash == null || md5Hash.isEmpty()) ? null : md5Hash;
+    }
+
+    /**
+     * Gets the known status of the file, if published.
+     *
+     * @return The known status, or null if it has not been published.
+     */
+    public TskData.FileKnown getKnownStatus() {
+        Object value = facts.get(KNOWN_STATUS);
+        return (value instanceof TskData.FileKnown) ? (TskData.FileKnown) value : null;
+    }
+
+    /**
+     * Determines whether the file is known to be a known (NSRL) file, either
+     * from the known status published by a module earlier in the pipeline or
+     * from the known status of the file in the case database. The published
+     * status takes precedence, since it may not have been written to the case
+     * database yet.
+     *
+     * @return True or false.
+     */
+    public boolean isKnown() {
+        TskData.FileKnown knownStatus = getKnownStatus();
+        if (knownStatus == null) {
+            knownStatus = file.getKnown();
+        }
+        return knownStatus == TskData.FileKnown.KNOWN;
+    }
+}
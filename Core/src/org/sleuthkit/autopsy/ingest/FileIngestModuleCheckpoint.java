@@ -0,0 +1,273 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Records the ids of the files a file ingest module has processed for a data
+ * source, so that an ingest job that is cancelled or does not finish can be
+ * resumed by a later job without repeating the work.
+ *
+ * The checkpoint file in the case directory starts with a header holding a
+ * fingerprint of the module version and ingest job settings. The files
+ * recorded by a previous job are only treated as completed if the
+ * fingerprint matches, so a job with, e.g., different keyword lists or hash
+ * sets processes every file again. The header is followed by blocks of ids.
+ * Each block is a count, the first (smallest) id, and the differences between
+ * successive sorted ids as variable length integers. A truncated block at the
+ * end of the file, e.g., from a crash during a write, is ignored.
+ *
+ * Recording a completed file only adds its id to a buffer. The ids are
+ * written by the ingest job, which periodically takes the buffered ids of all
+ * of its checkpoints, writes the results its modules have deferred, and only
+ * then writes the ids. This keeps the writes off the ingest threads.
+ */
+final class FileIngestModuleCheckpoint {
+
+    private static final Logger logger = Logger.getLogger(FileIngestModuleCheckpoint.class.getName());
+    private static final int HEADER_MAGIC = 0x414B5031; // "AKP1", never a valid block count
+    private static final int BLOCK_SIZE = 1024;
+    private final File checkpointFile;
+    private final String settingsFingerprint;
+    private final long[] previouslyCompletedFileIds; // Sorted, read only after construction
+    private final AtomicLong skippedFilesCount = new AtomicLong(0L);
+    private long[] completedFileIds = new long[BLOCK_SIZE]; // Guarded by this
+    private int completedFileIdsCount = 0; // Guarded by this
+    private final Object fileLock = new Object();
+    private boolean headerWritten = false; // Guarded by fileLock
+
+    /**
+     * Creates a checkpoint for a file ingest module, loading the file ids
+     * recorded by previous ingest jobs for the same data source and module if
+     * they were recorded with the same settings. A checkpoint with different
+     * settings is discarded.
+     *
+     * @param checkpointFile The checkpoint file.
+     * @param settingsFingerprint A fingerprint of the module version and
+     * ingest job settings.
+     */
+    FileIngestModuleCheckpoint(File checkpointFile, String settingsFingerprint) {
+        this.checkpointFile = checkpointFile;
+        this.settingsFingerprint = settingsFingerprint;
+        this.previouslyCompletedFileIds = load(checkpointFile, settingsFingerprint);
+        synchronized (fileLock) {
+            headerWritten = previouslyCompletedFileIds.length > 0;
+        }
+    }
+
+    /**
+     * Gets the number of files completed by previous ingest jobs.
+     *
+     * @return The number of files.
+     */
+    int getPreviouslyCompletedFilesCount() {
+        return previouslyCompletedFileIds.length;
+    }
+
+    /**
+     * Determines whether a previous ingest job completed processing of a file
+     * with the module.
+     *
+     * @param fileId The object id of the file.
+     * @return True or false.
+     */
+    boolean isCompleted(long fileId) {
+        return Arrays.binarySearch(previouslyCompletedFileIds, fileId) >= 0;
+    }
+
+    /**
+     * Records that the module did not process a file because a previous
+     * ingest job completed it.
+     */
+    void recordSkipped() {
+        skippedFilesCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of files the module did not process because a previous
+     * ingest job completed them.
+     *
+     * @return The number of files.
+     */
+    long getSkippedFilesCount() {
+        return skippedFilesCount.get();
+    }
+
+    /**
+     * Records that the module completed processing of a file. The id is
+     * buffered until the ingest job writes the checkpoint.
+     *
+     * @param fileId The object id of the file.
+     */
+    synchronized void recordCompleted(long fileId) {
+        if (completedFileIdsCount == completedFileIds.length) {
+            completedFileIds = Arrays.copyOf(completedFileIds, completedFileIds.length * 2);
+        }
+        completedFileIds[completedFileIdsCount++] = fileId;
+    }
+
+    /**
+     * Takes the ids recorded since the last call, to be written once the
+     * results of the files have been written.
+     *
+     * @return The ids, possibly empty.
+     */
+    synchronized long[] takeCompletedFileIds() {
+        long[] ids = Arrays.copyOf(completedFileIds, completedFileIdsCount);
+        completedFileIdsCount = 0;
+        if (completedFileIds.length > BLOCK_SIZE) {
+            completedFileIds = new long[BLOCK_SIZE];
+        }
+        return ids;
+    }
+
+    /**
+     * Writes ids taken with takeCompletedFileIds() to the checkpoint file.
+     *
+     * @param ids The ids.
+     */
+    void write(long[] ids) {
+        if (ids.length == 0) {
+            return;
+        }
+        Arrays.sort(ids);
+        synchronized (fileLock) {
+            checkpointFile.getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(checkpointFile, headerWritten)))) {
+                if (!headerWritten) {
+                    out.writeInt(HEADER_MAGIC);
+                    out.writeUTF(settingsFingerprint);
+                    headerWritten = true;
+                }
+                for (int start = 0; start < ids.length; start += BLOCK_SIZE) {
+                    int end = Math.min(start + BLOCK_SIZE, ids.length);
+                    out.writeInt(end - start);
+                    out.writeLong(ids[start]);
+                    for (int i = start + 1; i < end; ++i) {
+                        writeVarLong(out, ids[i] - ids[i - 1]);
+                    }
+                }
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Could not write ingest checkpoint " + checkpointFile, ex); //NON-NLS
+            }
+        }
+    }
+
+    /**
+     * Discards the checkpoint, e.g., when an ingest job has finished without
+     * being cancelled and there is nothing to resume.
+     */
+    void delete() {
+        synchronized (this) {
+            completedFileIdsCount = 0;
+        }
+        synchronized (fileLock) {
+            headerWritten = false;
+            if (checkpointFile.exists() && !checkpointFile.delete()) {
+                logger.log(Level.WARNING, "Could not delete ingest checkpoint {0}", checkpointFile); //NON-NLS
+            }
+        }
+    }
+
+    private static long[] load(File checkpointFile, String settingsFingerprint) {
+        if (!checkpointFile.exists()) {
+            return new long[0];
+        }
+        long[] ids = new long[BLOCK_SIZE];
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            if (in.readInt() != HEADER_MAGIC || !in.readUTF().equals(settingsFingerprint)) {
+                logger.log(Level.INFO, "Discarding ingest checkpoint {0}, it was recorded with different ingest module settings", checkpointFile); //NON-NLS
+                return new long[0];
+            }
+            while (true) {
+                int blockSize;
+                try {
+                    blockSize = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (blockSize <= 0 || blockSize > BLOCK_SIZE) {
+                    logger.log(Level.WARNING, "Ignoring corrupt ingest checkpoint block in {0}", checkpointFile); //NON-NLS
+                    break;
+                }
+                long[] block = new long[blockSize];
+                try {
+                    block[0] = in.readLong();
+                    for (int i = 1; i < blockSize; ++i) {
+                        block[i] = block[i - 1] + readVarLong(in);
+                    }
+                } catch (EOFException ex) {
+                    // The last block was only partly written.
+                    break;
+                }
+                if (count + blockSize > ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + blockSize));
+                }
+                System.arraycopy(block, 0, ids, count, blockSize);
+                count += blockSize;
+            }
+        } catch (EOFException ex) {
+            // The header was only partly written.
+            return new long[0];
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Could not read ingest checkpoint " + checkpointFile, ex); //NON-NLS
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Malformed variable length integer"); //NON-NLS
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Accumulates processing time statistics for a file ingest module over the
+ * course of an ingest job. The statistics are shared by the instances of the
+ * module in all of the file ingest pipelines of the job and are updated without
+ * locking.
+ */
+final class FileIngestModuleStatistics {
+
+    private static final int NUMBER_OF_LATENCY_BUCKETS = 40; // Powers of two microseconds.
+    private static final long[] SIZE_BUCKET_LIMITS = {4L * 1024, 64L * 1024, 1024L * 1024, 16L * 1024 * 1024, 256L * 1024 * 1024, Long.MAX_VALUE};
+    private static final String[] SIZE_BUCKET_NAMES = {"<4KB", "<64KB", "<1MB", "<16MB", "<256MB", ">=256MB"}; //NON-NLS
+    private static final int MAX_FILE_TYPES = 64;
+    private static final String NO_FILE_TYPE = "(none)"; //NON-NLS
+    private static final String OTHER_FILE_TYPES = "(other)"; //NON-NLS
+    private final String moduleDisplayName;
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(NUMBER_OF_LATENCY_BUCKETS);
+    private final AtomicLong filesProcessed = new AtomicLong(0L);
+    private final AtomicLong totalTimeNanos = new AtomicLong(0L);
+    private final AtomicLong maxTimeNanos = new AtomicLong(0L);
+    private final AtomicLong bytesProcessed = new AtomicLong(0L);
+    private final AtomicLong errors = new AtomicLong(0L);
+    private final AtomicLong knownFilesSkipped = new AtomicLong(0L);
+    private final AtomicLong knownBytesSkipped = new AtomicLong(0L);
+    private final AtomicLongArray filesBySize = new AtomicLongArray(SIZE_BUCKET_LIMITS.length);
+    private final AtomicLongArray timeNanosBySize = new AtomicLongArray(SIZE_BUCKET_LIMITS.length);
+    private final ConcurrentHashMap<String, AtomicLongArray> filesAndTimeNanosByType = new ConcurrentHashMap<>();
+
+    FileIngestModuleStatistics(String moduleDisplayName) {
+        this.moduleDisplayName = moduleDisplayName;
+    }
+
+    String getModuleDisplayName() {
+        return moduleDisplayName;
+    }
+
+    /**
+     * Records the processing of a file by the module.
+     *
+     * @param file The file.
+     * @param fileType The type of the file, may be null if unknown.
+     * @param timeNanos The elapsed processing time.
+     * @param failed Whether the module reported an error or threw.
+     */
+    void record(AbstractFile file, String fileType, long timeNanos, boolean failed) {
+        filesProcessed.incrementAndGet();
+        totalTimeNanos.addAndGet(timeNanos);
+        long max = maxTimeNanos.get();
+        while (timeNanos > max && !maxTimeNanos.compareAndSet(max, timeNanos)) {
+            max = maxTimeNanos.get();
+        }
+        latencyHistogram.incrementAndGet(getLatencyBucket(timeNanos));
+
+        long size = file.getSize();
+        bytesProcessed.addAndGet(size);
+        int sizeBucket = getSizeBucket(size);
+        filesBySize.incrementAndGet(sizeBucket);
+        timeNanosBySize.addAndGet(sizeBucket, timeNanos);
+
+        AtomicLongArray filesAndTime = getFilesAndTimeForType(fileType);
+        filesAndTime.incrementAndGet(0);
+        filesAndTime.addAndGet(1, timeNanos);
+
+        if (failed) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that the pipeline did not pass a file to the module because the
+     * file is known and the module opts out of processing known files.
+     *
+     * @param file The file.
+     */
+    void recordKnownFileSkipped(AbstractFile file) {
+        knownFilesSkipped.incrementAndGet();
+        knownBytesSkipped.addAndGet(file.getSize());
+    }
+
+    private static int getLatencyBucket(long timeNanos) {
+        long micros = timeNanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, NUMBER_OF_LATENCY_BUCKETS - 1);
+    }
+
+    private static int getSizeBucket(long size) {
+        int bucket = 0;
+        while (size >= SIZE_BUCKET_LIMITS[bucket]) {
+            ++bucket;
+        }
+        return bucket;
+    }
+
+    private AtomicLongArray getFilesAndTimeForType(String fileType) {
+        String key = (fileType == null || fileType.isEmpty()) ? NO_FILE_TYPE : fileType.toLowerCase();
+        AtomicLongArray filesAndTime = filesAndTimeNanosByType.get(key);
+        if (filesAndTime == null) {
+            if (filesAndTimeNanosByType.size() >= MAX_FILE_TYPES) {
+                // Bound the memory used by oddball extensions.
+                key = OTHER_FILE_TYPES;
+            }
+            filesAndTime = new AtomicLongArray(2);
+            AtomicLongArray existing = filesAndTimeNanosByType.putIfAbsent(key, filesAndTime);
+            if (existing != null) {
+                filesAndTime = existing;
+            }
+        }
+        return filesAndTime;
+    }
+
+    /**
+     * Gets an estimate of the processing time at a given percentile, from the
+     * latency histogram.
+     *
+     * @param percentile A percentile between 0 and 100.
+     * @return The upper bound, in microseconds, of the histogram bucket that
+     * contains the percentile.
+     */
+    long getLatencyPercentileMicros(double percentile) {
+        long count = 0;
+        long[] buckets = new long[NUMBER_OF_LATENCY_BUCKETS];
+        for (int i = 0; i < NUMBER_OF_LATENCY_BUCKETS; ++i) {
+            buckets[i] = latencyHistogram.get(i);
+            count += buckets[i];
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long cumulative = 0;
+        for (int i = 0; i < NUMBER_OF_LATENCY_BUCKETS; ++i) {
+            cumulative += buckets[i];
+            if (cumulative >= rank && cumulative > 0) {
+                return 1L << i;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Gets a one line summary of the statistics, suitable for logging.
+     *
+     * @return The summary.
+     */
+    String getSummary() {
+        long files = filesProcessed.get();
+        StringBuilder summary = new StringBuilder();
+        summary.append(moduleDisplayName);
+        summary.append(": files=").append(files); //NON-NLS
+        summary.append(", errors=").append(errors.get()); //NON-NLS
+        summary.append(", bytes=").append(bytesProcessed.get()); //NON-NLS
+        summary.append(", knownSkipped=").append(knownFilesSkipped.get()); //NON-NLS
+        summary.append(", knownBytesSkipped=").append(knownBytesSkipped.get()); //NON-NLS
+        summary.append(", totalMs=").append(totalTimeNanos.get() / 1000000); //NON-NLS
+        summary.append(", maxMs=").append(maxTimeNanos.get() / 1000000); //NON-NLS
+        summary.append(", p50us<=").append(getLatencyPercentileMicros(50.0)); //NON-NLS
+        summary.append(", p90us<=").append(getLatencyPercentileMicros(90.0)); //NON-NLS
+        summary.append(", p99us<=").append(getLatencyPercentileMicros(99.0)); //NON-NLS
+        summary.append(", bySize={"); //NON-NLS
+        for (int i = 0; i < SIZE_BUCKET_LIMITS.length; ++i) {
+            long sizeFiles = filesBySize.get(i);
+            if (sizeFiles > 0) {
+                summary.append(SIZE_BUCKET_NAMES[i]).append(':').append(sizeFiles).append(" files/"); //NON-NLS
+                summary.append(timeNanosBySize.get(i) / 1000000).append("ms "); //NON-NLS
+            }
+        }
+        summary.append("}, byType={"); //NON-NLS
+        Map<String, AtomicLongArray> byType = new TreeMap<>(filesAndTimeNanosByType);
+        for (Map.Entry<String, AtomicLongArray> entry : byType.entrySet()) {
+            summary.append(entry.getKey()).append(':').append(entry.getValue().get(0)).append(" files/"); //NON-NLS
+            summary.append(entry.getValue().get(1) / 1000000).append("ms "); //NON-NLS
+        }
+        summary.append('}');
+        return summary.toString();
+    }
+}
@@ -22,6 +22,7 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.sleuthkit.datamodel.AbstractFile;
 
 /**
@@ -32,6 +33,7 @@ final class FileIngestPipeline {
 
     private final IngestJobContext context;
     private List<FileIngestModuleDecorator> modules = new ArrayList<>();
+    private byte[] contentCacheBuffer;
 
     FileIngestPipeline(IngestJobContext context, List<IngestModuleTemplate> moduleTemplates) {
         this.context = context;
@@ -42,9 +44,13 @@ final class FileIngestPipeline {
         // sequence indicated by the ordered list of module class names that 
         // will be obtained from the file ingest pipeline configuration.
         Map<String, FileIngestModuleDecorator> modulesByClass = new HashMap<>();
+        Set<String> skipKnownModules = IngestPipelinesConfiguration.getInstance().getSkipKnownFileIngestModules();
         for (IngestModuleTemplate template : moduleTemplates) {
             if (template.isFileIngestModuleTemplate()) {
-                FileIngestModuleDecorator module = new FileIngestModuleDecorator(template.createFileIngestModule(), template.getModuleName());
+                FileIngestModuleStatistics statistics = context.getIngestJob().getFileIngestModuleStatistics(template.getModuleName());
+                FileIngestModuleCheckpoint checkpoint = context.getIngestJob().getFileIngestModuleCheckpoint(template);
+                FileIngestModuleDecorator module = new FileIngestModuleDecorator(template.createFileIngestModule(), template.getModuleName(), statistics, checkpoint);
+                module.setSkipKnownFiles(skipKnownModules.contains(module.getClassName()));
                 modulesByClass.put(module.getClassName(), module);
             }
         }
@@ -82,15 +88,46 @@ List<IngestModuleError> startUp() {
 
     List<IngestModuleError> process(AbstractFile file) {
         List<IngestModuleError> errors = new ArrayList<>();
-        for (FileIngestModuleDecorator module : modules) {
-            try {
-                module.process(file);
-            } catch (Exception ex) {
-                errors.add(new IngestModuleError(module.getDisplayName(), ex));
-            }
-            if (context.isJobCancelled()) {
-                break;
+        // Let the modules share a single read of the file content. The buffer
+        // is allocated on first use and reused for every file the pipeline
+        // processes.
+        if (contentCacheBuffer == null) {
+            contentCacheBuffer = new byte[CachedFileContent.MAX_FULLY_CACHED_FILE_SIZE];
+        }
+        CachedFileContent content = CachedFileContent.startCaching(file, contentCacheBuffer);
+        FileIngestContext fileContext = FileIngestContext.start(file);
+        boolean knownFileSkipped = false;
+        try {
+            for (FileIngestModuleDecorator module : modules) {
+                if (module.isCompleted(file)) {
+                    // Done by a previous, unfinished ingest job.
+                    module.recordSkipped();
+                    continue;
+                }
+                if (module.getSkipKnownFiles() && fileContext.isKnown()) {
+                    module.recordKnownFileSkipped(file);
+                    knownFileSkipped = true;
+                    continue;
+                }
+                try {
+                    if (module.process(file) == IngestModule.ProcessResult.OK && !context.isJobCancelled()) {
+                        // A module may cut its processing short if the job 
+                        // is cancelled, so only record completed processing.
+                        module.recordCompleted(file);
+                    }
+                } catch (Exception ex) {
+                    errors.add(new IngestModuleError(module.getDisplayName(), ex));
+                }
+                if (context.isJobCancelled()) {
+                    break;
+                }
             }
+        } finally {
+            fileContext.release();
+            content.release();
+        }
+        if (knownFileSkipped) {
+            context.getIngestJob().recordKnownFileSkipped(file);
         }
         file.close();
         if (!context.isJobCancelled()) {
@@ -115,10 +152,15 @@ private static final class FileIngestModuleDecorator implements FileIngestModule
 
         private final FileIngestModule module;
         private final String displayName;
+        private final FileIngestModuleStatistics statistics;
+        private final FileIngestModuleCheckpoint checkpoint;
+        private boolean skipKnownFiles;
 
-        FileIngestModuleDecorator(FileIngestModule module, String displayName) {
+        FileIngestModuleDecorator(FileIngestModule module, String displayName, FileIngestModuleStatistics statistics, FileIngestModuleCheckpoint checkpoint) {
             this.module = module;
             this.displayName = displayName;
+            this.statistics = statistics;
+            this.checkpoint = checkpoint;
         }
 
         String getClassName() {
@@ -129,6 +171,30 @@ String getDisplayName() {
             return displayName;
         }
 
+        boolean getSkipKnownFiles() {
+            return skipKnownFiles;
+        }
+
+        void setSkipKnownFiles(boolean skipKnownFiles) {
+            this.skipKnownFiles = skipKnownFiles;
+        }
+
+        void recordKnownFileSkipped(AbstractFile file) {
+            statistics.recordKnownFileSkipped(file);
+        }
+
+        boolean isCompleted(AbstractFile file) {
+            return checkpoint.isCompleted(file.getId());
+        }
+
+        void recordSkipped() {
+            checkpoint.recordSkipped();
+        }
+
+        void recordCompleted(AbstractFile file) {
+            checkpoint.recordCompleted(file.getId());
+        }
+
         @Override
         public void startUp(IngestJobContext context) throws IngestModuleException {
             module.startUp(context);
@@ -136,7 +202,20 @@ public void startUp(IngestJobContext context) throws IngestModuleException {
 
         @Override
         public IngestModule.ProcessResult process(AbstractFile file) {
-            return module.process(file);
+            IngestModule.ProcessResult result = IngestModule.ProcessResult.ERROR;
+            long startTime = System.nanoTime();
+            try {
+                result = module.process(file);
+                return result;
+            } finally {
+                // Use the MIME type if a module has published it, otherwise
+                // fall back to the extension.
+                String fileType = FileIngestContext.getFileIngestContext(file).getMimeType();
+                if (fileType == null || fileType.isEmpty()) {
+                    fileType = file.getNameExtension();
+                }
+                statistics.record(file, fileType, System.nanoTime() - startTime, result == IngestModule.ProcessResult.ERROR);
+            }
         }
 
         @Override
@@ -24,6 +24,8 @@
 final class FileIngestTask extends IngestTask {
 
     private final AbstractFile file;
+    private long startTime; // Used by the scheduler to charge the job for the task.
+    private long chargedNanos;
 
     FileIngestTask(IngestJob job, AbstractFile file) {
         super(job);
@@ -34,6 +36,19 @@ AbstractFile getFile() {
         return file;
     }
 
+    void setStartTime(long startTime, long chargedNanos) {
+        this.startTime = startTime;
+        this.chargedNanos = chargedNanos;
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    long getChargedNanos() {
+        return chargedNanos;
+    }
+
     @Override
     void execute() throws InterruptedException {
         getIngestJob().process(this);
@@ -21,13 +21,22 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.TreeSet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.prefs.PreferenceChangeEvent;
+import java.util.prefs.PreferenceChangeListener;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.sleuthkit.autopsy.core.UserPreferences;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.Content;
 import org.sleuthkit.datamodel.File;
@@ -35,24 +44,80 @@
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskData;
 
+/**
+ * Schedules the file ingest tasks of the ingest jobs that are running. Each
+ * job has its own task queues, and the file ingest threads are shared among
+ * the jobs by weight, so that a job for a small data source finishes quickly
+ * even while a job for a large one is running.
+ *
+ * The jobs are served by stride scheduling: each job has a pass, which is
+ * advanced by the time the file ingest threads spend executing its tasks,
+ * divided by its weight. The next task is taken from the job with the lowest
+ * pass that has work, so over time each job gets a share of the threads in
+ * proportion to its weight. A job that is added while others are running
+ * starts at the lowest pass of the running jobs, so it does not make up for
+ * the time before it was added. The passes are updated atomically and the
+ * running jobs are kept in an array that is only replaced when a job is added
+ * or removed, so dispatching a task takes no lock.
+ */
 final class FileIngestTaskScheduler implements IngestTaskQueue {
 
     private static final FileIngestTaskScheduler instance = new FileIngestTaskScheduler();
     private static final Logger logger = Logger.getLogger(FileIngestTaskScheduler.class.getName());
     private static final int FAT_NTFS_FLAGS = TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_FAT12.getValue() | TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_FAT16.getValue() | TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_FAT32.getValue() | TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_NTFS.getValue();
-    private final List<IngestTask> fileTasks = new ArrayList<>();  // Guarded by this
-    private final TreeSet<FileIngestTask> rootDirectoryTasksQueue = new TreeSet<>(new RootDirectoryTaskComparator()); // Guarded by this
-    private final List<FileIngestTask> directoryTasksQueue = new ArrayList<>();  // Guarded by this
-    private final LinkedBlockingQueue<FileIngestTask> fileTasksQueue = new LinkedBlockingQueue<>();
+    static final int MIN_WEIGHT = 1;
+    static final int DEFAULT_WEIGHT = 10;
+    static final int MAX_WEIGHT = 100;
+    // The time charged to a job when one of its tasks is started, before the
+    // actual execution time is known, if the job has no completed tasks yet.
+    private static final long DEFAULT_TASK_CHARGE_NANOS = 1000000L;
+    private final ConcurrentHashMap<Long, AtomicLong> incompleteTaskCountsByJobId = new ConcurrentHashMap<>(); // Maps job ids to counts of queued and executing tasks.
+    private final ConcurrentHashMap<Long, JobTasks> jobTasksByJobId = new ConcurrentHashMap<>(); // Maps job ids to the task queues of the jobs.
+    private volatile JobTasks[] runningJobTasks = new JobTasks[0]; // Replaced when a job is added or removed.
+    private final AtomicLong lastDispatchedPass = new AtomicLong(0L);
+    private final AtomicLong queuedDirectoryTasksCount = new AtomicLong(0L);
+    // File tasks are queued in one of two lanes. Files at least 
+    // LARGE_FILE_SIZE bytes in size, e.g., page files, hibernation files and
+    // unallocated space chunks, go in the large files lane, everything else 
+    // goes in the small files lane. Only a share of the file ingest threads 
+    // may execute large file tasks at any one time, so that results for small 
+    // files keep coming while the large files are processed.
+    static final long LARGE_FILE_SIZE = 100L * 1024 * 1024;
+    private final AtomicLong queuedSmallFileTasksCount = new AtomicLong(0L);
+    private final AtomicLong queuedLargeFileTasksCount = new AtomicLong(0L);
+    private final AtomicInteger executingLargeFileTasksCount = new AtomicInteger(0);
+    private volatile int largeFileIngestThreadsPercentage;
+    private final Object tasksAvailableLock = new Object();
+    private final AtomicInteger waitingThreadsCount = new AtomicInteger(0);
 
     static FileIngestTaskScheduler getInstance() {
         return instance;
     }
 
     private FileIngestTaskScheduler() {
+        largeFileIngestThreadsPercentage = getLargeFileIngestThreadsPercentage();
+        UserPreferences.addChangeListener(new PreferenceChangeListener() {
+            @Override
+            public void preferenceChange(PreferenceChangeEvent evt) {
+                if (evt.getKey().equals(UserPreferences.LARGE_FILE_INGEST_THREADS_PERCENTAGE)) {
+                    largeFileIngestThreadsPercentage = getLargeFileIngestThreadsPercentage();
+                }
+            }
+        });
+    }
+
+    private static int getLargeFileIngestThreadsPercentage() {
+        int percentage = UserPreferences.largeFileIngestThreadsPercentage();
+        return Math.max(0, Math.min(100, percentage));
     }
 
     boolean tryScheduleTasks(IngestJob job, Content dataSource) throws InterruptedException {
+        // Hold an extra count for the job while its tasks are being scheduled,
+        // so that the job cannot appear complete if ingest threads finish the 
+        // first tasks before the rest of the top level files are queued.
+        incrementIncompleteTaskCount(job);
+        JobTasks jobTasks = getJobTasks(job);
+
         // Get the top level files of the data source.
         Collection<AbstractFile> rootObjects = dataSource.accept(new GetRootDirectoryVisitor());
         List<AbstractFile> topLevelFiles = new ArrayList<>();
@@ -87,75 +152,292 @@ boolean tryScheduleTasks(IngestJob job, Content dataSource) throws InterruptedEx
         for (AbstractFile firstLevelFile : topLevelFiles) {
             FileIngestTask fileTask = new FileIngestTask(job, firstLevelFile);
             if (shouldEnqueueTask(fileTask)) {
-                synchronized (this) {
-                    rootDirectoryTasksQueue.add(fileTask);
-                }
+                incrementIncompleteTaskCount(job);
+                jobTasks.addRootDirectoryTask(fileTask);
             }
         }
-        updateTaskQueues();
-        
-        return !fileTasks.isEmpty();
+
+        // Get the ingest threads started by filling the file tasks queues of
+        // the job.
+        while (!jobTasks.hasFileTasks()) {
+            if (!expandNextDirectory(jobTasks)) {
+                break;
+            }
+        }
+
+        return !decrementIncompleteTaskCount(job);
     }
 
     void scheduleTask(IngestJob job, AbstractFile file) throws InterruptedException {
         FileIngestTask task = new FileIngestTask(job, file);
         if (shouldEnqueueTask(task)) {
-            // Direct to file tasks queue, no need to update root directory or
+            // Direct to file tasks queues, no need to update root directory or
             // directory tasks queues.
+            incrementIncompleteTaskCount(job);
             enqueueFileTask(task);
         }
     }
 
     @Override
     public IngestTask getNextTask() throws InterruptedException {
-        FileIngestTask task = fileTasksQueue.take();
-        updateTaskQueues();
+        while (true) {
+            boolean expandedDirectory = false;
+            JobTasks[] jobs = runningJobTasks;
+            int first = indexOfLowestPass(jobs);
+            for (int i = 0; i < jobs.length; ++i) {
+                JobTasks jobTasks = jobs[(first + i) % jobs.length];
+                FileIngestTask task = pollFileTask(jobTasks);
+                if (task != null) {
+                    return task;
+                }
+                // The file tasks queues of the job are empty, so have this 
+                // thread refill them by expanding one of its directories, 
+                // rather than serving a job that has had more than its share.
+                // Directory expansion requires case database queries, but no 
+                // lock is held, so many threads can expand directories at once.
+                if (expandNextDirectory(jobTasks)) {
+                    expandedDirectory = true;
+                    break;
+                }
+            }
+            if (!expandedDirectory && queuedDirectoryTasksCount.get() == 0) {
+                // There are no directories left to expand, wait for file tasks 
+                // from other threads or new ingest jobs, or for a large file 
+                // task to complete if only large file tasks are queued.
+                synchronized (tasksAvailableLock) {
+                    // Count this thread as waiting before checking the queues
+                    // again, so a task queued after the check gets a notify.
+                    waitingThreadsCount.incrementAndGet();
+                    try {
+                        JobTasks[] waitingJobs = runningJobTasks;
+                        int waitingFirst = indexOfLowestPass(waitingJobs);
+                        for (int i = 0; i < waitingJobs.length; ++i) {
+                            FileIngestTask task = pollFileTask(waitingJobs[(waitingFirst + i) % waitingJobs.length]);
+                            if (task != null) {
+                                return task;
+                            }
+                        }
+                        if (queuedDirectoryTasksCount.get() == 0) {
+                            tasksAvailableLock.wait();
+                        }
+                    } finally {
+                        waitingThreadsCount.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the running ingest job with the lowest pass, the job to try
+     * first. The other jobs are tried after it in turn.
+     *
+     * @param jobs The task queues of the running jobs.
+     * @return The index of the job, zero if there are no jobs.
+     */
+    private static int indexOfLowestPass(JobTasks[] jobs) {
+        int lowest = 0;
+        for (int i = 1; i < jobs.length; ++i) {
+            if (jobs[i].pass.get() < jobs[lowest].pass.get()) {
+                lowest = i;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Replaces the array of running ingest jobs after a job has been added
+     * or removed.
+     */
+    private synchronized void updateRunningJobTasks() {
+        runningJobTasks = jobTasksByJobId.values().toArray(new JobTasks[0]);
+    }
+
+    /**
+     * Takes the next task from the file tasks queues of an ingest job and
+     * charges the job for it. A large file task is preferred if fewer than the
+     * allowed number of threads are executing large file tasks, so that large
+     * files are processed alongside the small ones instead of all at the end.
+     *
+     * @param jobTasks The task queues of the job.
+     * @return A file task, or null if no task of the job may be executed right
+     * now.
+     */
+    private FileIngestTask pollFileTask(JobTasks jobTasks) {
+        FileIngestTask task = null;
+        if (!jobTasks.largeFileTasksQueue.isEmpty() && tryReserveLargeFileThread(queuedSmallFileTasksCount.get() == 0)) {
+            task = jobTasks.largeFileTasksQueue.poll();
+            if (task != null) {
+                queuedLargeFileTasksCount.decrementAndGet();
+            } else {
+                releaseLargeFileThread();
+            }
+        }
+        if (task == null) {
+            task = jobTasks.smallFileTasksQueue.poll();
+            if (task != null) {
+                queuedSmallFileTasksCount.decrementAndGet();
+            }
+        }
+        if (task != null) {
+            chargeTaskStarted(jobTasks, task);
+        }
         return task;
     }
 
-    private synchronized void updateTaskQueues() throws InterruptedException {
-        // we loop because we could have a directory that has all files
-        // that do not get enqueued
+    /**
+     * Charges an ingest job for a task that is about to be executed. The
+     * actual execution time is not known yet, so the mean execution time of
+     * the completed tasks of the job is charged, and the difference is settled
+     * when the task is completed. This keeps the threads that take tasks at
+     * about the same time from all going to the same job.
+     */
+    private void chargeTaskStarted(JobTasks jobTasks, FileIngestTask task) {
+        long completedTasks = jobTasks.completedTasksCount.get();
+        long estimatedNanos = (completedTasks > 0) ? jobTasks.executionNanos.get() / completedTasks : DEFAULT_TASK_CHARGE_NANOS;
+        task.setStartTime(System.nanoTime(), estimatedNanos);
+        lastDispatchedPass.set(jobTasks.pass.addAndGet(jobTasks.getStride(estimatedNanos)));
+    }
+
+    private void chargeTaskCompleted(JobTasks jobTasks, FileIngestTask task) {
+        long executionNanos = System.nanoTime() - task.getStartTime();
+        jobTasks.pass.addAndGet(jobTasks.getStride(executionNanos - task.getChargedNanos()));
+        jobTasks.completedTasksCount.incrementAndGet();
+        jobTasks.executionNanos.addAndGet(executionNanos);
+    }
+
+    /**
+     * Tries to reserve one of the file ingest threads that may execute large
+     * file tasks. While there are small file tasks queued, large file tasks
+     * are limited to the configured percentage of the file ingest threads. 
+     * Otherwise large file tasks may use all but one of the threads, which is
+     * kept for small files that have yet to be found.
+     *
+     * @param noSmallFileTasks Whether the small file tasks queues are empty.
+     * @return True if the reservation was made, false otherwise.
+     */
+    private boolean tryReserveLargeFileThread(boolean noSmallFileTasks) {
+        int numberOfThreads = IngestManager.getInstance().getNumberOfFileIngestThreads();
+        int maxLargeFileThreads;
+        if (noSmallFileTasks && queuedDirectoryTasksCount.get() == 0) {
+            maxLargeFileThreads = numberOfThreads - 1;
+        } else {
+            maxLargeFileThreads = (numberOfThreads * largeFileIngestThreadsPercentage) / 100;
+        }
+        maxLargeFileThreads = Math.max(1, maxLargeFileThreads);
         while (true) {
-            // There are files in the queue, we're done
-            if (fileTasksQueue.isEmpty() == false) {
-                return;
+            int executing = executingLargeFileTasksCount.get();
+            if (executing >= maxLargeFileThreads) {
+                return false;
             }
-            // fill in the directory queue if it is empty.
-            if (this.directoryTasksQueue.isEmpty()) {
-                // bail out if root is also empty -- we are done
-                if (rootDirectoryTasksQueue.isEmpty()) {
-                    return;
-                }
-                FileIngestTask rootTask = rootDirectoryTasksQueue.pollFirst();
-                directoryTasksQueue.add(rootTask);
+            if (executingLargeFileTasksCount.compareAndSet(executing, executing + 1)) {
+                return true;
             }
-            //pop and push AbstractFile directory children if any
-            //add the popped and its leaf children onto cur file list
-            FileIngestTask parentTask = directoryTasksQueue.remove(directoryTasksQueue.size() - 1);
-            final AbstractFile parentFile = parentTask.getFile();
-            // add itself to the file list
-            if (shouldEnqueueTask(parentTask)) {
-                enqueueFileTask(parentTask);
+        }
+    }
+
+    private void releaseLargeFileThread() {
+        executingLargeFileTasksCount.decrementAndGet();
+        // A waiting thread may now be able to take a large file task.
+        if (queuedLargeFileTasksCount.get() > 0) {
+            notifyWaitingThreads();
+        }
+    }
+
+    /**
+     * Wakes the threads waiting for tasks. All of them are woken, since a
+     * thread woken for a large file task may not be allowed to take it, and
+     * a directory task can be expanded into work for every thread.
+     */
+    private void notifyWaitingThreads() {
+        if (waitingThreadsCount.get() > 0) {
+            synchronized (tasksAvailableLock) {
+                tasksAvailableLock.notifyAll();
             }
-            // add its children to the file and directory lists
-            try {
-                List<Content> children = parentFile.getChildren();
-                for (Content c : children) {
-                    if (c instanceof AbstractFile) {
-                        AbstractFile childFile = (AbstractFile) c;
-                        FileIngestTask childTask = new FileIngestTask(parentTask.getIngestJob(), childFile);
-                        if (childFile.hasChildren()) {
-                            directoryTasksQueue.add(childTask);
-                        } else if (shouldEnqueueTask(childTask)) {
-                            enqueueFileTask(childTask);
+        }
+    }
+
+    private static boolean isLargeFileTask(FileIngestTask task) {
+        return task.getFile().getSize() >= LARGE_FILE_SIZE;
+    }
+
+    /**
+     * Takes a directory task of an ingest job and adds it and its children to
+     * the task queues of the job. Child directories go on the directory tasks
+     * deque of the calling thread, other children go on the file tasks queues.
+     *
+     * @param jobTasks The task queues of the job.
+     * @return True if a directory task was expanded, false if there were no
+     * directory tasks available.
+     * @throws InterruptedException
+     */
+    private boolean expandNextDirectory(JobTasks jobTasks) throws InterruptedException {
+        FileIngestTask parentTask = pollDirectoryTask(jobTasks);
+        if (parentTask == null) {
+            return false;
+        }
+        final AbstractFile parentFile = parentTask.getFile();
+        // add its children to the file and directory lists
+        try {
+            Deque<FileIngestTask> deque = jobTasks.directoryTasksDeque.get();
+            List<Content> children = parentFile.getChildren();
+            for (Content c : children) {
+                if (c instanceof AbstractFile) {
+                    AbstractFile childFile = (AbstractFile) c;
+                    FileIngestTask childTask = new FileIngestTask(parentTask.getIngestJob(), childFile);
+                    if (childFile.hasChildren()) {
+                        incrementIncompleteTaskCount(childTask.getIngestJob());
+                        deque.addLast(childTask);
+                        // Threads only wait when there are no directory
+                        // tasks, so wake them to steal from this thread.
+                        if (queuedDirectoryTasksCount.getAndIncrement() == 0) {
+                            notifyWaitingThreads();
                         }
+                    } else if (shouldEnqueueTask(childTask)) {
+                        incrementIncompleteTaskCount(childTask.getIngestJob());
+                        enqueueFileTask(childTask);
                     }
                 }
-            } catch (TskCoreException ex) {
-                logger.log(Level.SEVERE, "Could not get children of file and update file queues: " + parentFile.getName(), ex); //NON-NLS
             }
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Could not get children of file and update file queues: " + parentFile.getName(), ex); //NON-NLS
         }
+        // add itself to the file list, the task is already counted. This is 
+        // done after the children are counted, so that discarding the task can
+        // only complete the job if there are no other tasks for it.
+        if (shouldEnqueueTask(parentTask)) {
+            enqueueFileTask(parentTask);
+        } else {
+            discardTask(parentTask);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the next directory task of an ingest job to expand. The most
+     * recently added task of the calling thread is preferred, so that each
+     * thread works depth first. Otherwise the least recently added task of
+     * another thread is stolen, and failing that, the next root directory task
+     * is taken.
+     *
+     * @param jobTasks The task queues of the job.
+     * @return A directory task, or null if there are none.
+     */
+    private FileIngestTask pollDirectoryTask(JobTasks jobTasks) {
+        FileIngestTask task = jobTasks.directoryTasksDeque.get().pollLast();
+        if (task == null) {
+            for (Deque<FileIngestTask> deque : jobTasks.directoryTasksDeques) {
+                task = deque.pollFirst();
+                if (task != null) {
+                    break;
+                }
+            }
+        }
+        if (task != null) {
+            queuedDirectoryTasksCount.decrementAndGet();
+            return task;
+        }
+        return jobTasks.pollRootDirectoryTask();
     }
 
     private static boolean shouldEnqueueTask(final FileIngestTask processTask) {
@@ -203,42 +485,253 @@ private static boolean shouldEnqueueTask(final FileIngestTask processTask) {
         return true;
     }
 
-    private synchronized void enqueueFileTask(FileIngestTask task) throws InterruptedException {
-        fileTasks.add(task);
-        try {
-            // Should not block, queue is (theoretically) unbounded.
-            fileTasksQueue.put(task);
-        } catch (InterruptedException ex) {
-            fileTasks.remove(task);
-            Logger.getLogger(DataSourceIngestTaskScheduler.class.getName()).log(Level.FINE, "Interruption of unexpected block on tasks queue", ex); //NON-NLS
-            throw ex;
+    private void enqueueFileTask(FileIngestTask task) {
+        if (task.getIngestJob().isFileIngestCompleted(task.getFile())) {
+            // All of the modules processed the file in a previous ingest job
+            // for the data source that did not finish.
+            discardTask(task);
+            return;
+        }
+        JobTasks jobTasks = getJobTasks(task.getIngestJob());
+        if (isLargeFileTask(task)) {
+            queuedLargeFileTasksCount.incrementAndGet();
+            jobTasks.largeFileTasksQueue.add(task);
+        } else {
+            queuedSmallFileTasksCount.incrementAndGet();
+            jobTasks.smallFileTasksQueue.add(task);
         }
+        notifyWaitingThreads();
     }
 
-    synchronized void notifyTaskCompleted(FileIngestTask task) {
-        fileTasks.remove(task);
+    /**
+     * Releases the count for a task that will not be executed. If it was the
+     * last incomplete task for its ingest job, file ingest for the job is
+     * finished.
+     *
+     * @param task The discarded task.
+     */
+    private void discardTask(FileIngestTask task) {
+        if (decrementIncompleteTaskCount(task.getIngestJob())) {
+            task.getIngestJob().finishFileIngest();
+        }
     }
 
-    synchronized boolean hasIncompleteTasksForIngestJob(IngestJob job) {
-        long jobId = job.getId();
-        for (IngestTask task : fileTasks) {
-            if (task.getIngestJob().getId() == jobId) {
-                return true;
+    /**
+     * Notifies the scheduler that a file ingest task has been completed.
+     *
+     * @param task The completed task.
+     * @return True if this was the last incomplete task for the ingest job of
+     * the task, false otherwise.
+     */
+    boolean notifyTaskCompleted(FileIngestTask task) {
+        if (isLargeFileTask(task)) {
+            releaseLargeFileThread();
+        }
+        JobTasks jobTasks = jobTasksByJobId.get(task.getIngestJob().getId());
+        if (jobTasks != null) {
+            chargeTaskCompleted(jobTasks, task);
+        }
+        return decrementIncompleteTaskCount(task.getIngestJob());
+    }
+
+    /**
+     * Sets the weight of an ingest job, i.e., its share of the file ingest
+     * threads relative to the other jobs that are running. The new weight
+     * applies to the tasks of the job started from now on.
+     *
+     * @param jobId The id of the ingest job.
+     * @param weight The weight, from MIN_WEIGHT to MAX_WEIGHT.
+     * @return True if the job has file ingest tasks, false otherwise.
+     */
+    boolean setWeight(long jobId, int weight) {
+        JobTasks jobTasks = jobTasksByJobId.get(jobId);
+        if (jobTasks == null) {
+            return false;
+        }
+        jobTasks.weight = Math.max(MIN_WEIGHT, Math.min(MAX_WEIGHT, weight));
+        logger.log(Level.INFO, "Weight of ingest job {0} set to {1}", new Object[]{jobId, jobTasks.weight}); //NON-NLS
+        return true;
+    }
+
+    /**
+     * Gets the weight of an ingest job.
+     *
+     * @param jobId The id of the ingest job.
+     * @return The weight, or zero if the job has no file ingest tasks.
+     */
+    int getWeight(long jobId) {
+        JobTasks jobTasks = jobTasksByJobId.get(jobId);
+        return (jobTasks != null) ? jobTasks.weight : 0;
+    }
+
+    /**
+     * Gets a summary, suitable for logging, of the share of the file ingest
+     * threads each running ingest job got since the last time the summaries
+     * were requested.
+     *
+     * @return A summary for each ingest job with file ingest tasks.
+     */
+    synchronized List<String> getShareSummaries() {
+        List<JobTasks> jobTasksList = new ArrayList<>(jobTasksByJobId.values());
+        long totalNanos = 0;
+        long[] intervalNanos = new long[jobTasksList.size()];
+        for (int i = 0; i < jobTasksList.size(); ++i) {
+            JobTasks jobTasks = jobTasksList.get(i);
+            long executionNanos = jobTasks.executionNanos.get();
+            intervalNanos[i] = executionNanos - jobTasks.reportedExecutionNanos;
+            jobTasks.reportedExecutionNanos = executionNanos;
+            totalNanos += intervalNanos[i];
+        }
+        List<String> summaries = new ArrayList<>();
+        for (int i = 0; i < jobTasksList.size(); ++i) {
+            JobTasks jobTasks = jobTasksList.get(i);
+            long share = (totalNanos > 0) ? (intervalNanos[i] * 100) / totalNanos : 0;
+            summaries.add("Ingest job " + jobTasks.jobId + ": weight " + jobTasks.weight + ", " + share + "% of file ingest thread time, " + jobTasks.completedTasksCount.get() + " files completed"); //NON-NLS
+        }
+        return summaries;
+    }
+
+    /**
+     * Gets the task queues of an ingest job, creating them if the job has
+     * none.
+     *
+     * @param job The ingest job.
+     * @return The task queues.
+     */
+    private JobTasks getJobTasks(IngestJob job) {
+        JobTasks jobTasks = jobTasksByJobId.get(job.getId());
+        if (jobTasks == null) {
+            JobTasks newJobTasks = new JobTasks(job.getId(), getStartingPass());
+            jobTasks = jobTasksByJobId.putIfAbsent(job.getId(), newJobTasks);
+            if (jobTasks == null) {
+                jobTasks = newJobTasks;
+                updateRunningJobTasks();
             }
         }
-        for (FileIngestTask task : directoryTasksQueue) {
-            if (task.getIngestJob().getId() == jobId) {
-                return true;
+        return jobTasks;
+    }
+
+    /**
+     * Gets the pass for an ingest job that is added, the lowest pass of the
+     * jobs that are running, or the pass of the last job served if there are
+     * none.
+     */
+    private long getStartingPass() {
+        long pass = lastDispatchedPass.get();
+        boolean first = true;
+        for (JobTasks jobTasks : jobTasksByJobId.values()) {
+            long jobPass = jobTasks.pass.get();
+            if (first || jobPass < pass) {
+                pass = jobPass;
+                first = false;
             }
         }
-        for (FileIngestTask task : rootDirectoryTasksQueue) {
-            if (task.getIngestJob().getId() == jobId) {
-                return true;
+        return pass;
+    }
+
+    boolean hasIncompleteTasksForIngestJob(IngestJob job) {
+        AtomicLong count = incompleteTaskCountsByJobId.get(job.getId());
+        return (count != null && count.get() > 0);
+    }
+
+    /**
+     * Counts a task for an ingest job that has been added to one of the task
+     * queues. A count is held from the time a task is queued until it is either
+     * discarded or completed, so that checking for incomplete tasks for a job
+     * does not require a scan of the queues.
+     *
+     * @param job The ingest job.
+     */
+    private void incrementIncompleteTaskCount(IngestJob job) {
+        long jobId = job.getId();
+        AtomicLong count = incompleteTaskCountsByJobId.get(jobId);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong(0L);
+            count = incompleteTaskCountsByJobId.putIfAbsent(jobId, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Releases the count for a task for an ingest job that has been discarded
+     * or completed.
+     *
+     * @param job The ingest job.
+     * @return True if the job has no more incomplete tasks, false otherwise.
+     */
+    private boolean decrementIncompleteTaskCount(IngestJob job) {
+        long jobId = job.getId();
+        AtomicLong count = incompleteTaskCountsByJobId.get(jobId);
+        if (count == null) {
+            logger.log(Level.WARNING, "Task completed for ingest job with no incomplete tasks: {0}", jobId); //NON-NLS
+            return true;
+        }
+        if (count.decrementAndGet() <= 0) {
+            // New tasks are only added for a job while it has tasks that are
+            // being scheduled or executed, so the count can be dropped.
+            incompleteTaskCountsByJobId.remove(jobId, count);
+            if (jobTasksByJobId.remove(jobId) != null) {
+                updateRunningJobTasks();
             }
+            return true;
         }
         return false;
     }
 
+    /**
+     * The task queues of an ingest job, and the accounting used to share the
+     * file ingest threads among the jobs.
+     */
+    private static final class JobTasks {
+
+        private final long jobId;
+        private final TreeSet<FileIngestTask> rootDirectoryTasksQueue = new TreeSet<>(new RootDirectoryTaskComparator()); // Guarded by this
+        private final CopyOnWriteArrayList<Deque<FileIngestTask>> directoryTasksDeques = new CopyOnWriteArrayList<>(); // One per thread that expands directories.
+        private final ThreadLocal<Deque<FileIngestTask>> directoryTasksDeque = new ThreadLocal<Deque<FileIngestTask>>() {
+            @Override
+            protected Deque<FileIngestTask> initialValue() {
+                Deque<FileIngestTask> deque = new ConcurrentLinkedDeque<>();
+                directoryTasksDeques.add(deque);
+                return deque;
+            }
+        };
+        private final ConcurrentLinkedQueue<FileIngestTask> smallFileTasksQueue = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<FileIngestTask> largeFileTasksQueue = new ConcurrentLinkedQueue<>();
+        private volatile int weight = DEFAULT_WEIGHT;
+        private final AtomicLong pass;
+        private long reportedExecutionNanos = 0L; // Guarded by the scheduler
+        private final AtomicLong completedTasksCount = new AtomicLong(0L);
+        private final AtomicLong executionNanos = new AtomicLong(0L);
+
+        private JobTasks(long jobId, long pass) {
+            this.jobId = jobId;
+            this.pass = new AtomicLong(pass);
+        }
+
+        private synchronized void addRootDirectoryTask(FileIngestTask task) {
+            rootDirectoryTasksQueue.add(task);
+        }
+
+        private synchronized FileIngestTask pollRootDirectoryTask() {
+            return rootDirectoryTasksQueue.pollFirst();
+        }
+
+        private boolean hasFileTasks() {
+            return !smallFileTasksQueue.isEmpty() || !largeFileTasksQueue.isEmpty();
+        }
+
+        /**
+         * Gets the amount to advance the pass of the job by for a given
+         * execution time, which is inversely proportional to the weight.
+         */
+        private long getStride(long nanos) {
+            return (nanos * DEFAULT_WEIGHT) / weight;
+        }
+    }
+
     private static class RootDirectoryTaskComparator implements Comparator<FileIngestTask> {
 
         @Override
@@ -0,0 +1,200 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.core.UserPreferences;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Adjusts the number of file ingest threads while ingest is running. The
+ * controller periodically samples heap usage, file ingest throughput, and the
+ * fraction of file ingest task time the threads spend blocked (e.g., reading
+ * content from the image or waiting on the case database) rather than running
+ * on a CPU. It then adds or retires a thread at a time, keeping a change only if
+ * it improves throughput. The controller is stopped, and the number of threads
+ * restored, when ingest finishes or adapting the number of threads is turned
+ * off.
+ */
+final class FileIngestThreadsController {
+
+    private static final Logger logger = Logger.getLogger(FileIngestThreadsController.class.getName());
+    private static final long SAMPLING_INTERVAL_SECS = 30;
+    private static final double MAX_HEAP_USAGE = 0.85;
+    private static final double MIN_THROUGHPUT_CHANGE = 0.05;
+    private static final double CPU_BOUND_FRACTION = 0.9;
+    private static final int MAX_PROBE_BACKOFF_INTERVALS = 16;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final AtomicLong filesProcessed = new AtomicLong(0L);
+    private final AtomicLong taskWallTimeNanos = new AtomicLong(0L);
+    private final AtomicLong taskCpuTimeNanos = new AtomicLong(0L);
+    private final int minThreads;
+    private final int maxThreads;
+    private ScheduledExecutorService timer;
+    // The following are only accessed by the timer thread.
+    private long lastFilesProcessed = 0L;
+    private long lastTaskWallTimeNanos = 0L;
+    private long lastTaskCpuTimeNanos = 0L;
+    private double lastThroughput = 0.0;
+    private int lastChange = 0;
+    private int probeBackoffIntervals = 1;
+    private int intervalsUntilNextProbe = 0;
+
+    FileIngestThreadsController(int minThreads, int maxThreads) {
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+    }
+
+    synchronized void start() {
+        if (timer == null) {
+            // Start learning afresh, the load may be entirely different.
+            lastChange = 0;
+            lastThroughput = 0.0;
+            probeBackoffIntervals = 1;
+            intervalsUntilNextProbe = 0;
+            timer = Executors.newSingleThreadScheduledExecutor();
+            timer.scheduleWithFixedDelay(new AdjustThreadsTask(), SAMPLING_INTERVAL_SECS, SAMPLING_INTERVAL_SECS, TimeUnit.SECONDS);
+        }
+    }
+
+    synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return timer != null;
+    }
+
+    /**
+     * Gets the CPU time of the calling thread, if the virtual machine supports
+     * measuring it.
+     *
+     * @return The CPU time in nanoseconds, or -1 if unsupported.
+     */
+    long getCurrentThreadCpuTime() {
+        if (threadMXBean.isCurrentThreadCpuTimeSupported()) {
+            return threadMXBean.getCurrentThreadCpuTime();
+        }
+        return -1L;
+    }
+
+    /**
+     * Records the execution of a file ingest task by a file ingest thread.
+     *
+     * @param wallTimeNanos The elapsed time of the task.
+     * @param cpuTimeNanos The CPU time used by the thread for the task, -1 if
+     * unknown.
+     */
+    void recordFileIngestTask(long wallTimeNanos, long cpuTimeNanos) {
+        filesProcessed.incrementAndGet();
+        if (cpuTimeNanos >= 0) {
+            taskWallTimeNanos.addAndGet(wallTimeNanos);
+            taskCpuTimeNanos.addAndGet(cpuTimeNanos);
+        }
+    }
+
+    private class AdjustThreadsTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                adjustThreads();
+            } catch (Exception ex) {
+                logger.log(Level.SEVERE, "Error adjusting the number of file ingest threads", ex); //NON-NLS
+            }
+        }
+
+        private void adjustThreads() {
+            long files = filesProcessed.get();
+            long wallTime = taskWallTimeNanos.get();
+            long cpuTime = taskCpuTimeNanos.get();
+            long filesDelta = files - lastFilesProcessed;
+            long wallTimeDelta = wallTime - lastTaskWallTimeNanos;
+            long cpuTimeDelta = cpuTime - lastTaskCpuTimeNanos;
+            lastFilesProcessed = files;
+            lastTaskWallTimeNanos = wallTime;
+            lastTaskCpuTimeNanos = cpuTime;
+
+            IngestManager manager = IngestManager.getInstance();
+            if (!UserPreferences.adaptNumberOfFileIngestThreads()) {
+                // The user turned adapting off while ingest was running.
+                manager.stopAdaptingNumberOfFileIngestThreads();
+                return;
+            }
+            if (!manager.isIngestRunning() || filesDelta == 0) {
+                // Nothing to learn from an idle interval.
+                lastChange = 0;
+                lastThroughput = 0.0;
+                return;
+            }
+
+            int threads = manager.getNumberOfFileIngestThreads();
+            double throughput = (double) filesDelta / SAMPLING_INTERVAL_SECS;
+            double cpuFraction = (wallTimeDelta > 0) ? (double) cpuTimeDelta / wallTimeDelta : 0.0;
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            double heapUsage = (heap.getMax() > 0) ? (double) heap.getUsed() / heap.getMax() : 0.0;
+
+            int change = 0;
+            if (heapUsage > MAX_HEAP_USAGE) {
+                // Every file ingest thread has its own pipeline of modules, 
+                // so back off when memory is getting tight.
+                change = -1;
+            } else if (lastChange != 0 && throughput > lastThroughput * (1.0 + MIN_THROUGHPUT_CHANGE)) {
+                // The last change helped, try another one in the same direction.
+                change = lastChange;
+                probeBackoffIntervals = 1;
+            } else if (lastChange > 0) {
+                // The last thread added did not help, take it back out and 
+                // wait longer before trying again.
+                change = -1;
+                intervalsUntilNextProbe = probeBackoffIntervals;
+                probeBackoffIntervals = Math.min(probeBackoffIntervals * 2, MAX_PROBE_BACKOFF_INTERVALS);
+            } else if (lastChange < 0 && throughput < lastThroughput * (1.0 - MIN_THROUGHPUT_CHANGE)) {
+                // The last thread retired was pulling its weight, restore it.
+                change = 1;
+            } else if (lastChange == 0 && --intervalsUntilNextProbe <= 0) {
+                // Probe for more throughput, unless the threads are already
+                // keeping every processor busy.
+                boolean cpuBound = cpuFraction > CPU_BOUND_FRACTION && threads >= Runtime.getRuntime().availableProcessors();
+                if (!cpuBound) {
+                    change = 1;
+                }
+            }
+
+            int newThreads = Math.max(minThreads, Math.min(maxThreads, threads + change));
+            logger.log(Level.INFO, "File ingest threads: {0}, files/sec: {1}, CPU fraction: {2}, heap usage: {3}, new threads: {4}", //NON-NLS
+                    new Object[]{threads, throughput, cpuFraction, heapUsage, newThreads});
+            if (newThreads != threads) {
+                manager.adaptNumberOfFileIngestThreads(newThreads);
+            }
+            lastChange = newThreads - threads;
+            lastThroughput = throughput;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.openide.util.NbBundle;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+
+/**
+ * Publishes ingest events to property change listeners from a single thread.
+ * Events are collected for a short window and published in a batch, with the
+ * DATA_ADDED events of a batch coalesced into one event per module and artifact
+ * type. The queue of events waiting to be published is bounded, so threads
+ * that fire events wait if the listeners fall too far behind. Events fired by
+ * a listener on the publishing thread are published at once instead, since
+ * waiting for the queue there would never end.
+ *
+ * FILE_DONE events, one per file, are collected in a list instead of being
+ * queued one at a time. Only the first FILE_DONE event since the list was
+ * last published queues a marker for the list, so the ingest threads do not
+ * each wait on the queue for every file.
+ */
+final class IngestEventPublisher {
+
+    private static final Logger logger = Logger.getLogger(IngestEventPublisher.class.getName());
+    private static final int MAX_QUEUED_EVENTS = 10000;
+    private static final int MAX_EVENTS_PER_BATCH = 1000;
+    private static final long BATCH_WINDOW_MS = 250;
+    private final LinkedBlockingQueue<Event> eventsQueue = new LinkedBlockingQueue<>(MAX_QUEUED_EVENTS);
+    private final ExecutorService publishEventsThreadPool = Executors.newSingleThreadExecutor();
+    private final Event fileDoneEventsMarker = new Event(null, IngestManager.IngestModuleEvent.FILE_DONE.toString(), null, null);
+    private final Object fileDoneEventsLock = new Object();
+    private List<Event> fileDoneEvents = new ArrayList<>(); // Guarded by fileDoneEventsLock
+    private volatile Thread publishingThread;
+
+    IngestEventPublisher() {
+        publishEventsThreadPool.submit(new PublishEventsThread());
+    }
+
+    /**
+     * Queues an event for publication. Blocks if the queue is full, unless
+     * called by a listener on the publishing thread, in which case the event
+     * is published before returning.
+     *
+     * @param publisher The publisher for the listeners to the event.
+     * @param eventName The name of the event.
+     * @param oldValue The old value for the event.
+     * @param newValue The new value for the event.
+     */
+    void publish(PropertyChangeSupport publisher, String eventName, Object oldValue, Object newValue) {
+        Event event = new Event(publisher, eventName, oldValue, newValue);
+        if (Thread.currentThread() == publishingThread) {
+            event.fire();
+            return;
+        }
+        if (eventName.equals(IngestManager.IngestModuleEvent.FILE_DONE.toString())) {
+            synchronized (fileDoneEventsLock) {
+                fileDoneEvents.add(event);
+                if (fileDoneEvents.size() > 1) {
+                    // The marker is already queued.
+                    return;
+                }
+            }
+            event = fileDoneEventsMarker;
+        }
+        // The event is not dropped if the thread is interrupted while waiting
+        // for room in the queue, the interrupt is restored afterwards.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                eventsQueue.put(event);
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Event> takeFileDoneEvents() {
+        synchronized (fileDoneEventsLock) {
+            List<Event> events = fileDoneEvents;
+            fileDoneEvents = new ArrayList<>();
+            return events;
+        }
+    }
+
+    private static final class Event {
+
+        private final PropertyChangeSupport publisher;
+        private final String eventName;
+        private final Object oldValue;
+        private final Object newValue;
+
+        Event(PropertyChangeSupport publisher, String eventName, Object oldValue, Object newValue) {
+            this.publisher = publisher;
+            this.eventName = eventName;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        void fire() {
+            try {
+                publisher.firePropertyChange(eventName, oldValue, newValue);
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Ingest manager listener threw exception", e); //NON-NLS
+                MessageNotifyUtil.Notify.show(NbBundle.getMessage(IngestManager.class, "IngestManager.moduleErr"),
+                        NbBundle.getMessage(IngestManager.class, "IngestManager.moduleErr.errListenToUpdates.msg"),
+                        MessageNotifyUtil.MessageType.ERROR);
+            }
+        }
+
+        boolean isDataAddedEvent() {
+            return eventName.equals(IngestManager.IngestModuleEvent.DATA_ADDED.toString()) && oldValue instanceof ModuleDataEvent;
+        }
+    }
+
+    /**
+     * Accumulates the DATA_ADDED events of a batch for one module and
+     * artifact type.
+     */
+    private static final class DataAddedEvents {
+
+        private final PropertyChangeSupport publisher;
+        private final String moduleName;
+        private final BlackboardArtifact.ARTIFACT_TYPE artifactType;
+        private List<BlackboardArtifact> artifacts = new ArrayList<>(); // Null if any event did not specify its artifacts
+
+        DataAddedEvents(PropertyChangeSupport publisher, ModuleDataEvent event) {
+            this.publisher = publisher;
+            this.moduleName = event.getModuleName();
+            this.artifactType = event.getArtifactType();
+        }
+
+        void add(ModuleDataEvent event) {
+            Collection<BlackboardArtifact> eventArtifacts = event.getArtifacts();
+            if (eventArtifacts == null) {
+                artifacts = null;
+            } else if (artifacts != null) {
+                artifacts.addAll(eventArtifacts);
+            }
+        }
+
+        Event toEvent() {
+            return new Event(publisher, IngestManager.IngestModuleEvent.DATA_ADDED.toString(), new ModuleDataEvent(moduleName, artifactType, artifacts), null);
+        }
+    }
+
+    private final class PublishEventsThread implements Runnable {
+
+        @Override
+        public void run() {
+            publishingThread = Thread.currentThread();
+            List<Event> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(eventsQueue.take());
+                    long deadline = System.currentTimeMillis() + BATCH_WINDOW_MS;
+                    while (batch.size() < MAX_EVENTS_PER_BATCH) {
+                        if (eventsQueue.drainTo(batch, MAX_EVENTS_PER_BATCH - batch.size()) > 0) {
+                            continue;
+                        }
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        Event event = eventsQueue.poll(remaining, TimeUnit.MILLISECONDS);
+                        if (event == null) {
+                            break;
+                        }
+                        batch.add(event);
+                    }
+                    publishBatch(batch);
+                    batch.clear();
+                } catch (InterruptedException ex) {
+                    logger.log(Level.WARNING, "Ingest event publishing interrupted, {0} events not published", batch.size() + eventsQueue.size()); //NON-NLS
+                    break;
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, "Unexpected error publishing ingest events, " + batch.size() + " events not published", ex); //NON-NLS
+                    batch.clear();
+                }
+            }
+        }
+
+        /**
+         * Publishes a batch of events. DATA_ADDED events are held back and
+         * coalesced until the end of the batch or until an event other than
+         * FILE_DONE is reached, so that, e.g., the last data added by an
+         * ingest job is published before the job completed event.
+         *
+         * @param batch The events.
+         */
+        private void publishBatch(List<Event> batch) {
+            Map<String, DataAddedEvents> dataAddedEvents = new LinkedHashMap<>();
+            String fileDoneEventName = IngestManager.IngestModuleEvent.FILE_DONE.toString();
+            for (Event event : batch) {
+                if (event.isDataAddedEvent()) {
+                    ModuleDataEvent moduleDataEvent = (ModuleDataEvent) event.oldValue;
+                    String key = moduleDataEvent.getModuleName() + "/" + moduleDataEvent.getArtifactType(); //NON-NLS
+                    DataAddedEvents events = dataAddedEvents.get(key);
+                    if (events == null) {
+                        events = new DataAddedEvents(event.publisher, moduleDataEvent);
+                        dataAddedEvents.put(key, events);
+                    }
+                    events.add(moduleDataEvent);
+                } else if (event == fileDoneEventsMarker) {
+                    for (Event fileDoneEvent : takeFileDoneEvents()) {
+                        fileDoneEvent.fire();
+                    }
+                } else {
+                    if (!event.eventName.equals(fileDoneEventName)) {
+                        publishDataAddedEvents(dataAddedEvents);
+                    }
+                    event.fire();
+                }
+            }
+            publishDataAddedEvents(dataAddedEvents);
+        }
+
+        private void publishDataAddedEvents(Map<String, DataAddedEvents> dataAddedEvents) {
+            for (DataAddedEvents events : dataAddedEvents.values()) {
+                events.toEvent().fire();
+            }
+            dataAddedEvents.clear();
+        }
+    }
+}
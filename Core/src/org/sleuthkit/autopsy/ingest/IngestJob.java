@@ -18,16 +18,34 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.api.progress.ProgressHandleFactory;
 import org.openide.util.Cancellable;
 import org.openide.util.NbBundle;
+import org.sleuthkit.autopsy.casemodule.Case;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.Content;
@@ -39,16 +57,39 @@ final class IngestJob {
     private static final ConcurrentHashMap<Long, IngestJob> ingestJobsById = new ConcurrentHashMap<>();
     private static final DataSourceIngestTaskScheduler dataSourceTaskScheduler = DataSourceIngestTaskScheduler.getInstance();
     private static final FileIngestTaskScheduler fileTaskScheduler = FileIngestTaskScheduler.getInstance();
+    private static final long CHECKPOINT_WRITE_INTERVAL_SECS = 30L;
+    private static final ScheduledExecutorService checkpointWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "IngestCheckpointWriter"); //NON-NLS
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     private final long id;
     private final Content dataSource;
     private final boolean processUnallocatedSpace;
     private final LinkedBlockingQueue<FileIngestPipeline> fileIngestPipelines = new LinkedBlockingQueue<>();
+    private final AtomicInteger numberOfFileIngestPipelines = new AtomicInteger(0);
+    private final ConcurrentHashMap<String, FileIngestModuleStatistics> fileIngestModuleStatistics = new ConcurrentHashMap<>(); // Maps module display names to statistics.
+    private final ConcurrentHashMap<String, FileIngestModuleCheckpoint> fileIngestModuleCheckpoints = new ConcurrentHashMap<>(); // Maps module display names to checkpoints.
+    private final Set<Runnable> deferredResultsFlushers = new CopyOnWriteArraySet<>();
+    private final Object checkpointsWriteLock = new Object();
+    private ScheduledFuture<?> checkpointsWriteTask; // Guarded by checkpointsWriteLock
+    private final AtomicLong checkpointedFilesSkipped = new AtomicLong(0L);
+    private final AtomicLong knownFilesSkipped = new AtomicLong(0L);
+    private final AtomicLong knownBytesSkipped = new AtomicLong(0L);
+    private IngestJobContext context;
+    private List<IngestModuleTemplate> ingestModuleTemplates;
     private long estimatedFilesToProcess = 0L; // Guarded by this
     private long processedFiles = 0L; // Guarded by this
     private DataSourceIngestPipeline dataSourceIngestPipeline;
     private ProgressHandle dataSourceIngestProgress;
     private ProgressHandle fileIngestProgress;
     private volatile boolean cancelled = false;
+    private boolean startedEventFired = false; // Guarded by this
+    private boolean finishPending = false; // Guarded by this
+    private boolean finished = false; // Guarded by this
 
     /**
      * Creates an ingest job for a data source.
@@ -71,6 +112,7 @@ static List<IngestModuleError> startIngestJob(Content dataSource, List<IngestMod
             errors = job.start();
             if (errors.isEmpty()) {
                 IngestManager.getInstance().fireIngestJobStarted(jobId);
+                job.startedEventFired();
             } else {
                 ingestJobsById.remove(jobId);
             }
@@ -82,6 +124,22 @@ static boolean ingestJobsAreRunning() {
         return !ingestJobsById.isEmpty();
     }
 
+    /**
+     * Gets summaries of the file ingest module statistics of the running
+     * ingest jobs.
+     *
+     * @return A list of one line summaries, one per module per job.
+     */
+    static List<String> getFileIngestModuleStatisticsSummaries() {
+        List<String> summaries = new ArrayList<>();
+        for (IngestJob job : ingestJobsById.values()) {
+            for (FileIngestModuleStatistics statistics : job.fileIngestModuleStatistics.values()) {
+                summaries.add("Ingest job " + job.getId() + ": " + statistics.getSummary()); //NON-NLS
+            }
+        }
+        return summaries;
+    }
+
     static void cancelAllIngestJobs() {
         for (IngestJob job : ingestJobsById.values()) {
             job.cancel();
@@ -102,13 +160,220 @@ boolean shouldProcessUnallocatedSpace() {
         return processUnallocatedSpace;
     }
 
+    /**
+     * Gets the statistics shared by all instances of a file ingest module in
+     * the file ingest pipelines of this job.
+     *
+     * @param moduleDisplayName The display name of the module.
+     * @return The statistics for the module.
+     */
+    FileIngestModuleStatistics getFileIngestModuleStatistics(String moduleDisplayName) {
+        FileIngestModuleStatistics statistics = fileIngestModuleStatistics.get(moduleDisplayName);
+        if (statistics == null) {
+            statistics = new FileIngestModuleStatistics(moduleDisplayName);
+            FileIngestModuleStatistics existing = fileIngestModuleStatistics.putIfAbsent(moduleDisplayName, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Records that a file ingest pipeline of this job did not pass a known
+     * file to one or more of its modules.
+     *
+     * @param file The file.
+     */
+    void recordKnownFileSkipped(AbstractFile file) {
+        knownFilesSkipped.incrementAndGet();
+        knownBytesSkipped.addAndGet(file.getSize());
+    }
+
+    /**
+     * Gets the checkpoint shared by all instances of a file ingest module in
+     * the file ingest pipelines of this job. The checkpoint holds the files 
+     * the module completed in previous ingest jobs for the same data source 
+     * that were cancelled or did not finish, and records the files the module
+     * completes in this job.
+     *
+     * The files completed in a previous job are only used if the module
+     * version and ingest job settings are the same, and the user is told how
+     * many files will be skipped.
+     *
+     * @param template The template for the module.
+     * @return The checkpoint for the module.
+     */
+    FileIngestModuleCheckpoint getFileIngestModuleCheckpoint(IngestModuleTemplate template) {
+        String moduleDisplayName = template.getModuleName();
+        FileIngestModuleCheckpoint checkpoint = fileIngestModuleCheckpoints.get(moduleDisplayName);
+        if (checkpoint == null) {
+            File checkpointFile = new File(Case.getCurrentCase().getCaseDirectory() + File.separator + "IngestCheckpoints" //NON-NLS
+                    + File.separator + dataSource.getId() + File.separator + moduleDisplayName.replaceAll("[^A-Za-z0-9]", "_") + ".ckpt"); //NON-NLS
+            checkpoint = new FileIngestModuleCheckpoint(checkpointFile, getSettingsFingerprint(template));
+            FileIngestModuleCheckpoint existing = fileIngestModuleCheckpoints.putIfAbsent(moduleDisplayName, checkpoint);
+            if (existing != null) {
+                checkpoint = existing;
+            } else if (checkpoint.getPreviouslyCompletedFilesCount() > 0) {
+                logger.log(Level.INFO, "Ingest job {0} resuming {1}, {2} files already completed", new Object[]{id, moduleDisplayName, checkpoint.getPreviouslyCompletedFilesCount()}); //NON-NLS
+                IngestServices.getInstance().postMessage(IngestMessage.createManagerMessage(
+                        NbBundle.getMessage(this.getClass(), "IngestJob.checkpointResumed.title", moduleDisplayName, dataSource.getName()),
+                        NbBundle.getMessage(this.getClass(), "IngestJob.checkpointResumed.msg", checkpoint.getPreviouslyCompletedFilesCount())));
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Computes a fingerprint of the version and ingest job settings of an
+     * ingest module. Settings that cannot be serialized get a fingerprint that
+     * matches no checkpoint, so the module processes every file.
+     *
+     * @param template The template for the module.
+     * @return The fingerprint.
+     */
+    private static String getSettingsFingerprint(IngestModuleTemplate template) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1"); //NON-NLS
+            try (ObjectOutputStream out = new ObjectOutputStream(new DigestOutputStream(new NullOutputStream(), digest))) {
+                out.writeUTF(template.getModuleFactory().getClass().getName());
+                out.writeUTF(String.valueOf(template.getModuleFactory().getModuleVersionNumber()));
+                out.writeObject(template.getModuleSettings());
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b)); //NON-NLS
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException ex) {
+            logger.log(Level.WARNING, "Could not fingerprint the settings of " + template.getModuleName() + ", not resuming from its checkpoint", ex); //NON-NLS
+            return Long.toString(System.nanoTime());
+        }
+    }
+
+    /**
+     * Adds a flusher that writes results an ingest module of this job has
+     * deferred writing. Adding the same flusher again has no effect.
+     *
+     * @param flusher The flusher, which throws an unchecked exception if the
+     * deferred results could not be written.
+     */
+    void addDeferredResultsFlusher(Runnable flusher) {
+        deferredResultsFlushers.add(flusher);
+    }
+
+    /**
+     * Writes the files the file ingest modules of this job have completed
+     * since the last write to their checkpoints. The completed files of all
+     * of the modules are taken first, then the results the modules have
+     * deferred writing are written once, and only then are the files recorded,
+     * so a recorded file always has its results written. If the deferred
+     * results cannot be written, the files are not recorded and a resumed job
+     * processes them again.
+     */
+    private void writeCheckpoints() {
+        synchronized (checkpointsWriteLock) {
+            Map<FileIngestModuleCheckpoint, long[]> completedFileIds = new LinkedHashMap<>();
+            int count = 0;
+            for (FileIngestModuleCheckpoint checkpoint : fileIngestModuleCheckpoints.values()) {
+                long[] ids = checkpoint.takeCompletedFileIds();
+                completedFileIds.put(checkpoint, ids);
+                count += ids.length;
+            }
+            if (count == 0) {
+                return;
+            }
+            for (Runnable flusher : deferredResultsFlushers) {
+                try {
+                    flusher.run();
+                } catch (RuntimeException ex) {
+                    logger.log(Level.WARNING, "Ingest job " + id + " could not write deferred ingest module results, not recording " + count + " completed files in its checkpoints", ex); //NON-NLS
+                    return;
+                }
+            }
+            for (Map.Entry<FileIngestModuleCheckpoint, long[]> entry : completedFileIds.entrySet()) {
+                entry.getKey().write(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Starts writing the checkpoints of the file ingest modules of this job
+     * periodically on the checkpoint writer thread.
+     */
+    private void startWritingCheckpoints() {
+        synchronized (checkpointsWriteLock) {
+            checkpointsWriteTask = checkpointWriter.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeCheckpoints();
+                    } catch (RuntimeException ex) {
+                        logger.log(Level.SEVERE, "Ingest job " + id + " could not write its ingest checkpoints", ex); //NON-NLS
+                    }
+                }
+            }, CHECKPOINT_WRITE_INTERVAL_SECS, CHECKPOINT_WRITE_INTERVAL_SECS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Determines whether every file ingest module of this job completed
+     * processing of a file in a previous ingest job, in which case the file
+     * does not need to be scheduled.
+     *
+     * @param file The file.
+     * @return True or false.
+     */
+    boolean isFileIngestCompleted(AbstractFile file) {
+        if (fileIngestModuleCheckpoints.isEmpty()) {
+            return false;
+        }
+        long fileId = file.getId();
+        for (FileIngestModuleCheckpoint checkpoint : fileIngestModuleCheckpoints.values()) {
+            if (!checkpoint.isCompleted(fileId)) {
+                return false;
+            }
+        }
+        checkpointedFilesSkipped.incrementAndGet();
+        return true;
+    }
+
     private void createIngestPipelines(List<IngestModuleTemplate> ingestModuleTemplates) throws InterruptedException {
-        IngestJobContext context = new IngestJobContext(this);
+        this.context = new IngestJobContext(this);
+        this.ingestModuleTemplates = ingestModuleTemplates;
         dataSourceIngestPipeline = new DataSourceIngestPipeline(context, ingestModuleTemplates);
         int numberOfPipelines = IngestManager.getInstance().getNumberOfFileIngestThreads();
         for (int i = 0; i < numberOfPipelines; ++i) {
             fileIngestPipelines.put(new FileIngestPipeline(context, ingestModuleTemplates));
         }
+        numberOfFileIngestPipelines.set(numberOfPipelines);
+    }
+
+    /**
+     * Gets a file ingest pipeline for a file ingest thread. If the number of
+     * file ingest threads has grown since the job started and all of the
+     * pipelines are in use, an additional pipeline is created and started up.
+     *
+     * @return A file ingest pipeline.
+     * @throws InterruptedException
+     */
+    private FileIngestPipeline takeFileIngestPipeline() throws InterruptedException {
+        FileIngestPipeline pipeline = fileIngestPipelines.poll();
+        if (pipeline != null) {
+            return pipeline;
+        }
+        int numberOfPipelines = numberOfFileIngestPipelines.get();
+        if (numberOfPipelines < IngestManager.getInstance().getNumberOfFileIngestThreads()
+                && numberOfFileIngestPipelines.compareAndSet(numberOfPipelines, numberOfPipelines + 1)) {
+            pipeline = new FileIngestPipeline(context, ingestModuleTemplates);
+            List<IngestModuleError> errors = pipeline.startUp();
+            if (errors.isEmpty()) {
+                return pipeline;
+            }
+            logIngestModuleErrors(errors);
+            pipeline.shutDown();
+        }
+        return fileIngestPipelines.take();
     }
 
     private boolean hasNonEmptyPipeline() {
@@ -134,8 +399,14 @@ private List<IngestModuleError> start() throws InterruptedException {
                 // ingest tasks to make sure the progress bar will be available 
                 // as soon as the tasks begin to be processed.
                 startFileIngestProgressBar();
+                if (!fileIngestModuleCheckpoints.isEmpty()) {
+                    startWritingCheckpoints();
+                }
                 if (!fileTaskScheduler.tryScheduleTasks(this, dataSource)) {
-                    fileIngestProgress.finish();
+                    // Either there were no files to schedule, or the ingest
+                    // threads completed all of the tasks before scheduling
+                    // was done.
+                    finishFileIngest();
                 }
             }
         }
@@ -225,7 +496,7 @@ void process(FileIngestTask task) throws InterruptedException {
                     fileIngestProgress.progress(file.getName(), (int) estimatedFilesToProcess);
                 }
             }
-            FileIngestPipeline pipeline = fileIngestPipelines.take();
+            FileIngestPipeline pipeline = takeFileIngestPipeline();
             List<IngestModuleError> errors = new ArrayList<>();
             errors.addAll(pipeline.process(file));
             fileIngestPipelines.put(pipeline);
@@ -233,25 +504,85 @@ void process(FileIngestTask task) throws InterruptedException {
                 logIngestModuleErrors(errors);
             }
         }
-        fileTaskScheduler.notifyTaskCompleted(task);
+        // Only the thread that completes the last file task for the job sees
+        // true here, so the pipelines are shut down exactly once.
+        if (fileTaskScheduler.notifyTaskCompleted(task)) {
+            finishFileIngest();
+        }
+    }
 
-        if (!fileTaskScheduler.hasIncompleteTasksForIngestJob(this)) {
-            List<IngestModuleError> errors = new ArrayList<>();
-            while (!fileIngestPipelines.isEmpty()) {
-                FileIngestPipeline pipeline = fileIngestPipelines.poll();
-                errors.addAll(pipeline.shutDown());
+    void finishFileIngest() {
+        List<IngestModuleError> errors = new ArrayList<>();
+        while (!fileIngestPipelines.isEmpty()) {
+            FileIngestPipeline pipeline = fileIngestPipelines.poll();
+            errors.addAll(pipeline.shutDown());
+        }
+        if (!errors.isEmpty()) {
+            logIngestModuleErrors(errors);
+        }
+        // Keep the checkpoints of a cancelled job so that the work done can be
+        // skipped when the data source is ingested again. The checkpoints of a
+        // job that ran to completion are not needed.
+        synchronized (checkpointsWriteLock) {
+            if (checkpointsWriteTask != null) {
+                checkpointsWriteTask.cancel(false);
+                checkpointsWriteTask = null;
             }
-            if (!errors.isEmpty()) {
-                logIngestModuleErrors(errors);
+            if (isCancelled()) {
+                writeCheckpoints();
+            } else {
+                for (FileIngestModuleCheckpoint checkpoint : fileIngestModuleCheckpoints.values()) {
+                    checkpoint.delete();
+                }
             }
-            fileIngestProgress.finish();
-            if (!dataSourceTaskScheduler.hasIncompleteTasksForIngestJob(this)) {
-                finish();
+        }
+        for (Map.Entry<String, FileIngestModuleCheckpoint> entry : fileIngestModuleCheckpoints.entrySet()) {
+            if (entry.getValue().getSkippedFilesCount() > 0) {
+                logger.log(Level.INFO, "Ingest job {0} skipped {1} files in {2} that were completed by a previous ingest job", new Object[]{id, entry.getValue().getSkippedFilesCount(), entry.getKey()}); //NON-NLS
             }
         }
+        if (checkpointedFilesSkipped.get() > 0) {
+            logger.log(Level.INFO, "Ingest job {0} did not schedule {1} files completed by all of its file ingest modules in a previous ingest job", new Object[]{id, checkpointedFilesSkipped.get()}); //NON-NLS
+        }
+        for (FileIngestModuleStatistics statistics : fileIngestModuleStatistics.values()) {
+            logger.log(Level.INFO, "Ingest job {0} finished file ingest: {1}", new Object[]{id, statistics.getSummary()}); //NON-NLS
+        }
+        logger.log(Level.INFO, "Ingest job {0} skipped {1} known files ({2} bytes) in modules that do not process known files", new Object[]{id, knownFilesSkipped.get(), knownBytesSkipped.get()}); //NON-NLS
+        fileIngestProgress.finish();
+        if (!dataSourceTaskScheduler.hasIncompleteTasksForIngestJob(this)) {
+            finish();
+        }
+    }
+
+    /**
+     * Records that the job started event has been fired, and finishes the job
+     * if it was done before the event could be fired.
+     */
+    private void startedEventFired() {
+        boolean finishNow;
+        synchronized (this) {
+            startedEventFired = true;
+            finishNow = finishPending;
+        }
+        if (finishNow) {
+            finish();
+        }
     }
 
     private void finish() {
+        synchronized (this) {
+            if (!startedEventFired) {
+                // The job finished while it was being started, e.g., there
+                // were no files to ingest. The job is finished after the job
+                // started event is fired, so listeners see the events in order.
+                finishPending = true;
+                return;
+            }
+            if (finished) {
+                return;
+            }
+            finished = true;
+        }
         ingestJobsById.remove(id);
         if (!isCancelled()) {
             IngestManager.getInstance().fireIngestJobCompleted(id);
@@ -273,4 +604,19 @@ boolean isCancelled() {
     private void cancel() {
         cancelled = true;
     }
+
+    /**
+     * An output stream that discards what is written to it, used to compute
+     * a digest of serialized data.
+     */
+    private static final class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
 }
@@ -35,6 +35,10 @@ public final class IngestJobContext {
         this.ingestJob = ingestJob;
     }
 
+    IngestJob getIngestJob() {
+        return this.ingestJob;
+    }
+
     /**
      * Gets the identifier of the ingest job associated with this context.
      *
@@ -54,6 +58,51 @@ public boolean isJobCancelled() {
         return this.ingestJob.isCancelled();
     }
 
+    /**
+     * Gets the content of a file. If the file is the one currently being
+     * processed by the file ingest pipeline of the calling thread, reads of
+     * the start of the file, or of the whole file if it is small, are shared by
+     * all of the modules in the pipeline, so that the content is read from the
+     * data source only once.
+     *
+     * @param file The file.
+     * @return The content of the file.
+     */
+    public CachedFileContent getFileContent(AbstractFile file) {
+        return CachedFileContent.getCachedFileContent(file);
+    }
+
+    /**
+     * Gets the facts about a file published by the ingest modules that have
+     * already processed the file. If the file is not the one currently being
+     * processed by the file ingest pipeline of the calling thread, the context
+     * is empty and anything published to it is discarded.
+     *
+     * @param file The file.
+     * @return The context for the file.
+     */
+    public FileIngestContext getFileIngestContext(AbstractFile file) {
+        return FileIngestContext.getFileIngestContext(file);
+    }
+
+    /**
+     * Registers a flusher for results an ingest module defers writing until
+     * after it has returned from processing a file, e.g., results that are
+     * written in batches. The ingest job records the files the modules have
+     * completed so that an unfinished job can be resumed, and runs the
+     * flushers first, so that a resumed job does not skip a file whose
+     * results were lost. The flushers are run periodically on a background
+     * thread, concurrently with the processing of files, and should not block
+     * the ingest threads. The module instances of a job should register the
+     * same flusher, since it is only run once per flush.
+     *
+     * @param flusher Writes the deferred results, returning when they are
+     * written, or throws an unchecked exception if they could not be written.
+     */
+    public void addDeferredResultsFlusher(Runnable flusher) {
+        ingestJob.addDeferredResultsFlusher(flusher);
+    }
+
     /**
      * Adds one or more files to the files to be passed through the file ingest
      * pipeline of the ingest job associated with the current context.
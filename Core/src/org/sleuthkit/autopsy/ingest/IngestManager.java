@@ -27,6 +27,7 @@
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import org.openide.util.NbBundle;
@@ -34,7 +35,6 @@
 import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.api.progress.ProgressHandleFactory;
 import org.openide.util.Cancellable;
-import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
 import org.sleuthkit.datamodel.Content;
 import javax.swing.JOptionPane;
 import org.sleuthkit.autopsy.core.UserPreferences;
@@ -44,6 +44,8 @@
  */
 public class IngestManager {
 
+    private static final int MIN_NUMBER_OF_DATA_SOURCE_INGEST_THREADS = 1;
+    private static final int MAX_NUMBER_OF_DATA_SOURCE_INGEST_THREADS = 4;
     private static final int DEFAULT_NUMBER_OF_DATA_SOURCE_INGEST_THREADS = 1;
     private static final int MIN_NUMBER_OF_FILE_INGEST_THREADS = 1;
     private static final int MAX_NUMBER_OF_FILE_INGEST_THREADS = 16;
@@ -53,16 +55,19 @@ public class IngestManager {
     private final PropertyChangeSupport ingestJobEventPublisher = new PropertyChangeSupport(IngestManager.class);
     private final PropertyChangeSupport ingestModuleEventPublisher = new PropertyChangeSupport(IngestManager.class);
     private final IngestMonitor ingestMonitor = new IngestMonitor();
+    private final FileIngestThreadsController fileIngestThreadsController = new FileIngestThreadsController(MIN_NUMBER_OF_FILE_INGEST_THREADS, MAX_NUMBER_OF_FILE_INGEST_THREADS);
     private final ExecutorService startIngestJobsThreadPool = Executors.newSingleThreadExecutor();
-    private final ExecutorService dataSourceIngestThreadPool = Executors.newSingleThreadExecutor();
+    private final ExecutorService dataSourceIngestThreadPool;
     private final ExecutorService fileIngestThreadPool;
-    private final ExecutorService fireIngestEventsThreadPool = Executors.newSingleThreadExecutor();
+    private final IngestEventPublisher ingestEventPublisher = new IngestEventPublisher();
     private final AtomicLong nextThreadId = new AtomicLong(0L);
     private final ConcurrentHashMap<Long, Future<Void>> startIngestJobThreads = new ConcurrentHashMap<>(); // Maps thread ids to cancellation handles.
     private final ConcurrentHashMap<Long, Future<?>> dataSourceIngestThreads = new ConcurrentHashMap<>(); // Maps thread ids to cancellation handles.
     private final ConcurrentHashMap<Long, Future<?>> fileIngestThreads = new ConcurrentHashMap<>(); // Maps thread ids to cancellation handles.
+    private final AtomicInteger fileIngestThreadsToRetire = new AtomicInteger(0);
     private volatile IngestMessageTopComponent ingestMessageBox;
-    private int numberOfFileIngestThreads = DEFAULT_NUMBER_OF_FILE_INGEST_THREADS;
+    private int numberOfDataSourceIngestThreads = DEFAULT_NUMBER_OF_DATA_SOURCE_INGEST_THREADS;
+    private volatile int numberOfFileIngestThreads = DEFAULT_NUMBER_OF_FILE_INGEST_THREADS;
 
     /**
      * Gets the ingest manager.
@@ -78,14 +83,27 @@ public static IngestManager getInstance() {
      * threads.
      */
     private IngestManager() {
-        startDataSourceIngestThread();
-        
+        // Each data source ingest thread runs the data source ingest pipeline
+        // of one ingest job at a time, so data source ingest for multiple jobs
+        // can proceed concurrently.
+        numberOfDataSourceIngestThreads = UserPreferences.numberOfDataSourceIngestThreads();
+        if ((numberOfDataSourceIngestThreads < MIN_NUMBER_OF_DATA_SOURCE_INGEST_THREADS) || (numberOfDataSourceIngestThreads > MAX_NUMBER_OF_DATA_SOURCE_INGEST_THREADS)) {
+            numberOfDataSourceIngestThreads = DEFAULT_NUMBER_OF_DATA_SOURCE_INGEST_THREADS;
+            UserPreferences.setNumberOfDataSourceIngestThreads(numberOfDataSourceIngestThreads);
+        }
+        dataSourceIngestThreadPool = Executors.newFixedThreadPool(numberOfDataSourceIngestThreads);
+        for (int i = 0; i < numberOfDataSourceIngestThreads; ++i) {
+            startDataSourceIngestThread();
+        }
+
         numberOfFileIngestThreads = UserPreferences.numberOfFileIngestThreads();
         if ((numberOfFileIngestThreads < MIN_NUMBER_OF_FILE_INGEST_THREADS) || (numberOfFileIngestThreads > MAX_NUMBER_OF_FILE_INGEST_THREADS)) {
             numberOfFileIngestThreads = DEFAULT_NUMBER_OF_FILE_INGEST_THREADS;
             UserPreferences.setNumberOfFileIngestThreads(numberOfFileIngestThreads);
         }
-        fileIngestThreadPool = Executors.newFixedThreadPool(numberOfFileIngestThreads);        
+        // The file ingest thread pool is not fixed in size so that threads can
+        // be added and retired while ingest is running.
+        fileIngestThreadPool = Executors.newCachedThreadPool();
         for (int i = 0; i < numberOfFileIngestThreads; ++i) {
             startFileIngestThread();
         }
@@ -107,24 +125,82 @@ void initIngestMessageInbox() {
      * use.
      */
     public int getNumberOfDataSourceIngestThreads() {
-        return DEFAULT_NUMBER_OF_DATA_SOURCE_INGEST_THREADS;
+        return numberOfDataSourceIngestThreads;
     }
 
     /**
-     * Gets the maximum number of file ingest threads the ingest manager will
-     * use.
+     * Gets the number of file ingest threads the ingest manager is using. This
+     * number may change while ingest is running if adapting the number of file
+     * ingest threads is enabled in the user preferences.
      */
     public int getNumberOfFileIngestThreads() {
         return numberOfFileIngestThreads;
     }
 
+    /**
+     * Changes the number of file ingest threads. Threads are added
+     * immediately. Threads are retired when they finish their current tasks.
+     *
+     * @param numberOfThreads The new number of file ingest threads.
+     */
+    synchronized void setNumberOfFileIngestThreads(int numberOfThreads) {
+        int change = numberOfThreads - numberOfFileIngestThreads;
+        if (change > 0) {
+            for (int i = 0; i < change; ++i) {
+                // Cancel a pending retirement instead of adding a thread, if
+                // possible.
+                int toRetire = fileIngestThreadsToRetire.get();
+                if (toRetire > 0 && fileIngestThreadsToRetire.compareAndSet(toRetire, toRetire - 1)) {
+                    continue;
+                }
+                startFileIngestThread();
+            }
+        } else if (change < 0) {
+            fileIngestThreadsToRetire.addAndGet(-change);
+        }
+        numberOfFileIngestThreads = numberOfThreads;
+    }
+
+    /**
+     * Changes the number of file ingest threads on behalf of the file ingest
+     * threads controller, unless the controller has been stopped in the
+     * meantime and the number of threads reset.
+     *
+     * @param numberOfThreads The new number of file ingest threads.
+     */
+    synchronized void adaptNumberOfFileIngestThreads(int numberOfThreads) {
+        if (fileIngestThreadsController.isRunning()) {
+            setNumberOfFileIngestThreads(numberOfThreads);
+        }
+    }
+
+    /**
+     * Stops adapting the number of file ingest threads, e.g., when ingest is
+     * no longer running or the user preference has been cleared, and restores
+     * the number of file ingest threads from the user preferences.
+     */
+    synchronized void stopAdaptingNumberOfFileIngestThreads() {
+        if (!fileIngestThreadsController.isRunning()) {
+            return;
+        }
+        fileIngestThreadsController.stop();
+        int numberOfThreads = UserPreferences.numberOfFileIngestThreads();
+        if ((numberOfThreads < MIN_NUMBER_OF_FILE_INGEST_THREADS) || (numberOfThreads > MAX_NUMBER_OF_FILE_INGEST_THREADS)) {
+            numberOfThreads = DEFAULT_NUMBER_OF_FILE_INGEST_THREADS;
+        }
+        if (numberOfThreads != numberOfFileIngestThreads) {
+            logger.log(Level.INFO, "Restoring {0} file ingest threads", numberOfThreads); //NON-NLS
+            setNumberOfFileIngestThreads(numberOfThreads);
+        }
+    }
+
     /**
      * Submits a DataSourceIngestThread Runnable to the data source ingest
      * thread pool.
      */
     private void startDataSourceIngestThread() {
         long threadId = nextThreadId.incrementAndGet();
-        Future<?> handle = dataSourceIngestThreadPool.submit(new ExecuteIngestTasksThread(DataSourceIngestTaskScheduler.getInstance()));
+        Future<?> handle = dataSourceIngestThreadPool.submit(new ExecuteIngestTasksThread(threadId, DataSourceIngestTaskScheduler.getInstance()));
         dataSourceIngestThreads.put(threadId, handle);
     }
 
@@ -134,7 +210,7 @@ private void startDataSourceIngestThread() {
      */
     private void startFileIngestThread() {
         long threadId = nextThreadId.incrementAndGet();
-        Future<?> handle = fileIngestThreadPool.submit(new ExecuteIngestTasksThread(FileIngestTaskScheduler.getInstance()));
+        Future<?> handle = fileIngestThreadPool.submit(new ExecuteIngestTasksThread(threadId, FileIngestTaskScheduler.getInstance()));
         fileIngestThreads.put(threadId, handle);
     }
 
@@ -160,6 +236,34 @@ synchronized void startIngestJobs(final List<Content> dataSources, final List<In
         }
     }
 
+    /**
+     * Sets the weight of an ingest job, i.e., its share of the file ingest
+     * threads relative to the other ingest jobs that are running. For example,
+     * a job with twice the weight of another job gets twice as much of the
+     * file ingest thread time. The weight may be changed while the job runs.
+     *
+     * @param jobId The id of the ingest job, as given by the STARTED ingest
+     * job event.
+     * @param weight The weight, from 1 to 100. The default is 10.
+     * @return True if the weight was set, false if the job is not running or
+     * has finished file ingest.
+     */
+    public boolean setIngestJobWeight(long jobId, int weight) {
+        return FileIngestTaskScheduler.getInstance().setWeight(jobId, weight);
+    }
+
+    /**
+     * Gets the weight of an ingest job, i.e., its share of the file ingest
+     * threads relative to the other ingest jobs that are running.
+     *
+     * @param jobId The id of the ingest job.
+     * @return The weight, or zero if the job is not running or has finished
+     * file ingest.
+     */
+    public int getIngestJobWeight(long jobId) {
+        return FileIngestTaskScheduler.getInstance().getWeight(jobId);
+    }
+
     /**
      * Test if any ingest jobs are in progress.
      *
@@ -309,7 +413,7 @@ public static void removePropertyChangeListener(final PropertyChangeListener lis
      * @param ingestJobId The ingest job id.
      */
     void fireIngestJobStarted(long ingestJobId) {
-        fireIngestEventsThreadPool.submit(new FireIngestEventThread(ingestJobEventPublisher, IngestJobEvent.STARTED, ingestJobId, null));
+        ingestEventPublisher.publish(ingestJobEventPublisher, IngestJobEvent.STARTED.toString(), ingestJobId, null);
     }
 
     /**
@@ -318,7 +422,8 @@ void fireIngestJobStarted(long ingestJobId) {
      * @param ingestJobId The ingest job id.
      */
     void fireIngestJobCompleted(long ingestJobId) {
-        fireIngestEventsThreadPool.submit(new FireIngestEventThread(ingestJobEventPublisher, IngestJobEvent.COMPLETED, ingestJobId, null));
+        ingestEventPublisher.publish(ingestJobEventPublisher, IngestJobEvent.COMPLETED.toString(), ingestJobId, null);
+        ingestJobFinished();
     }
 
     /**
@@ -327,7 +432,14 @@ void fireIngestJobCompleted(long ingestJobId) {
      * @param ingestJobId The ingest job id.
      */
     void fireIngestJobCancelled(long ingestJobId) {
-        fireIngestEventsThreadPool.submit(new FireIngestEventThread(ingestJobEventPublisher, IngestJobEvent.CANCELLED, ingestJobId, null));
+        ingestEventPublisher.publish(ingestJobEventPublisher, IngestJobEvent.CANCELLED.toString(), ingestJobId, null);
+        ingestJobFinished();
+    }
+
+    private void ingestJobFinished() {
+        if (!isIngestRunning() && startIngestJobThreads.isEmpty()) {
+            stopAdaptingNumberOfFileIngestThreads();
+        }
     }
 
     /**
@@ -336,7 +448,7 @@ void fireIngestJobCancelled(long ingestJobId) {
      * @param fileId The object id of file.
      */
     void fireFileIngestDone(long fileId) {
-        fireIngestEventsThreadPool.submit(new FireIngestEventThread(ingestModuleEventPublisher, IngestModuleEvent.FILE_DONE, fileId, null));
+        ingestEventPublisher.publish(ingestModuleEventPublisher, IngestModuleEvent.FILE_DONE.toString(), fileId, null);
     }
 
     /**
@@ -345,7 +457,7 @@ void fireFileIngestDone(long fileId) {
      * @param moduleDataEvent A ModuleDataEvent with the details of the posting.
      */
     void fireIngestModuleDataEvent(ModuleDataEvent moduleDataEvent) {
-        fireIngestEventsThreadPool.submit(new FireIngestEventThread(ingestModuleEventPublisher, IngestModuleEvent.DATA_ADDED, moduleDataEvent, null));
+        ingestEventPublisher.publish(ingestModuleEventPublisher, IngestModuleEvent.DATA_ADDED.toString(), moduleDataEvent, null);
     }
 
     /**
@@ -356,7 +468,7 @@ void fireIngestModuleDataEvent(ModuleDataEvent moduleDataEvent) {
      * content.
      */
     void fireIngestModuleContentEvent(ModuleContentEvent moduleContentEvent) {
-        fireIngestEventsThreadPool.submit(new FireIngestEventThread(ingestModuleEventPublisher, IngestModuleEvent.CONTENT_CHANGED, moduleContentEvent, null));
+        ingestEventPublisher.publish(ingestModuleEventPublisher, IngestModuleEvent.CONTENT_CHANGED.toString(), moduleContentEvent, null);
     }
 
     /**
@@ -424,6 +536,9 @@ public boolean cancel() {
                 if (!ingestMonitor.isRunning()) {
                     ingestMonitor.start();
                 }
+                if (UserPreferences.adaptNumberOfFileIngestThreads()) {
+                    fileIngestThreadsController.start();
+                }
 
                 int dataSourceProcessed = 0;
                 for (Content dataSource : dataSources) {
@@ -467,6 +582,9 @@ public boolean cancel() {
             } finally {
                 progress.finish();
                 startIngestJobThreads.remove(threadId);
+                // The jobs started may have finished already, or failed to
+                // start.
+                ingestJobFinished();
                 return null;
             }
         }
@@ -477,18 +595,33 @@ public boolean cancel() {
      */
     private class ExecuteIngestTasksThread implements Runnable {
 
-        private IngestTaskQueue tasks;
+        private final long threadId;
+        private final IngestTaskQueue tasks;
+        private final boolean isFileIngestThread;
 
-        ExecuteIngestTasksThread(IngestTaskQueue tasks) {
+        ExecuteIngestTasksThread(long threadId, IngestTaskQueue tasks) {
+            this.threadId = threadId;
             this.tasks = tasks;
+            this.isFileIngestThread = (tasks == FileIngestTaskScheduler.getInstance());
         }
 
         @Override
         public void run() {
             while (true) {
+                if (isFileIngestThread && tryRetire()) {
+                    break;
+                }
                 try {
                     IngestTask task = tasks.getNextTask(); // Blocks.
-                    task.execute();
+                    if (isFileIngestThread) {
+                        long startCpuTime = fileIngestThreadsController.getCurrentThreadCpuTime();
+                        long startTime = System.nanoTime();
+                        task.execute();
+                        long cpuTime = (startCpuTime >= 0) ? fileIngestThreadsController.getCurrentThreadCpuTime() - startCpuTime : -1L;
+                        fileIngestThreadsController.recordFileIngestTask(System.nanoTime() - startTime, cpuTime);
+                    } else {
+                        task.execute();
+                    }
                 } catch (InterruptedException ex) {
                     break;
                 }
@@ -497,45 +630,17 @@ public void run() {
                 }
             }
         }
-    }
-
-    /**
-     * Fires ingest events to ingest manager property change listeners.
-     */
-    private static class FireIngestEventThread implements Runnable {
-
-        private final PropertyChangeSupport publisher;
-        private final IngestJobEvent jobEvent;
-        private final IngestModuleEvent moduleEvent;
-        private final Object oldValue;
-        private final Object newValue;
-
-        FireIngestEventThread(PropertyChangeSupport publisher, IngestJobEvent event, Object oldValue, Object newValue) {
-            this.publisher = publisher;
-            this.jobEvent = event;
-            this.moduleEvent = null;
-            this.oldValue = oldValue;
-            this.newValue = newValue;
-        }
-
-        FireIngestEventThread(PropertyChangeSupport publisher, IngestModuleEvent event, Object oldValue, Object newValue) {
-            this.publisher = publisher;
-            this.jobEvent = null;
-            this.moduleEvent = event;
-            this.oldValue = oldValue;
-            this.newValue = newValue;
-        }
 
-        @Override
-        public void run() {
-            try {
-                publisher.firePropertyChange((jobEvent != null ? jobEvent.toString() : moduleEvent.toString()), oldValue, newValue);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Ingest manager listener threw exception", e); //NON-NLS
-                MessageNotifyUtil.Notify.show(NbBundle.getMessage(IngestManager.class, "IngestManager.moduleErr"),
-                        NbBundle.getMessage(IngestManager.class, "IngestManager.moduleErr.errListenToUpdates.msg"),
-                        MessageNotifyUtil.MessageType.ERROR);
+        private boolean tryRetire() {
+            int toRetire = fileIngestThreadsToRetire.get();
+            while (toRetire > 0) {
+                if (fileIngestThreadsToRetire.compareAndSet(toRetire, toRetire - 1)) {
+                    fileIngestThreads.remove(threadId);
+                    return true;
+                }
+                toRetire = fileIngestThreadsToRetire.get();
             }
+            return false;
         }
     }
 }
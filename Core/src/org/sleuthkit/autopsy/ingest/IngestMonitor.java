@@ -159,6 +159,7 @@ public void actionPerformed(ActionEvent e) {
             }
 
             monitorMemory();
+            monitorFileIngestModules();
 
             if (checkDiskSpace() == false) {
                 //stop ingest if running
@@ -222,5 +223,18 @@ private boolean checkDiskSpace() {
         private void monitorMemory() {
             MONITOR_LOGGER.log(Level.INFO, PlatformUtil.getAllMemUsageInfo());
         }
+
+        /**
+         * Write the file ingest module statistics of the running ingest jobs
+         * to the monitor log
+         */
+        private void monitorFileIngestModules() {
+            for (String summary : IngestJob.getFileIngestModuleStatisticsSummaries()) {
+                MONITOR_LOGGER.log(Level.INFO, summary);
+            }
+            for (String summary : FileIngestTaskScheduler.getInstance().getShareSummaries()) {
+                MONITOR_LOGGER.log(Level.INFO, summary);
+            }
+        }
     }
 }
@@ -21,7 +21,9 @@
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.coreutils.ModuleSettings;
@@ -41,8 +43,8 @@ final class IngestPipelinesConfiguration {
 
     private static final Logger logger = Logger.getLogger(IngestPipelinesConfiguration.class.getName());
     private static final String PIPELINE_CONFIG_FILE_VERSION_KEY = "PipelineConfigFileVersion"; //NON-NLS
-    private static final String PIPELINE_CONFIG_FILE_VERSION_NO_STRING = "1";
-    private static final int PIPELINE_CONFIG_FILE_VERSION_NO = 1;
+    private static final String PIPELINE_CONFIG_FILE_VERSION_NO_STRING = "4";
+    private static final int PIPELINE_CONFIG_FILE_VERSION_NO = 4;
     private static final String PIPELINES_CONFIG_FILE = "pipeline_config.xml"; //NON-NLS
     private static final String PIPELINES_CONFIG_FILE_XSD = "PipelineConfigSchema.xsd"; //NON-NLS
     private static final String XML_PIPELINE_ELEM = "PIPELINE"; //NON-NLS
@@ -51,9 +53,13 @@ final class IngestPipelinesConfiguration {
     private static final String FILE_INGEST_PIPELINE_TYPE = "FileAnalysis"; //NON-NLS
     private static final String XML_MODULE_ELEM = "MODULE"; //NON-NLS
     private static final String XML_MODULE_CLASS_NAME_ATTR = "location"; //NON-NLS
+    private static final String XML_MODULE_CONCURRENT_ATTR = "concurrent"; //NON-NLS
+    private static final String XML_MODULE_SKIP_KNOWN_ATTR = "skipKnown"; //NON-NLS
     private static IngestPipelinesConfiguration instance;
     private final List<String> dataSourceIngestPipelineConfig = new ArrayList<>();
     private final List<String> fileIngestPipelineConfig = new ArrayList<>();
+    private final Set<String> concurrentDataSourceIngestModules = new HashSet<>();
+    private final Set<String> skipKnownFileIngestModules = new HashSet<>();
 
     private IngestPipelinesConfiguration() {
         readPipelinesConfigurationFile();
@@ -75,11 +81,33 @@ List<String> getFileIngestPipelineConfig() {
         return new ArrayList<>(fileIngestPipelineConfig);
     }
 
+    /**
+     * Gets the class names of the data source ingest modules that declare no
+     * ordering dependency on their neighbors in the data source ingest
+     * pipeline. Adjacent modules in this set may be run concurrently.
+     *
+     * @return A set of ingest module class names.
+     */
+    Set<String> getConcurrentDataSourceIngestModules() {
+        return new HashSet<>(concurrentDataSourceIngestModules);
+    }
+
+    /**
+     * Gets the class names of the file ingest modules that opt out of 
+     * processing known files. The file ingest pipeline does not pass a file
+     * to these modules once a module earlier in the pipeline has found the 
+     * file to be known.
+     *
+     * @return A set of ingest module class names.
+     */
+    Set<String> getSkipKnownFileIngestModules() {
+        return new HashSet<>(skipKnownFileIngestModules);
+    }
+
     private void readPipelinesConfigurationFile() {
         try {
             boolean overWrite;
             if (!ModuleSettings.settingExists(this.getClass().getSimpleName(), PIPELINE_CONFIG_FILE_VERSION_KEY)) {
-                ModuleSettings.setConfigSetting(this.getClass().getSimpleName(), PIPELINE_CONFIG_FILE_VERSION_KEY, PIPELINE_CONFIG_FILE_VERSION_NO_STRING);
                 overWrite = true;
             } else {
                 int versionNumber = Integer.parseInt(ModuleSettings.getConfigSetting(this.getClass().getSimpleName(), PIPELINE_CONFIG_FILE_VERSION_KEY));
@@ -87,6 +115,11 @@ private void readPipelinesConfigurationFile() {
                 // TODO: Migrate user edits
             }
             PlatformUtil.extractResourceToUserConfigDir(IngestPipelinesConfiguration.class, PIPELINES_CONFIG_FILE, overWrite);
+            if (overWrite) {
+                // Record the version extracted, so the file, and any user
+                // edits to it, are not overwritten again on the next launch.
+                ModuleSettings.setConfigSetting(this.getClass().getSimpleName(), PIPELINE_CONFIG_FILE_VERSION_KEY, PIPELINE_CONFIG_FILE_VERSION_NO_STRING);
+            }
 
             String configFilePath = PlatformUtil.getUserConfigDirectory() + File.separator + PIPELINES_CONFIG_FILE;
             Document doc = XMLUtil.loadDoc(IngestPipelinesConfiguration.class, configFilePath);
@@ -138,6 +171,14 @@ private void readPipelinesConfigurationFile() {
                         final String moduleClassName = moduleElement.getAttribute(XML_MODULE_CLASS_NAME_ATTR);
                         if (moduleClassName != null) {
                             pipelineConfig.add(moduleClassName);
+                            if (pipelineConfig == dataSourceIngestPipelineConfig
+                                    && Boolean.parseBoolean(moduleElement.getAttribute(XML_MODULE_CONCURRENT_ATTR))) {
+                                concurrentDataSourceIngestModules.add(moduleClassName);
+                            }
+                            if (pipelineConfig == fileIngestPipelineConfig
+                                    && Boolean.parseBoolean(moduleElement.getAttribute(XML_MODULE_SKIP_KNOWN_ATTR))) {
+                                skipKnownFileIngestModules.add(moduleClassName);
+                            }
                         }
                     }
                 }
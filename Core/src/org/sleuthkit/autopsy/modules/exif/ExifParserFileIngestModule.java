@@ -32,10 +32,13 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
-import org.sleuthkit.autopsy.coreutils.ImageUtils;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.casemodule.services.DuplicateContentManager;
 import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.CachedFileContent;
 import org.sleuthkit.autopsy.ingest.FileIngestModule;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestServices;
@@ -45,7 +48,7 @@
 import org.sleuthkit.datamodel.BlackboardArtifact;
 import org.sleuthkit.datamodel.BlackboardAttribute;
 import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
-import org.sleuthkit.datamodel.ReadContentInputStream;
+import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskData;
 import org.sleuthkit.datamodel.TskData.TSK_DB_FILES_TYPE_ENUM;
@@ -62,6 +65,9 @@ public final class ExifParserFileIngestModule implements FileIngestModule {
     private AtomicInteger filesProcessed = new AtomicInteger(0);
     private volatile boolean filesToFire = false;
     private long jobId;
+    private IngestJobContext context;
+    private SleuthkitCase skCase;
+    private DuplicateContentManager duplicateContentManager;
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
         
     ExifParserFileIngestModule() {
@@ -69,7 +75,11 @@ public final class ExifParserFileIngestModule implements FileIngestModule {
 
     @Override
     public void startUp(IngestJobContext context) throws IngestModuleException {    
+        this.context = context;
         jobId = context.getJobId();
+        Case currentCase = Case.getCurrentCase();
+        skCase = currentCase.getSleuthkitCase();
+        duplicateContentManager = currentCase.getServices().getDuplicateContentManager();
         refCounter.incrementAndGet(jobId);
     }
 
@@ -82,7 +92,7 @@ public ProcessResult process(AbstractFile content) {
         }
 
         // skip known
-        if (content.getKnown().equals(TskData.FileKnown.KNOWN)) {
+        if (context.getFileIngestContext(content).isKnown()) {
             return ProcessResult.OK;
         }
 
@@ -94,19 +104,80 @@ public ProcessResult process(AbstractFile content) {
         }
 
         //skip unsupported
-        if (!parsableFormat(content)) {
+        CachedFileContent fileContent = context.getFileContent(content);
+        if (!parsableFormat(fileContent)) {
             return ProcessResult.OK;
         }
 
-        return processFile(content);
+        // Copy the metadata of an earlier file with the same content rather
+        // than parsing it again.
+        String md5Hash = context.getFileIngestContext(content).getMd5Hash();
+        if (copyExifMetadata(content, md5Hash)) {
+            duplicateContentManager.recordReuse(ExifParserModuleFactory.getModuleName(), content.getSize());
+            return ProcessResult.OK;
+        }
+
+        ProcessResult result = processFile(fileContent);
+        if (result == ProcessResult.OK) {
+            duplicateContentManager.recordProcessedFile(ExifParserModuleFactory.getModuleName(), md5Hash, content.getId());
+        }
+        return result;
     }
 
-    ProcessResult processFile(AbstractFile f) {
+    /**
+     * Copies the Exif metadata artifact, if any, of an earlier file with the
+     * same content to a file.
+     *
+     * @param file The file.
+     * @param md5Hash The MD5 hash of the file, may be null.
+     * @return True if there was an earlier file with the same content.
+     */
+    private boolean copyExifMetadata(AbstractFile file, String md5Hash) {
+        Long processedFileId = duplicateContentManager.getProcessedFileId(ExifParserModuleFactory.getModuleName(), md5Hash);
+        if (processedFileId == null) {
+            return false;
+        }
+        try {
+            List<BlackboardArtifact> artifacts = skCase.getBlackboardArtifacts(BlackboardArtifact.ARTIFACT_TYPE.TSK_METADATA_EXIF, processedFileId);
+            for (BlackboardArtifact artifact : artifacts) {
+                Collection<BlackboardAttribute> attributes = new ArrayList<>();
+                for (BlackboardAttribute attribute : artifact.getAttributes()) {
+                    attributes.add(copyAttribute(attribute));
+                }
+                BlackboardArtifact bba = file.newArtifact(BlackboardArtifact.ARTIFACT_TYPE.TSK_METADATA_EXIF);
+                bba.addAttributes(attributes);
+                filesToFire = true;
+            }
+            return true;
+        } catch (TskCoreException ex) {
+            logger.log(Level.WARNING, "Failed to copy exif metadata of file with id " + processedFileId + ", parsing " + file.getName() + " instead", ex); //NON-NLS
+            return false;
+        }
+    }
+
+    private static BlackboardAttribute copyAttribute(BlackboardAttribute attribute) {
+        String moduleName = ExifParserModuleFactory.getModuleName();
+        switch (attribute.getValueType()) {
+            case INTEGER:
+                return new BlackboardAttribute(attribute.getAttributeTypeID(), moduleName, attribute.getValueInt());
+            case LONG:
+                return new BlackboardAttribute(attribute.getAttributeTypeID(), moduleName, attribute.getValueLong());
+            case DOUBLE:
+                return new BlackboardAttribute(attribute.getAttributeTypeID(), moduleName, attribute.getValueDouble());
+            case BYTE:
+                return new BlackboardAttribute(attribute.getAttributeTypeID(), moduleName, attribute.getValueBytes());
+            default:
+                return new BlackboardAttribute(attribute.getAttributeTypeID(), moduleName, attribute.getValueString());
+        }
+    }
+
+    ProcessResult processFile(CachedFileContent fileContent) {
+        AbstractFile f = fileContent.getFile();
         InputStream in = null;
         BufferedInputStream bin = null;
 
         try {
-            in = new ReadContentInputStream(f);
+            in = fileContent.getInputStream();
             bin = new BufferedInputStream(in);
 
             Collection<BlackboardAttribute> attributes = new ArrayList<>();
@@ -188,12 +259,26 @@ ProcessResult processFile(AbstractFile f) {
      * Checks if should try to attempt to extract exif. Currently checks if JPEG
      * image (by signature)
      *
-     * @param f file to be checked
+     * @param fileContent content of the file to be checked
      *
      * @return true if to be processed
      */
-    private boolean parsableFormat(AbstractFile f) {
-        return ImageUtils.isJpegFileHeader(f);
+    private boolean parsableFormat(CachedFileContent fileContent) {
+        // Same check as ImageUtils.isJpegFileHeader(), but reading the header
+        // through the content shared with the other modules in the pipeline.
+        if (fileContent.getSize() < 100) {
+            return false;
+        }
+        byte[] fileHeaderBuffer = new byte[2];
+        try {
+            if (fileContent.read(fileHeaderBuffer, 0, 2) != 2) {
+                return false;
+            }
+        } catch (TskCoreException ex) {
+            //ignore if can't read the first few bytes, not a JPEG
+            return false;
+        }
+        return (((fileHeaderBuffer[0] & 0xff) == 0xff) && ((fileHeaderBuffer[1] & 0xff) == 0xd8));
     }
 
     @Override
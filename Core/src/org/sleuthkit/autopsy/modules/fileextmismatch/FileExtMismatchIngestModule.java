@@ -50,6 +50,7 @@ public class FileExtMismatchIngestModule implements FileIngestModule {
     private final FileExtMismatchDetectorModuleSettings settings;
     private HashMap<String, String[]> SigTypeToExtMap = new HashMap<>();
     private long jobId;
+    private IngestJobContext context;
     private static final HashMap<Long, IngestJobTotals> totalsForIngestJobs = new HashMap<>();    
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
 
@@ -81,6 +82,7 @@ private static synchronized void addToTotals(long ingestJobId, long processTimeI
 
     @Override
     public void startUp(IngestJobContext context) throws IngestModuleException {
+        this.context = context;
         jobId = context.getJobId();
         refCounter.incrementAndGet(jobId);
 
@@ -138,10 +140,22 @@ private boolean compareSigTypeToExt(AbstractFile abstractFile) {
             }
 
             // find file_sig value.
-            // check the blackboard for a file type attribute
-            ArrayList<BlackboardAttribute> attributes = abstractFile.getGenInfoAttributes(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_FILE_TYPE_SIG);
-            for (BlackboardAttribute attribute : attributes) {
-                String currActualSigType = attribute.getValueString();
+            // use the type published by the file type id module earlier in 
+            // the pipeline, if any, otherwise check the blackboard for a file
+            // type attribute
+            List<String> sigTypes = new ArrayList<>();
+            String mimeType = context.getFileIngestContext(abstractFile).getMimeType();
+            if (mimeType != null) {
+                if (!mimeType.isEmpty()) {
+                    sigTypes.add(mimeType);
+                }
+            } else {
+                ArrayList<BlackboardAttribute> attributes = abstractFile.getGenInfoAttributes(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_FILE_TYPE_SIG);
+                for (BlackboardAttribute attribute : attributes) {
+                    sigTypes.add(attribute.getValueString());
+                }
+            }
+            for (String currActualSigType : sigTypes) {
                 if (settings.skipFilesWithTextPlainMimeType()) {
                     if (!currActualExt.isEmpty() && currActualSigType.equals("text/plain")) { //NON-NLS
                         return false;
@@ -18,7 +18,7 @@
  */
 package org.sleuthkit.autopsy.modules.filetypeid;
 
-import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.autopsy.ingest.CachedFileContent;
 
 /*
  * This will allow us to swap and or compare alternative libraries 
@@ -38,7 +38,7 @@ public class FileIdInfo {
         public String extension;
     }
 
-    FileIdInfo attemptMatch(AbstractFile abstractFile);
+    FileIdInfo attemptMatch(CachedFileContent content);
 
     boolean isMimeTypeDetectable(String mimeType);
 }
@@ -22,6 +22,7 @@
 import java.util.logging.Level;
 import org.openide.util.NbBundle;
 import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.FileIngestContext;
 import org.sleuthkit.autopsy.ingest.FileIngestModule;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
@@ -31,7 +32,6 @@
 import org.sleuthkit.datamodel.BlackboardAttribute;
 import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
 import org.sleuthkit.datamodel.TskData;
-import org.sleuthkit.datamodel.TskData.FileKnown;
 import org.sleuthkit.datamodel.TskException;
 import org.sleuthkit.autopsy.ingest.IngestModule.ProcessResult;
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
@@ -46,6 +46,7 @@ public class FileTypeIdIngestModule implements FileIngestModule {
     private static final long MIN_FILE_SIZE = 512;
     private final FileTypeIdModuleSettings settings;
     private long jobId;  
+    private IngestJobContext context;
 
     private static final HashMap<Long, IngestJobTotals> totalsForIngestJobs = new HashMap<>();
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
@@ -83,6 +84,7 @@ private static synchronized void addToTotals(long ingestJobId, long matchTimeInc
 
     @Override
     public void startUp(IngestJobContext context) throws IngestModuleException {
+        this.context = context;
         jobId = context.getJobId();
         refCounter.incrementAndGet(jobId);
     }    
@@ -96,7 +98,7 @@ public ProcessResult process(AbstractFile abstractFile) {
             return ProcessResult.OK;
         }
 
-        if (settings.skipKnownFiles() && (abstractFile.getKnown() == FileKnown.KNOWN)) {
+        if (settings.skipKnownFiles() && context.getFileIngestContext(abstractFile).isKnown()) {
             return ProcessResult.OK;
         }
 
@@ -106,9 +108,13 @@ public ProcessResult process(AbstractFile abstractFile) {
 
         try {
             long startTime = System.currentTimeMillis();
-            FileTypeDetectionInterface.FileIdInfo fileId = detector.attemptMatch(abstractFile);
+            FileTypeDetectionInterface.FileIdInfo fileId = detector.attemptMatch(context.getFileContent(abstractFile));
             addToTotals(jobId, (System.currentTimeMillis() - startTime)); //add match time
 
+            // let the modules later in the pipeline have the type without a
+            // blackboard query, an empty type means no match
+            context.getFileIngestContext(abstractFile).put(FileIngestContext.MIME_TYPE, fileId.type);
+
             if (!fileId.type.isEmpty()) {
                 // add artifact
                 BlackboardArtifact bart = abstractFile.getGenInfoArtifact();
@@ -23,19 +23,19 @@
 import org.apache.tika.mime.MediaType;
 import org.apache.tika.mime.MimeTypes;
 
-import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.autopsy.ingest.CachedFileContent;
 
 class TikaFileTypeDetector implements FileTypeDetectionInterface {
 
     private static Tika tikaInst = new Tika(); //calling detect() with this should be thread-safe
 
     @Override
-    public FileTypeDetectionInterface.FileIdInfo attemptMatch(AbstractFile abstractFile) {
+    public FileTypeDetectionInterface.FileIdInfo attemptMatch(CachedFileContent content) {
         try {
             FileTypeDetectionInterface.FileIdInfo ret = new FileTypeDetectionInterface.FileIdInfo();
             final int maxBytesInitial = 100; //how many bytes to read on first pass
             byte buffer[] = new byte[maxBytesInitial];
-            int len = abstractFile.read(buffer, 0, maxBytesInitial);
+            int len = content.read(buffer, 0, maxBytesInitial);
             
             boolean found = false;
             try {
@@ -43,6 +43,7 @@
 import net.sf.sevenzipjbinding.simple.ISimpleInArchiveItem;
 import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.api.progress.ProgressHandleFactory;
+import org.sleuthkit.autopsy.casemodule.services.DuplicateContentManager;
 import org.sleuthkit.autopsy.casemodule.services.FileManager;
 import org.sleuthkit.autopsy.ingest.FileIngestModule;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
@@ -51,6 +52,7 @@
 import org.sleuthkit.datamodel.BlackboardArtifact;
 import org.sleuthkit.datamodel.BlackboardAttribute;
 import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
+import org.sleuthkit.datamodel.Content;
 import org.sleuthkit.datamodel.DerivedFile;
 import org.sleuthkit.datamodel.ReadContentInputStream;
 import org.sleuthkit.datamodel.TskCoreException;
@@ -73,6 +75,7 @@ public final class SevenZipIngestModule implements FileIngestModule {
     private String unpackDir; //relative to the case, to store in db
     private String unpackDirPath; //absolute, to extract to
     private FileManager fileManager;
+    private DuplicateContentManager duplicateContentManager;
     //encryption type strings
     private static final String ENCRYPTION_FILE_LEVEL = NbBundle.getMessage(SevenZipIngestModule.class,
             "SevenZipIngestModule.encryptionFileLevel");
@@ -107,6 +110,7 @@ public void startUp(IngestJobContext context) throws IngestModuleException {
         unpackDirPath = currentCase.getModulesOutputDirAbsPath() + File.separator + ArchiveFileExtractorModuleFactory.getModuleName();
 
         fileManager = currentCase.getServices().getFileManager();
+        duplicateContentManager = currentCase.getServices().getDuplicateContentManager();
 
         File unpackDirPathFile = new File(unpackDirPath);
         if (!unpackDirPathFile.exists()) {
@@ -149,7 +153,7 @@ public ProcessResult process(AbstractFile abstractFile) {
             return ProcessResult.OK;
         }
 
-        if (abstractFile.getKnown().equals(TskData.FileKnown.KNOWN)) {
+        if (context.getFileIngestContext(abstractFile).isKnown()) {
             return ProcessResult.OK;
         }
 
@@ -290,6 +294,15 @@ private List<AbstractFile> unpack(AbstractFile archiveFile) {
             return unpackedFiles;
         }
 
+        // Reuse the files extracted from an earlier archive with the same
+        // content rather than extracting them again.
+        final String md5Hash = context.getFileIngestContext(archiveFile).getMd5Hash();
+        List<AbstractFile> copiedFiles = copyUnpackedFiles(archiveFile, md5Hash, parentAr);
+        if (copiedFiles != null) {
+            duplicateContentManager.recordReuse(ArchiveFileExtractorModuleFactory.getModuleName(), archiveFile.getSize());
+            return copiedFiles;
+        }
+
         boolean hasEncrypted = false;
         boolean fullEncryption = true;
 
@@ -553,11 +566,79 @@ private List<AbstractFile> unpack(AbstractFile archiveFile) {
                     "SevenZipIngestModule.unpack.encrFileDetected.details",
                     archiveFile.getName(), ArchiveFileExtractorModuleFactory.getModuleName());
             services.postMessage(IngestMessage.createWarningMessage(ArchiveFileExtractorModuleFactory.getModuleName(), msg, details));
+        } else if (!unpackedFiles.isEmpty()) {
+            // Only fully extracted archives are reused.
+            duplicateContentManager.recordProcessedFile(ArchiveFileExtractorModuleFactory.getModuleName(), md5Hash, archiveFile.getId());
         }
 
         return unpackedFiles;
     }
 
+    /**
+     * Adds derived files for the contents of an archive that point to the
+     * local files already extracted from an earlier archive with the same
+     * content.
+     *
+     * @param archiveFile The archive.
+     * @param md5Hash The MD5 hash of the archive, may be null.
+     * @param parentAr The archive in the archive depth tracking tree.
+     * @return The derived files, or null if there is no earlier archive with
+     * the same content or its files could not be reused.
+     */
+    private List<AbstractFile> copyUnpackedFiles(AbstractFile archiveFile, String md5Hash, ArchiveDepthCountTree.Archive parentAr) {
+        Long unpackedArchiveId = duplicateContentManager.getProcessedFileId(ArchiveFileExtractorModuleFactory.getModuleName(), md5Hash);
+        if (unpackedArchiveId == null) {
+            return null;
+        }
+        List<AbstractFile> copiedFiles = new ArrayList<>();
+        try {
+            AbstractFile unpackedArchive = Case.getCurrentCase().getSleuthkitCase().getAbstractFileById(unpackedArchiveId);
+            if (unpackedArchive != null) {
+                copyDerivedFilesRec(unpackedArchive, archiveFile, copiedFiles);
+            }
+        } catch (TskCoreException ex) {
+            logger.log(Level.WARNING, "Error reusing files extracted from archive with id " + unpackedArchiveId + " for " + archiveFile.getName(), ex); //NON-NLS
+        }
+        if (copiedFiles.isEmpty()) {
+            return null;
+        }
+        // Once some files have been added, extracting the archive as well 
+        // would add them twice, so a partial copy is kept.
+        for (AbstractFile copiedFile : copiedFiles) {
+            if (isSupported(copiedFile)) {
+                archiveDepthCountTree.addArchive(parentAr, copiedFile.getId());
+            }
+        }
+        logger.log(Level.INFO, "Reused {0} files extracted from archive with id {1} for {2}", new Object[]{copiedFiles.size(), unpackedArchiveId, archiveFile.getName()}); //NON-NLS
+        return copiedFiles;
+    }
+
+    private void copyDerivedFilesRec(AbstractFile source, AbstractFile parent, List<AbstractFile> copiedFiles) throws TskCoreException {
+        for (Content child : source.getChildren()) {
+            if (!(child instanceof DerivedFile)) {
+                continue;
+            }
+            DerivedFile sourceFile = (DerivedFile) child;
+            String localAbsPath = sourceFile.getLocalAbsPath();
+            if (localAbsPath == null || !localAbsPath.startsWith(unpackDirPath)) {
+                // Not extracted by this module.
+                continue;
+            }
+            String localRelPath = unpackDir + localAbsPath.substring(unpackDirPath.length());
+            DerivedFile copiedFile = fileManager.addDerivedFile(sourceFile.getName(), localRelPath, sourceFile.getSize(),
+                    sourceFile.getCtime(), sourceFile.getCrtime(), sourceFile.getAtime(), sourceFile.getMtime(),
+                    sourceFile.isFile(), parent, "", ArchiveFileExtractorModuleFactory.getModuleName(), "", "");
+            copiedFiles.add(copiedFile);
+            // Only the directories of the archive are copied recursively. The
+            // children of a file are from a separate extraction of a nested
+            // archive, and the copy of the nested archive reuses them when it
+            // is ingested in turn.
+            if (!sourceFile.isFile()) {
+                copyDerivedFilesRec(sourceFile, copiedFile, copiedFiles);
+            }
+        }
+    }
+
     private boolean isSupported(AbstractFile file) {
         // see if it is on the list of extensions
         final String extension = file.getNameExtension();
@@ -567,7 +648,14 @@ private boolean isSupported(AbstractFile file) {
             }
         }
 
-        // if no extension match, check the blackboard for the file type
+        // if no extension match, use the file type published by the file type
+        // id module earlier in the pipeline
+        String mimeType = context.getFileIngestContext(file).getMimeType();
+        if (mimeType != null && !mimeType.isEmpty()) {
+            return mimeType.equals("application/zip"); //NON-NLS
+        }
+
+        // otherwise check the blackboard for the file type
         boolean attributeFound = false;
         try {
             ArrayList<BlackboardAttribute> attributes = file.getGenInfoAttributes(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_FILE_TYPE_SIG);
@@ -601,7 +689,7 @@ private boolean isZipFileHeader(AbstractFile file) {
         }
 
         try {
-            int bytesRead = file.read(fileHeaderBuffer, 0, readHeaderSize);
+            int bytesRead = context.getFileContent(file).read(fileHeaderBuffer, 0, readHeaderSize);
             if (bytesRead != readHeaderSize) {
                 return false;
             }
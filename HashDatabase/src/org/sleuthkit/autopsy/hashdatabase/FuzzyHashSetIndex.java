@@ -0,0 +1,268 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.hashdatabase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.FuzzyHash;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * An in-memory index of the fuzzy (ssdeep) hashes of a reference set, for
+ * finding the reference files similar to a file without comparing the file to
+ * every reference file.
+ *
+ * Two fuzzy hashes can only have a non-zero similarity score if they have
+ * signatures for the same block size that share a substring of
+ * FuzzyHash.ROLLING_WINDOW characters. The index maps each such substring of
+ * each signature, qualified by the block size of the signature, to the
+ * reference hashes that contain it. A lookup scores only the reference hashes
+ * that share at least one substring with the hash being looked up.
+ *
+ * The reference set is a file in the format written by ssdeep: an optional
+ * header line, then a line per file of the form HASH,"FILE NAME".
+ */
+final class FuzzyHashSetIndex {
+
+    private static final Logger logger = Logger.getLogger(FuzzyHashSetIndex.class.getName());
+    private static final String B64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"; //NON-NLS
+    private static final int BITS_PER_CHAR = 6;
+    private final List<FuzzyHash.Signature> signatures;
+    private final List<String> fileNames;
+    // Sorted substring keys, and the index of the reference hash for each.
+    private final long[] gramKeys;
+    private final int[] gramEntries;
+
+    /**
+     * A reference file similar to a file that was looked up.
+     */
+    static final class Match {
+
+        private final String fileName;
+        private final int score;
+
+        private Match(String fileName, int score) {
+            this.fileName = fileName;
+            this.score = score;
+        }
+
+        String getFileName() {
+            return fileName;
+        }
+
+        int getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * Reads a reference set and indexes it.
+     *
+     * @param path The path of the ssdeep file.
+     * @return The index, or null if the file does not exist or cannot be
+     * read.
+     */
+    static FuzzyHashSetIndex open(String path) {
+        File file = new File(path);
+        if (!file.exists()) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        List<FuzzyHash.Signature> signatures = new ArrayList<>();
+        List<String> fileNames = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("ssdeep,")) { //NON-NLS
+                    continue;
+                }
+                FuzzyHash.Signature signature = FuzzyHash.Signature.parse(line);
+                if (signature == null) {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                String fileName = (comma < 0) ? "" : line.substring(comma + 1).trim();
+                if (fileName.length() >= 2 && fileName.startsWith("\"") && fileName.endsWith("\"")) {
+                    fileName = fileName.substring(1, fileName.length() - 1);
+                }
+                signatures.add(signature);
+                fileNames.add(fileName);
+            }
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Could not read fuzzy hash set " + path, ex); //NON-NLS
+            return null;
+        }
+        FuzzyHashSetIndex index = new FuzzyHashSetIndex(signatures, fileNames);
+        logger.log(Level.INFO, "Indexed {0} fuzzy hashes with {1} substrings from {2} in {3} ms", new Object[]{signatures.size(), index.gramKeys.length, path, System.currentTimeMillis() - start}); //NON-NLS
+        return index;
+    }
+
+    private FuzzyHashSetIndex(List<FuzzyHash.Signature> signatures, List<String> fileNames) {
+        this.signatures = signatures;
+        this.fileNames = fileNames;
+        long[] keys = new long[signatures.size() * 16];
+        int[] entries = new int[keys.length];
+        int count = 0;
+        Set<Long> entryKeys = new HashSet<>();
+        for (int i = 0; i < signatures.size(); ++i) {
+            entryKeys.clear();
+            addGramKeys(signatures.get(i), entryKeys);
+            if (count + entryKeys.size() > keys.length) {
+                int capacity = Math.max(keys.length * 2, count + entryKeys.size());
+                keys = Arrays.copyOf(keys, capacity);
+                entries = Arrays.copyOf(entries, capacity);
+            }
+            for (Long key : entryKeys) {
+                keys[count] = key;
+                entries[count] = i;
+                ++count;
+            }
+        }
+        sort(keys, entries, 0, count - 1);
+        this.gramKeys = Arrays.copyOf(keys, count);
+        this.gramEntries = Arrays.copyOf(entries, count);
+    }
+
+    /**
+     * Gets the number of reference hashes in the index.
+     *
+     * @return The number of hashes.
+     */
+    int getCount() {
+        return signatures.size();
+    }
+
+    /**
+     * Finds the reference files similar to a file.
+     *
+     * @param fuzzyHash The fuzzy hash of the file.
+     * @param minimumScore The lowest similarity score to report.
+     * @return The matches, best first.
+     */
+    List<Match> findMatches(String fuzzyHash, int minimumScore) {
+        FuzzyHash.Signature query = FuzzyHash.Signature.parse(fuzzyHash);
+        if (query == null) {
+            return Collections.emptyList();
+        }
+        Set<Long> queryKeys = new HashSet<>();
+        addGramKeys(query, queryKeys);
+        Set<Integer> candidates = new HashSet<>();
+        for (Long key : queryKeys) {
+            int position = Arrays.binarySearch(gramKeys, key);
+            if (position < 0) {
+                continue;
+            }
+            while (position > 0 && gramKeys[position - 1] == key) {
+                --position;
+            }
+            for (; position < gramKeys.length && gramKeys[position] == key; ++position) {
+                candidates.add(gramEntries[position]);
+            }
+        }
+        List<Match> matches = new ArrayList<>();
+        for (Integer candidate : candidates) {
+            int score = FuzzyHash.compare(query, signatures.get(candidate));
+            if (score >= minimumScore && score > 0) {
+                matches.add(new Match(fileNames.get(candidate), score));
+            }
+        }
+        Collections.sort(matches, new Comparator<Match>() {
+            @Override
+            public int compare(Match a, Match b) {
+                return b.score - a.score;
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * Adds the keys of the substrings of the signatures of a fuzzy hash. A key
+     * is the base 2 logarithm of the block size over the minimum block size,
+     * followed by the six bit values of the characters of the substring.
+     */
+    private static void addGramKeys(FuzzyHash.Signature signature, Set<Long> keys) {
+        int level = Long.numberOfTrailingZeros(signature.getBlockSize() / FuzzyHash.MIN_BLOCK_SIZE);
+        addGramKeys(signature.getSignature1(), level, keys);
+        addGramKeys(signature.getSignature2(), level + 1, keys);
+    }
+
+    private static void addGramKeys(String signature, int level, Set<Long> keys) {
+        for (int start = 0; start + FuzzyHash.ROLLING_WINDOW <= signature.length(); ++start) {
+            long key = level;
+            boolean valid = true;
+            for (int i = start; i < start + FuzzyHash.ROLLING_WINDOW; ++i) {
+                int value = B64.indexOf(signature.charAt(i));
+                if (value < 0) {
+                    valid = false;
+                    break;
+                }
+                key = (key << BITS_PER_CHAR) | value;
+            }
+            if (valid) {
+                keys.add(key);
+            }
+        }
+    }
+
+    private static void sort(long[] keys, int[] entries, int first, int last) {
+        while (first < last) {
+            long pivot = keys[(first + last) >>> 1];
+            int i = first;
+            int j = last;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    ++i;
+                }
+                while (keys[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    long key = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = key;
+                    int entry = entries[i];
+                    entries[i] = entries[j];
+                    entries[j] = entry;
+                    ++i;
+                    --j;
+                }
+            }
+            // Recurse on the smaller part to bound the stack depth.
+            if (j - first < last - i) {
+                sort(keys, entries, first, j);
+                first = i;
+            } else {
+                sort(keys, entries, i, last);
+                last = j;
+            }
+        }
+    }
+}
@@ -20,43 +20,52 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import org.openide.util.NbBundle;
-import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.core.UserPreferences;
+import org.sleuthkit.autopsy.coreutils.ContentHasher;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestServices;
-import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
 import org.sleuthkit.datamodel.AbstractFile;
-import org.sleuthkit.datamodel.BlackboardArtifact;
-import org.sleuthkit.datamodel.BlackboardArtifact.ARTIFACT_TYPE;
 import org.sleuthkit.datamodel.BlackboardAttribute;
 import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
 import org.sleuthkit.datamodel.Hash;
-import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskData;
 import org.sleuthkit.datamodel.TskException;
 import org.sleuthkit.autopsy.hashdatabase.HashDbManager.HashDb;
+import org.sleuthkit.autopsy.ingest.CachedFileContent;
+import org.sleuthkit.autopsy.ingest.FileIngestContext;
 import org.sleuthkit.autopsy.ingest.FileIngestModule;
+import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
 import org.sleuthkit.datamodel.HashInfo;
 
 public class HashDbIngestModule implements FileIngestModule {
     private static final Logger logger = Logger.getLogger(HashDbIngestModule.class.getName());
     private static final int MAX_COMMENT_SIZE = 500;
+    // Fuzzy hashes of small files have too little content behind them to say
+    // much about similarity.
+    private static final long MIN_FUZZY_HASH_FILE_SIZE = 4096;
+    private static final int MIN_SIMILARITY_SCORE = 50;
     private final IngestServices services = IngestServices.getInstance();
     private final Hash hasher = new Hash();
-    private final SleuthkitCase skCase = Case.getCurrentCase().getSleuthkitCase();
+    private final HashLookupResultsWriter resultsWriter = HashLookupResultsWriter.getInstance();
     private final HashDbManager hashDbManager = HashDbManager.getInstance();
     private final HashLookupModuleSettings settings;
     private List<HashDb> knownBadHashSets = new ArrayList<>();
     private List<HashDb> knownHashSets = new ArrayList<>();
+    private List<HashDb> fuzzyHashSets = new ArrayList<>();
     private long jobId;
+    private IngestJobContext context;
+    private Set<ContentHasher.HashType> additionalHashTypes;
     private static final HashMap<Long, IngestJobTotals> totalsForIngestJobs = new HashMap<>();    
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
     
@@ -81,9 +90,30 @@ private static synchronized IngestJobTotals getTotalsForIngestJobs(long ingestJo
         
     @Override
     public void startUp(org.sleuthkit.autopsy.ingest.IngestJobContext context) throws IngestModuleException {
+        this.context = context;
         jobId = context.getJobId();  
+        // The results are written in batches, so they must be written before
+        // the files are recorded as completed in the job's checkpoints.
+        context.addDeferredResultsFlusher(resultsWriter.getCheckpointFlusher());
+        // The MD5 hash is always calculated, since it is used for the lookups
+        // and stored in the case database by the TSK hash calculation. That
+        // calculation reads the file itself, so any additional hashes take a
+        // second pass over the file, which is why they are off by default.
+        additionalHashTypes = ContentHasher.HashType.parse(UserPreferences.additionalFileHashTypes());
+        additionalHashTypes.remove(ContentHasher.HashType.MD5);
         getEnabledHashSets(hashDbManager.getKnownBadFileHashSets(), knownBadHashSets);
         getEnabledHashSets(hashDbManager.getKnownFileHashSets(), knownHashSets);        
+        // The fuzzy hash is only calculated if there is a known bad set of
+        // fuzzy hashes to compare it to.
+        fuzzyHashSets.clear();
+        for (HashDb db : knownBadHashSets) {
+            if (db.getFuzzyHashIndex() != null) {
+                fuzzyHashSets.add(db);
+            }
+        }
+        if (!fuzzyHashSets.isEmpty()) {
+            additionalHashTypes.add(ContentHasher.HashType.SSDEEP);
+        }
         
         if (refCounter.incrementAndGet(jobId) == 1) {                  
             // if first module for this job then post error msgs if needed
@@ -115,6 +145,9 @@ private void getEnabledHashSets(List<HashDb> hashSets, List<HashDb> enabledHashS
                 try {
                     if (db.hasIndex()) {
                         enabledHashSets.add(db);
+                        // Open, or build on first use, the binary index for 
+                        // the lookups now rather than for the first file.
+                        db.getLookupIndex();
                     }
                 }
                 catch (TskCoreException ex) {
@@ -172,6 +205,18 @@ public ProcessResult process(AbstractFile file) {
             }
         }
 
+        // let the modules later in the pipeline have the hash without a
+        // case database query
+        FileIngestContext fileContext = context.getFileIngestContext(file);
+        fileContext.put(FileIngestContext.MD5_HASH, md5Hash);
+
+        String fuzzyHash = null;
+        if (!additionalHashTypes.isEmpty()) {
+            long calcstart = System.currentTimeMillis();
+            fuzzyHash = calculateAdditionalHashes(file, fileContext);
+            totals.totalCalctime.addAndGet(System.currentTimeMillis() - calcstart);
+        }
+
         // look up in known bad first
         boolean foundBad = false;
         ProcessResult ret = ProcessResult.OK;
@@ -183,20 +228,8 @@ public ProcessResult process(AbstractFile file) {
                     foundBad = true;
                     totals.totalKnownBadCount.incrementAndGet();
                     
-                    try {
-                        skCase.setKnown(file, TskData.FileKnown.BAD);
-                    } catch (TskException ex) {
-                        logger.log(Level.WARNING, "Couldn't set known bad state for file " + name + " - see sleuthkit log for details", ex); //NON-NLS
-                        services.postMessage(IngestMessage.createErrorMessage(
-                                              HashLookupModuleFactory.getModuleName(),
-                                              NbBundle.getMessage(this.getClass(),
-                                                                  "HashDbIngestModule.hashLookupErrorMsg",
-                                                                  name),
-                                              NbBundle.getMessage(this.getClass(),
-                                                                  "HashDbIngestModule.settingKnownBadStateErr",
-                                                                  name)));
-                        ret = ProcessResult.ERROR;
-                    }                    
+                    resultsWriter.setKnownStatus(file, TskData.FileKnown.BAD);
+                    fileContext.put(FileIngestContext.KNOWN_STATUS, TskData.FileKnown.BAD);
                     String hashSetName = db.getHashSetName();
                     
                     String comment = "";                   
@@ -213,7 +246,7 @@ public ProcessResult process(AbstractFile file) {
                         }                        
                     }
 
-                    postHashSetHitToBlackboard(file, md5Hash, hashSetName, comment, db.getSendIngestMessages());
+                    resultsWriter.addHashSetHit(file, md5Hash, hashSetName, comment, db.getSendIngestMessages());
                 }
                 long delta = (System.currentTimeMillis() - lookupstart);
                 totals.totalLookuptime.addAndGet(delta);
@@ -232,6 +265,26 @@ public ProcessResult process(AbstractFile file) {
             }
         }
 
+        // If the file is not in the known bad sets, look for known bad files
+        // that it is similar to. A similar file is reported as a hit, but 
+        // does not make the file known bad.
+        if (!foundBad && fuzzyHash != null) {
+            long lookupstart = System.currentTimeMillis();
+            for (HashDb db : fuzzyHashSets) {
+                List<FuzzyHashSetIndex.Match> matches = db.getFuzzyHashIndex().findMatches(fuzzyHash, MIN_SIMILARITY_SCORE);
+                if (!matches.isEmpty()) {
+                    FuzzyHashSetIndex.Match bestMatch = matches.get(0);
+                    String comment = NbBundle.getMessage(this.getClass(), "HashDbIngestModule.similarFileComment",
+                            bestMatch.getScore(), bestMatch.getFileName(), fuzzyHash);
+                    if (comment.length() > MAX_COMMENT_SIZE) {
+                        comment = comment.substring(0, MAX_COMMENT_SIZE) + "...";
+                    }
+                    resultsWriter.addHashSetHit(file, md5Hash, db.getHashSetName(), comment, db.getSendIngestMessages());
+                }
+            }
+            totals.totalLookuptime.addAndGet(System.currentTimeMillis() - lookupstart);
+        }
+
         // If the file is not in the known bad sets, search for it in the known sets. 
         // Any hit is sufficient to classify it as known, and there is no need to create 
         // a hit artifact or send a message to the application inbox.
@@ -240,13 +293,9 @@ public ProcessResult process(AbstractFile file) {
                 try {
                     long lookupstart = System.currentTimeMillis();
                     if (db.hasMd5HashOf(file)) {
-                        try {
-                            skCase.setKnown(file, TskData.FileKnown.KNOWN);
-                            break;
-                        } catch (TskException ex) {
-                            logger.log(Level.WARNING, "Couldn't set known state for file " + name + " - see sleuthkit log for details", ex); //NON-NLS
-                            ret = ProcessResult.ERROR;
-                        }
+                        resultsWriter.setKnownStatus(file, TskData.FileKnown.KNOWN);
+                        fileContext.put(FileIngestContext.KNOWN_STATUS, TskData.FileKnown.KNOWN);
+                        break;
                     }
                     long delta = (System.currentTimeMillis() - lookupstart);
                     totals.totalLookuptime.addAndGet(delta);
@@ -269,61 +318,58 @@ public ProcessResult process(AbstractFile file) {
         return ret;
     }
         
-    private void postHashSetHitToBlackboard(AbstractFile abstractFile, String md5Hash, String hashSetName, String comment, boolean showInboxMessage) {
+    /**
+     * Calculates the configured hashes other than MD5, and the fuzzy hash if
+     * there are fuzzy hash sets to compare it to, in a single pass over the
+     * file content. Queues the hashes other than the fuzzy hash with the
+     * results writer, to be added as attributes of the general info artifact
+     * of the file, and publishes them all for the modules later in the
+     * pipeline.
+     *
+     * @param file The file.
+     * @param fileContext The facts published about the file.
+     * @return The fuzzy hash, or null if it was not calculated.
+     */
+    private String calculateAdditionalHashes(AbstractFile file, FileIngestContext fileContext) {
+        Set<ContentHasher.HashType> hashTypes = additionalHashTypes;
+        if (file.getSize() < MIN_FUZZY_HASH_FILE_SIZE && hashTypes.contains(ContentHasher.HashType.SSDEEP)) {
+            hashTypes = EnumSet.copyOf(hashTypes);
+            hashTypes.remove(ContentHasher.HashType.SSDEEP);
+            if (hashTypes.isEmpty()) {
+                return null;
+            }
+        }
+        final CachedFileContent content = context.getFileContent(file);
         try {
-            String MODULE_NAME = NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.moduleName");
-            
-            BlackboardArtifact badFile = abstractFile.newArtifact(ARTIFACT_TYPE.TSK_HASHSET_HIT);
-            //TODO Revisit usage of deprecated constructor as per TSK-583
-            //BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), MODULE_NAME, "Known Bad", hashSetName);
-            BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), MODULE_NAME, hashSetName);
-            badFile.addAttribute(att2);
-            BlackboardAttribute att3 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_HASH_MD5.getTypeID(), MODULE_NAME, md5Hash);
-            badFile.addAttribute(att3);
-            BlackboardAttribute att4 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_COMMENT.getTypeID(), MODULE_NAME, comment);
-            badFile.addAttribute(att4);
-            
-            if (showInboxMessage) {
-                StringBuilder detailsSb = new StringBuilder();
-                //details
-                detailsSb.append("<table border='0' cellpadding='4' width='280'>"); //NON-NLS
-                //hit
-                detailsSb.append("<tr>"); //NON-NLS
-                detailsSb.append("<th>") //NON-NLS
-                         .append(NbBundle.getMessage(this.getClass(), "HashDbIngestModule.postToBB.fileName"))
-                         .append("</th>"); //NON-NLS
-                detailsSb.append("<td>") //NON-NLS
-                         .append(abstractFile.getName())
-                         .append("</td>"); //NON-NLS
-                detailsSb.append("</tr>"); //NON-NLS
-
-                detailsSb.append("<tr>"); //NON-NLS
-                detailsSb.append("<th>") //NON-NLS
-                         .append(NbBundle.getMessage(this.getClass(), "HashDbIngestModule.postToBB.md5Hash"))
-                         .append("</th>"); //NON-NLS
-                detailsSb.append("<td>").append(md5Hash).append("</td>"); //NON-NLS
-                detailsSb.append("</tr>"); //NON-NLS
-
-                detailsSb.append("<tr>"); //NON-NLS
-                detailsSb.append("<th>") //NON-NLS
-                         .append(NbBundle.getMessage(this.getClass(), "HashDbIngestModule.postToBB.hashsetName"))
-                         .append("</th>"); //NON-NLS
-                detailsSb.append("<td>").append(hashSetName).append("</td>"); //NON-NLS
-                detailsSb.append("</tr>"); //NON-NLS
-
-                detailsSb.append("</table>"); //NON-NLS
-
-                services.postMessage(IngestMessage.createDataMessage( HashLookupModuleFactory.getModuleName(),
-                         NbBundle.getMessage(this.getClass(),
-                                             "HashDbIngestModule.postToBB.knownBadMsg",
-                                             abstractFile.getName()),
-                         detailsSb.toString(),
-                         abstractFile.getName() + md5Hash,
-                         badFile));
+            Map<ContentHasher.HashType, String> hashes = ContentHasher.calculateHashes(new ContentHasher.ContentReader() {
+                @Override
+                public int read(byte[] buf, long offset, int len) throws TskCoreException {
+                    return content.read(buf, offset, len);
+                }
+            }, content.getSize(), hashTypes, null);
+            String moduleName = HashLookupModuleFactory.getModuleName();
+            List<BlackboardAttribute> hashAttributes = new ArrayList<>();
+            String sha1Hash = hashes.get(ContentHasher.HashType.SHA1);
+            if (sha1Hash != null) {
+                hashAttributes.add(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_HASH_SHA1.getTypeID(), moduleName, sha1Hash));
+                fileContext.put(FileIngestContext.SHA1_HASH, sha1Hash);
+            }
+            String sha256Hash = hashes.get(ContentHasher.HashType.SHA256);
+            if (sha256Hash != null) {
+                hashAttributes.add(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_HASH_SHA2_256.getTypeID(), moduleName, sha256Hash));
+                fileContext.put(FileIngestContext.SHA256_HASH, sha256Hash);
+            }
+            if (!hashAttributes.isEmpty()) {
+                resultsWriter.addHashAttributes(file, hashAttributes);
+            }
+            String fuzzyHash = hashes.get(ContentHasher.HashType.SSDEEP);
+            if (fuzzyHash != null) {
+                fileContext.put(FileIngestContext.FUZZY_HASH, fuzzyHash);
             }
-            services.fireModuleDataEvent(new ModuleDataEvent(MODULE_NAME, ARTIFACT_TYPE.TSK_HASHSET_HIT, Collections.singletonList(badFile)));
-        } catch (TskException ex) {
-            logger.log(Level.WARNING, "Error creating blackboard artifact", ex); //NON-NLS
+            return fuzzyHash;
+        } catch (TskCoreException ex) {
+            logger.log(Level.WARNING, "Error calculating additional hashes of file " + file.getName(), ex); //NON-NLS
+            return null;
         }
     }
 
@@ -357,6 +403,16 @@ private synchronized void postSummary() {
 
             detailsSb.append("</ul>"); //NON-NLS
 
+            // Log how the Bloom filters did, for sizing them.
+            List<HashDb> hashSets = new ArrayList<>(knownBadHashSets);
+            hashSets.addAll(knownHashSets);
+            for (HashDb db : hashSets) {
+                String bloomFilterSummary = db.getBloomFilterSummary();
+                if (bloomFilterSummary != null) {
+                    logger.log(Level.INFO, "Bloom filter for {0} hash set: {1}", new Object[]{db.getHashSetName(), bloomFilterSummary}); //NON-NLS
+                }
+            }
+
             services.postMessage(IngestMessage.createMessage(
                 IngestMessage.MessageType.INFO,
                 HashLookupModuleFactory.getModuleName(),
@@ -369,6 +425,9 @@ private synchronized void postSummary() {
     @Override
     public void shutDown() {
         if (refCounter.decrementAndGet(jobId) == 0) {
+            // make sure the results of the job are in the case database
+            // before the job is reported as complete
+            resultsWriter.flush();
             postSummary();
         }
     }
@@ -69,6 +69,7 @@ public class HashDbManager implements PropertyChangeListener {
     private static final String SET_TYPE_ATTRIBUTE = "type"; //NON-NLS
     private static final String SEARCH_DURING_INGEST_ATTRIBUTE = "use_for_ingest"; //NON-NLS
     private static final String SEND_INGEST_MESSAGES_ATTRIBUTE = "show_inbox_messages"; //NON-NLS
+    private static final String USE_BLOOM_FILTER_ATTRIBUTE = "use_bloom_filter"; //NON-NLS
     private static final String PATH_ELEMENT = "hash_set_path"; //NON-NLS
     private static final String LEGACY_PATH_NUMBER_ATTRIBUTE = "number"; //NON-NLS
     private static final String CONFIG_FILE_NAME = "hashsets.xml"; //NON-NLS
@@ -538,6 +539,7 @@ private static void writeHashDbsToDisk(Document doc, Element rootEl, List<HashDb
             setElement.setAttribute(SET_TYPE_ATTRIBUTE, db.getKnownFilesType().toString());
             setElement.setAttribute(SEARCH_DURING_INGEST_ATTRIBUTE, Boolean.toString(db.getSearchDuringIngest()));
             setElement.setAttribute(SEND_INGEST_MESSAGES_ATTRIBUTE, Boolean.toString(db.getSendIngestMessages()));
+            setElement.setAttribute(USE_BLOOM_FILTER_ATTRIBUTE, Boolean.toString(db.getUseBloomFilter()));
             Element pathElement = doc.createElement(PATH_ELEMENT);
             pathElement.setTextContent(path);
             setElement.appendChild(pathElement);
@@ -629,6 +631,11 @@ private boolean readHashSetsConfigurationFromDisk() {
             }
             Boolean sendIngestMessagesFlag = Boolean.parseBoolean(sendIngestMessages);
 
+            // The Bloom filter attribute is optional, filters are used unless 
+            // turned off.
+            final String useBloomFilter = setEl.getAttribute(USE_BLOOM_FILTER_ATTRIBUTE);
+            boolean useBloomFilterFlag = useBloomFilter.isEmpty() || Boolean.parseBoolean(useBloomFilter);
+
             String dbPath;
             NodeList pathsNList = setEl.getElementsByTagName(PATH_ELEMENT);
             if (pathsNList.getLength() > 0) {
@@ -653,7 +660,8 @@ private boolean readHashSetsConfigurationFromDisk() {
 
             if (null != dbPath) {
                 try {
-                    addExistingHashDatabaseInternal(hashSetName, dbPath, seearchDuringIngestFlag, sendIngestMessagesFlag, HashDb.KnownFilesType.valueOf(knownFilesType));
+                    HashDb db = addExistingHashDatabaseInternal(hashSetName, dbPath, seearchDuringIngestFlag, sendIngestMessagesFlag, HashDb.KnownFilesType.valueOf(knownFilesType));
+                    db.setUseBloomFilter(useBloomFilterFlag);
                 } catch (HashDbManagerException | TskCoreException ex) {
                     Logger.getLogger(HashDbManager.class.getName()).log(Level.SEVERE, "Error opening hash database", ex); //NON-NLS
                     JOptionPane.showMessageDialog(null,
@@ -776,6 +784,11 @@ public enum Event {
         private boolean sendIngestMessages;
         private KnownFilesType knownFilesType;
         private boolean indexing;
+        private volatile HashSetIndex lookupIndex; // Written with this held
+        private volatile boolean lookupIndexOpened; // Written with this held
+        private boolean useBloomFilter = true; // Guarded by this
+        private FuzzyHashSetIndex fuzzyHashIndex; // Guarded by this
+        private boolean fuzzyHashIndexOpened; // Guarded by this
         private final PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
 
         private HashDb(int handle, String hashSetName, boolean useForIngest, boolean sendHitMessages, KnownFilesType knownFilesType) {
@@ -833,6 +846,34 @@ void setSendIngestMessages(boolean showInboxMessages) {
             this.sendIngestMessages = showInboxMessages;
         }
 
+        /**
+         * Indicates whether a Bloom filter is put in front of the lookups in
+         * the database, so that most lookups of hashes that are not in the 
+         * database are answered from memory. A filter takes about 10 bits per
+         * hash in the database.
+         *
+         * @return True or false.
+         */
+        public synchronized boolean getUseBloomFilter() {
+            return useBloomFilter;
+        }
+
+        synchronized void setUseBloomFilter(boolean useBloomFilter) {
+            this.useBloomFilter = useBloomFilter;
+            resetLookupIndex();
+        }
+
+        /**
+         * Gets a summary of how the Bloom filter in front of the lookups in 
+         * the database has done, for sizing filters.
+         *
+         * @return The summary, or null if no filter is in use.
+         */
+        public synchronized String getBloomFilterSummary() {
+            HashSetIndex index = lookupIndex;
+            return (index != null) ? index.getBloomFilterSummary() : null;
+        }
+
         /**
          * Indicates whether the hash database accepts updates.
          *
@@ -889,6 +930,15 @@ public boolean hasMd5HashOf(Content content) throws TskCoreException {
             if (content instanceof AbstractFile) {
                 AbstractFile file = (AbstractFile) content;
                 if (null != file.getMd5Hash()) {
+                    HashSetIndex index = getLookupIndex();
+                    if (index != null) {
+                        try {
+                            return index.contains(file.getMd5Hash());
+                        } catch (IllegalStateException ex) {
+                            // The index was closed for a rebuild, use the
+                            // database instead.
+                        }
+                    }
                     result = SleuthkitJNI.lookupInHashDatabase(file.getMd5Hash(), handle);
                 }
             }
@@ -902,12 +952,101 @@ public HashInfo lookUp(Content content) throws TskCoreException {
             if (content instanceof AbstractFile) {
                 AbstractFile file = (AbstractFile) content;
                 if (null != file.getMd5Hash()) {
+                    // Most files are not in any given hash set, so only go 
+                    // to the database for the details of a hit.
+                    HashSetIndex index = getLookupIndex();
+                    try {
+                        if (index != null && !index.contains(file.getMd5Hash())) {
+                            return null;
+                        }
+                    } catch (IllegalStateException ex) {
+                        // The index was closed for a rebuild, use the 
+                        // database instead.
+                    }
                     result = SleuthkitJNI.lookupInHashDatabaseVerbose(file.getMd5Hash(), handle);
                 }
             }
             return result;
         }
 
+        /**
+         * Gets the memory-mapped binary index of the hashes in the database,
+         * building it from the lookup index of the database if need be. There
+         * is no binary index for updateable databases, since their contents 
+         * change during ingest, or for databases without a lookup index.
+         *
+         * This is called for every lookup, so the lock is only taken to open
+         * the index.
+         *
+         * @return The binary index, or null if there is none.
+         */
+        HashSetIndex getLookupIndex() {
+            if (lookupIndexOpened) {
+                return lookupIndex;
+            }
+            synchronized (this) {
+                if (!lookupIndexOpened) {
+                    try {
+                        if (!indexing && hasIndex() && !isUpdateable()) {
+                            HashSetIndex index = HashSetIndex.open(getIndexPath());
+                            if (index != null && useBloomFilter) {
+                                index.useBloomFilter();
+                            }
+                            lookupIndex = index;
+                        }
+                    } catch (TskCoreException ex) {
+                        Logger.getLogger(HashDb.class.getName()).log(Level.WARNING, "Error opening binary index for " + hashSetName + " hash database", ex); //NON-NLS
+                    }
+                    lookupIndexOpened = true;
+                }
+                return lookupIndex;
+            }
+        }
+
+        /**
+         * Closes the binary index, so that it is rebuilt or reopened on next
+         * use, e.g., after the lookup index of the database is rebuilt.
+         * Lookups that still hold the closed index fall back to the database.
+         */
+        synchronized void resetLookupIndex() {
+            HashSetIndex index = lookupIndex;
+            lookupIndexOpened = false;
+            lookupIndex = null;
+            if (index != null) {
+                index.close();
+            }
+        }
+
+        /**
+         * Gets the path of the fuzzy hash reference set of the database, a
+         * file of ssdeep hashes beside the database (or its index, for 
+         * databases that are only an index) with an extra .ssdeep extension.
+         *
+         * @return The path.
+         * @throws TskCoreException
+         */
+        String getFuzzyHashSetPath() throws TskCoreException {
+            return (hasIndexOnly() ? getIndexPath() : getDatabasePath()) + ".ssdeep"; //NON-NLS
+        }
+
+        /**
+         * Gets the similarity index of the fuzzy hash reference set of the
+         * database, reading the set on first use.
+         *
+         * @return The index, or null if the database has no fuzzy hash set.
+         */
+        synchronized FuzzyHashSetIndex getFuzzyHashIndex() {
+            if (!fuzzyHashIndexOpened) {
+                fuzzyHashIndexOpened = true;
+                try {
+                    fuzzyHashIndex = FuzzyHashSetIndex.open(getFuzzyHashSetPath());
+                } catch (TskCoreException ex) {
+                    Logger.getLogger(HashDb.class.getName()).log(Level.WARNING, "Error opening fuzzy hash set for " + hashSetName + " hash database", ex); //NON-NLS
+                }
+            }
+            return fuzzyHashIndex;
+        }
+
         boolean hasIndex() throws TskCoreException {
             return SleuthkitJNI.hashDatabaseHasLookupIndex(handle);
         }
@@ -925,6 +1064,7 @@ boolean isIndexing() {
         }
 
         private void close() throws TskCoreException {
+            resetLookupIndex();
             SleuthkitJNI.closeHashDatabase(handle);
         }
     }
@@ -949,6 +1089,9 @@ protected Object doInBackground() {
             progress = ProgressHandleFactory.createHandle(
                     NbBundle.getMessage(this.getClass(), "HashDbManager.progress.indexingHashSet", hashDb.hashSetName));
             progress.start();
+            if (importHashSet()) {
+                return null;
+            }
             progress.switchToIndeterminate();
             try {
                 SleuthkitJNI.createLookupIndexForHashDatabase(hashDb.handle);
@@ -964,9 +1107,43 @@ protected Object doInBackground() {
             return null;
         }
 
+        /**
+         * Builds the index with the Java importer if the database is a text
+         * hash set that does not have an index yet. If the database already
+         * has an index, the native indexer rebuilds it, since the native
+         * library may hold the old index open.
+         *
+         * @return True if the importer built an index that the native library
+         * accepts.
+         */
+        private boolean importHashSet() {
+            File indexFile = null;
+            try {
+                if (hashDb.hasIndex() || hashDb.isUpdateable()) {
+                    return false;
+                }
+                HashSetImporter importer = HashSetImporter.create(hashDb.getDatabasePath(), progress);
+                if (importer == null) {
+                    return false;
+                }
+                indexFile = importer.importHashSet();
+                if (hashDb.hasIndex()) {
+                    return true;
+                }
+                logger.log(Level.WARNING, "Index of {0} hash database built by the importer was not accepted, using the native indexer", hashDb.getHashSetName()); //NON-NLS
+            } catch (IOException | TskCoreException ex) {
+                logger.log(Level.WARNING, "Error importing " + hashDb.getHashSetName() + " hash database, using the native indexer", ex); //NON-NLS
+            }
+            if (indexFile != null && indexFile.exists() && !indexFile.delete()) {
+                logger.log(Level.WARNING, "Could not delete index {0}", indexFile); //NON-NLS
+            }
+            return false;
+        }
+
         @Override
         protected void done() {
             hashDb.indexing = false;
+            hashDb.resetLookupIndex();
             progress.finish();
 
             // see if we got any errors
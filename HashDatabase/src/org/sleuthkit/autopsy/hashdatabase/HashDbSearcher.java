@@ -18,22 +18,35 @@
  */
 package org.sleuthkit.autopsy.hashdatabase;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
 import javax.swing.SwingWorker;
 import org.netbeans.api.progress.ProgressHandle;
 import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.FsContent;
 import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
 
 /**
  * Searches by MD5 hash to find all files with the same hash, and
  * subsequently the same content.
  */
  class HashDbSearcher {
+
+    private static final Logger logger = Logger.getLogger(HashDbSearcher.class.getName());
+    private static final int HASHES_PER_QUERY = 500;
+    private static final Pattern MD5_PATTERN = Pattern.compile("^[0-9a-f]{32}$"); //NON-NLS
     
     /**
      * Given a string hash value, find all files with that hash.
@@ -53,36 +66,93 @@ static List<AbstractFile> findFilesByMd5(String md5Hash) {
      * @return a Map of md5 hashes mapped to the list of files hit
      */
     static Map<String, List<AbstractFile>> findFilesBymd5(List<String> md5Hash) {
-        Map<String, List<AbstractFile>> map = new LinkedHashMap<String, List<AbstractFile>>();
-        for(String md5 : md5Hash) {
-            List<AbstractFile> files = findFilesByMd5(md5);
-            if(!files.isEmpty()) {
+        return findFilesBymd5(md5Hash, null, null);
+    }
+
+    /**
+     * Same as above, but with a given ProgressHandle to accumulate and
+     * SwingWorker to check if cancelled. The hashes are looked up in chunks,
+     * one query per chunk, rather than one query per hash.
+     * @param md5Hash   hash values to match files with
+     * @param progress  progress handle to update per chunk, may be null
+     * @param worker    worker to check for cancellation, may be null
+     * @return a Map of md5 hashes mapped to the list of files hit, in the
+     * order of the given hashes
+     */
+    static Map<String, List<AbstractFile>> findFilesBymd5(List<String> md5Hash, ProgressHandle progress, SwingWorker<Object,Void> worker) {
+        Map<String, List<AbstractFile>> map = new LinkedHashMap<>();
+        if (worker != null && worker.isCancelled()) {
+            return map;
+        }
+
+        // Only well formed hashes go into the queries; anything else cannot
+        // match a file anyway.
+        Set<String> hashes = new LinkedHashSet<>();
+        for (String md5 : md5Hash) {
+            String normalized = md5.trim().toLowerCase();
+            if (MD5_PATTERN.matcher(normalized).matches()) {
+                hashes.add(normalized);
+            } else {
+                logger.log(Level.WARNING, "Skipping malformed MD5 hash {0}", md5); //NON-NLS
+            }
+        }
+
+        final SleuthkitCase skCase = Case.getCurrentCase().getSleuthkitCase();
+        Map<String, List<AbstractFile>> filesByHash = new HashMap<>();
+        List<String> chunk = new ArrayList<>(HASHES_PER_QUERY);
+        int done = 0;
+        if (progress != null) {
+            progress.switchToDeterminate(hashes.size());
+        }
+        Iterator<String> iterator = hashes.iterator();
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() < HASHES_PER_QUERY && iterator.hasNext()) {
+                continue;
+            }
+            if (worker != null && worker.isCancelled()) {
+                break;
+            }
+            try {
+                for (AbstractFile file : skCase.findAllFilesWhere(createMd5InClause(chunk))) {
+                    String md5 = file.getMd5Hash().toLowerCase();
+                    List<AbstractFile> files = filesByHash.get(md5);
+                    if (files == null) {
+                        files = new ArrayList<>();
+                        filesByHash.put(md5, files);
+                    }
+                    files.add(file);
+                }
+            } catch (TskCoreException ex) {
+                logger.log(Level.WARNING, "Error finding files by MD5 hash", ex); //NON-NLS
+            }
+            done += chunk.size();
+            chunk.clear();
+            if (progress != null && (worker == null || !worker.isCancelled())) {
+                progress.progress(done);
+            }
+        }
+
+        for (String md5 : hashes) {
+            List<AbstractFile> files = filesByHash.get(md5);
+            if (files != null) {
                 map.put(md5, files);
             }
         }
         return map;
     }
-    // Same as above, but with a given ProgressHandle to accumulate and StringWorker to check if cancelled
-    static Map<String, List<AbstractFile>> findFilesBymd5(List<String> md5Hash, ProgressHandle progress, SwingWorker<Object,Void> worker) {
-        Map<String, List<AbstractFile>> map = new LinkedHashMap<String, List<AbstractFile>>();
-        if(!worker.isCancelled()) {
-            progress.switchToDeterminate(md5Hash.size());
-            int size = 0;
-            for(String md5 : md5Hash) {
-                if(worker.isCancelled()) {
-                    break;
-                }
-                List<AbstractFile> files = findFilesByMd5(md5);
-                if(!files.isEmpty()) {
-                    map.put(md5, files);
-                }
-                size++;
-                if(!worker.isCancelled()) {
-                    progress.progress(size);
-                }
+
+    private static String createMd5InClause(List<String> md5Hashes) {
+        StringBuilder clause = new StringBuilder(md5Hashes.size() * 35 + 10);
+        clause.append("md5 IN ("); //NON-NLS
+        for (int i = 0; i < md5Hashes.size(); ++i) {
+            if (i > 0) {
+                clause.append(',');
             }
+            clause.append('\'').append(md5Hashes.get(i)).append('\'');
         }
-        return map;
+        clause.append(')');
+        return clause.toString();
     }
     
     /**
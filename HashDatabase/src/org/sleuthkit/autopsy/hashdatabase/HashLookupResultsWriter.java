@@ -0,0 +1,375 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.hashdatabase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.openide.util.NbBundle;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestMessage;
+import org.sleuthkit.autopsy.ingest.IngestServices;
+import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.BlackboardArtifact.ARTIFACT_TYPE;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+import org.sleuthkit.datamodel.TskData;
+import org.sleuthkit.datamodel.Transaction;
+
+/**
+ * Writes the results of the hash lookup ingest module to the case database
+ * behind the module. The known status changes, hash set hits and additional
+ * hash attributes of many files
+ * are accumulated and written in a single transaction when enough files have
+ * accumulated or when the results have waited long enough, and one data event
+ * is fired for all of the hash set hits written. The modules of an ingest job
+ * flush the writer when the job ends, so that the results of the job are in
+ * the case database by the time the job is reported as complete, and register
+ * the writer's checkpoint flusher, so that the results of the files an ingest
+ * job records as completed for resuming the job are written first.
+ *
+ * Modules later in the file ingest pipeline learn the known status of a file
+ * from the file ingest context rather than from the case database.
+ */
+final class HashLookupResultsWriter {
+
+    private static final Logger logger = Logger.getLogger(HashLookupResultsWriter.class.getName());
+    private static final int MAX_PENDING_FILES = 500;
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static HashLookupResultsWriter instance;
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flushTimer;
+    private Map<Long, PendingResults> pendingResults = new LinkedHashMap<>(); // Guarded by this
+    private final Runnable checkpointFlusher = new Runnable() {
+        @Override
+        public void run() {
+            if (!flush()) {
+                throw new IllegalStateException("Some hash lookup results could not be written"); //NON-NLS
+            }
+        }
+    };
+
+    /**
+     * Gets the writer shared by the hash lookup ingest modules.
+     *
+     * @return The writer.
+     */
+    static synchronized HashLookupResultsWriter getInstance() {
+        if (instance == null) {
+            instance = new HashLookupResultsWriter();
+        }
+        return instance;
+    }
+
+    private HashLookupResultsWriter() {
+        flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Hash lookup results writer"); //NON-NLS
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flushTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, "Unexpected error writing hash lookup results", ex); //NON-NLS
+                }
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a known status change for a file.
+     *
+     * @param file The file.
+     * @param knownStatus The known status.
+     */
+    void setKnownStatus(AbstractFile file, TskData.FileKnown knownStatus) {
+        boolean flushNow;
+        synchronized (this) {
+            getPendingResults(file).knownStatus = knownStatus;
+            flushNow = pendingResults.size() >= MAX_PENDING_FILES;
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues a hash set hit artifact for a file.
+     *
+     * @param file The file.
+     * @param md5Hash The MD5 hash of the file.
+     * @param hashSetName The name of the hash set.
+     * @param comment The comment for the hit.
+     * @param showInboxMessage Whether to post an inbox message for the hit.
+     */
+    void addHashSetHit(AbstractFile file, String md5Hash, String hashSetName, String comment, boolean showInboxMessage) {
+        boolean flushNow;
+        synchronized (this) {
+            getPendingResults(file).hits.add(new HashSetHit(md5Hash, hashSetName, comment, showInboxMessage));
+            flushNow = pendingResults.size() >= MAX_PENDING_FILES;
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues hash attributes, e.g., the SHA-1 hash, to be added to the general
+     * info artifact of a file.
+     *
+     * @param file The file.
+     * @param attributes The attributes.
+     */
+    void addHashAttributes(AbstractFile file, List<BlackboardAttribute> attributes) {
+        boolean flushNow;
+        synchronized (this) {
+            getPendingResults(file).hashAttributes.addAll(attributes);
+            flushNow = pendingResults.size() >= MAX_PENDING_FILES;
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    private PendingResults getPendingResults(AbstractFile file) {
+        PendingResults results = pendingResults.get(file.getId());
+        if (results == null) {
+            results = new PendingResults(file);
+            pendingResults.put(file.getId(), results);
+        }
+        return results;
+    }
+
+    /**
+     * Gets a flusher for the ingest job resume checkpoints, which writes the
+     * queued results and throws an IllegalStateException if any could not be
+     * written.
+     *
+     * @return The flusher.
+     */
+    Runnable getCheckpointFlusher() {
+        return checkpointFlusher;
+    }
+
+    /**
+     * Writes the queued results to the case database, returning when they
+     * have been written.
+     *
+     * @return True if all of the results were written, false otherwise.
+     */
+    boolean flush() {
+        synchronized (flushLock) {
+            Map<Long, PendingResults> results;
+            synchronized (this) {
+                if (pendingResults.isEmpty()) {
+                    return true;
+                }
+                results = pendingResults;
+                pendingResults = new LinkedHashMap<>();
+            }
+
+            List<WrittenHit> writtenHits;
+            boolean allWritten = true;
+            try {
+                writtenHits = writeInTransaction(results.values());
+            } catch (TskCoreException ex) {
+                logger.log(Level.WARNING, "Error writing " + results.size() + " hash lookup results in one transaction, writing them one at a time", ex); //NON-NLS
+                writtenHits = new ArrayList<>();
+                allWritten = writeIndividually(results.values(), writtenHits);
+            }
+            publish(writtenHits);
+            return allWritten;
+        }
+    }
+
+    private List<WrittenHit> writeInTransaction(Iterable<PendingResults> results) throws TskCoreException {
+        SleuthkitCase skCase = Case.getCurrentCase().getSleuthkitCase();
+        List<WrittenHit> writtenHits = new ArrayList<>();
+        Transaction trans = skCase.createTransaction();
+        try {
+            for (PendingResults fileResults : results) {
+                fileResults.write(skCase, writtenHits);
+            }
+            trans.commit();
+        } catch (TskCoreException ex) {
+            trans.rollback();
+            throw ex;
+        } finally {
+            trans.close();
+        }
+        return writtenHits;
+    }
+
+    private boolean writeIndividually(Iterable<PendingResults> results, List<WrittenHit> writtenHits) {
+        SleuthkitCase skCase = Case.getCurrentCase().getSleuthkitCase();
+        boolean allWritten = true;
+        for (PendingResults fileResults : results) {
+            try {
+                fileResults.write(skCase, writtenHits);
+            } catch (TskCoreException ex) {
+                allWritten = false;
+                String name = fileResults.file.getName();
+                logger.log(Level.WARNING, "Couldn't write hash lookup results for file " + name + " - see sleuthkit log for details", ex); //NON-NLS
+                IngestServices.getInstance().postMessage(IngestMessage.createErrorMessage(
+                        HashLookupModuleFactory.getModuleName(),
+                        NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.hashLookupErrorMsg", name),
+                        NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.settingKnownBadStateErr", name)));
+            }
+        }
+        return allWritten;
+    }
+
+    /**
+     * Posts the inbox messages for the hits written by a flush and fires one
+     * data event for all of them.
+     */
+    private void publish(List<WrittenHit> writtenHits) {
+        if (writtenHits.isEmpty()) {
+            return;
+        }
+        IngestServices services = IngestServices.getInstance();
+        List<BlackboardArtifact> artifacts = new ArrayList<>();
+        for (WrittenHit writtenHit : writtenHits) {
+            artifacts.add(writtenHit.artifact);
+            if (writtenHit.hit.showInboxMessage) {
+                postInboxMessage(services, writtenHit);
+            }
+        }
+        String moduleName = NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.moduleName");
+        services.fireModuleDataEvent(new ModuleDataEvent(moduleName, ARTIFACT_TYPE.TSK_HASHSET_HIT, artifacts));
+    }
+
+    private void postInboxMessage(IngestServices services, WrittenHit writtenHit) {
+        String fileName = writtenHit.file.getName();
+        String md5Hash = writtenHit.hit.md5Hash;
+        StringBuilder detailsSb = new StringBuilder();
+        //details
+        detailsSb.append("<table border='0' cellpadding='4' width='280'>"); //NON-NLS
+        //hit
+        detailsSb.append("<tr>"); //NON-NLS
+        detailsSb.append("<th>") //NON-NLS
+                .append(NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.postToBB.fileName"))
+                .append("</th>"); //NON-NLS
+        detailsSb.append("<td>") //NON-NLS
+                .append(fileName)
+                .append("</td>"); //NON-NLS
+        detailsSb.append("</tr>"); //NON-NLS
+
+        detailsSb.append("<tr>"); //NON-NLS
+        detailsSb.append("<th>") //NON-NLS
+                .append(NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.postToBB.md5Hash"))
+                .append("</th>"); //NON-NLS
+        detailsSb.append("<td>").append(md5Hash).append("</td>"); //NON-NLS
+        detailsSb.append("</tr>"); //NON-NLS
+
+        detailsSb.append("<tr>"); //NON-NLS
+        detailsSb.append("<th>") //NON-NLS
+                .append(NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.postToBB.hashsetName"))
+                .append("</th>"); //NON-NLS
+        detailsSb.append("<td>").append(writtenHit.hit.hashSetName).append("</td>"); //NON-NLS
+        detailsSb.append("</tr>"); //NON-NLS
+
+        detailsSb.append("</table>"); //NON-NLS
+
+        services.postMessage(IngestMessage.createDataMessage(HashLookupModuleFactory.getModuleName(),
+                NbBundle.getMessage(HashDbIngestModule.class,
+                        "HashDbIngestModule.postToBB.knownBadMsg",
+                        fileName),
+                detailsSb.toString(),
+                fileName + md5Hash,
+                writtenHit.artifact));
+    }
+
+    /**
+     * The results queued for one file.
+     */
+    private static final class PendingResults {
+
+        private final AbstractFile file;
+        private TskData.FileKnown knownStatus;
+        private final List<HashSetHit> hits = new ArrayList<>();
+        private final List<BlackboardAttribute> hashAttributes = new ArrayList<>();
+
+        PendingResults(AbstractFile file) {
+            this.file = file;
+        }
+
+        void write(SleuthkitCase skCase, List<WrittenHit> writtenHits) throws TskCoreException {
+            if (knownStatus != null) {
+                skCase.setKnown(file, knownStatus);
+            }
+            if (!hashAttributes.isEmpty()) {
+                file.getGenInfoArtifact().addAttributes(hashAttributes);
+            }
+            String moduleName = NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.moduleName");
+            for (HashSetHit hit : hits) {
+                BlackboardArtifact badFile = file.newArtifact(ARTIFACT_TYPE.TSK_HASHSET_HIT);
+                badFile.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), moduleName, hit.hashSetName));
+                badFile.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_HASH_MD5.getTypeID(), moduleName, hit.md5Hash));
+                badFile.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_COMMENT.getTypeID(), moduleName, hit.comment));
+                writtenHits.add(new WrittenHit(file, hit, badFile));
+            }
+        }
+    }
+
+    private static final class HashSetHit {
+
+        private final String md5Hash;
+        private final String hashSetName;
+        private final String comment;
+        private final boolean showInboxMessage;
+
+        HashSetHit(String md5Hash, String hashSetName, String comment, boolean showInboxMessage) {
+            this.md5Hash = md5Hash;
+            this.hashSetName = hashSetName;
+            this.comment = comment;
+            this.showInboxMessage = showInboxMessage;
+        }
+    }
+
+    private static final class WrittenHit {
+
+        private final AbstractFile file;
+        private final HashSetHit hit;
+        private final BlackboardArtifact artifact;
+
+        WrittenHit(AbstractFile file, HashSetHit hit, BlackboardArtifact artifact) {
+            this.file = file;
+            this.hit = hit;
+            this.artifact = artifact;
+        }
+    }
+}
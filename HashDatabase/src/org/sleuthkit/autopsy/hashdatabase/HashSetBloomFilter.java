@@ -0,0 +1,233 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.hashdatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * A Bloom filter of the MD5 hashes of a hash set, held in memory in front of
+ * the lookups in the hash set. A hash the filter rejects is definitely not in
+ * the set, so the lookup can be skipped. The filter is built from the binary
+ * index of the hash set when the index is built and is stored next to it.
+ *
+ * MD5 hashes are already uniformly distributed, so the bit positions are
+ * derived from the two halves of the hash by double hashing rather than by
+ * hashing the hash again.
+ */
+final class HashSetBloomFilter {
+
+    private static final Logger logger = Logger.getLogger(HashSetBloomFilter.class.getName());
+    private static final String FILE_EXTENSION = ".bloom"; //NON-NLS
+    private static final int MAGIC = 0x48534246; // "HSBF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private final long[] bits;
+    private final long numberOfBits;
+    private final int numberOfHashFunctions;
+    private final AtomicLong queries = new AtomicLong(0);
+    private final AtomicLong rejections = new AtomicLong(0);
+    private final AtomicLong falsePositives = new AtomicLong(0);
+
+    /**
+     * Opens the Bloom filter for a binary hash set index, building it if it
+     * does not exist or is out of date.
+     *
+     * @param index The binary index.
+     * @param indexPath The path of the binary index file.
+     * @return The filter, or null if it could not be opened or built.
+     */
+    static HashSetBloomFilter open(HashSetIndex index, String indexPath) {
+        File indexFile = new File(indexPath);
+        File filterFile = new File(indexPath + FILE_EXTENSION);
+        try {
+            HashSetBloomFilter filter = load(filterFile, indexFile);
+            if (filter == null) {
+                long start = System.currentTimeMillis();
+                filter = build(index);
+                filter.save(filterFile, indexFile);
+                logger.log(Level.INFO, "Built Bloom filter {0} of {1} bits in {2} ms", new Object[]{filterFile, filter.numberOfBits, System.currentTimeMillis() - start}); //NON-NLS
+            }
+            return filter;
+        } catch (IOException | OutOfMemoryError ex) {
+            logger.log(Level.WARNING, "Could not open Bloom filter for " + indexPath, ex); //NON-NLS
+            return null;
+        }
+    }
+
+    private HashSetBloomFilter(long[] bits, long numberOfBits, int numberOfHashFunctions) {
+        this.bits = bits;
+        this.numberOfBits = numberOfBits;
+        this.numberOfHashFunctions = numberOfHashFunctions;
+    }
+
+    /**
+     * Determines whether a hash may be in the hash set. A false result means
+     * the hash is definitely not in the set.
+     *
+     * @param high The first 64 bits of the hash.
+     * @param low The last 64 bits of the hash.
+     * @return True or false.
+     */
+    boolean mightContain(long high, long low) {
+        queries.incrementAndGet();
+        for (int i = 0; i < numberOfHashFunctions; ++i) {
+            long bit = bitIndex(high, low, i);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                rejections.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records that a hash the filter passed turned out not to be in the hash
+     * set, for the hit rate statistics.
+     */
+    void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    /**
+     * Gets a one line summary of the size of the filter and how well it has
+     * been doing.
+     *
+     * @return The summary.
+     */
+    String getSummary() {
+        long queryCount = queries.get();
+        long rejectionCount = rejections.get();
+        long falsePositiveCount = falsePositives.get();
+        long passedCount = queryCount - rejectionCount;
+        return String.format("%d KB filter, %d hash functions, %d lookups, %.2f%% rejected, %.2f%% of passed lookups false positives", //NON-NLS
+                numberOfBits / 8 / 1024, numberOfHashFunctions, queryCount,
+                (queryCount > 0) ? 100.0 * rejectionCount / queryCount : 0.0,
+                (passedCount > 0) ? 100.0 * falsePositiveCount / passedCount : 0.0);
+    }
+
+    private long bitIndex(long high, long low, int i) {
+        long combined = low + i * high;
+        return (combined & Long.MAX_VALUE) % numberOfBits;
+    }
+
+    private static HashSetBloomFilter build(HashSetIndex index) {
+        long count = Math.max(1, index.getCount());
+        // m = -n ln(p) / (ln 2)^2 bits and k = (m / n) ln 2 hash functions
+        // for a false positive rate of p.
+        long numberOfBits = (long) Math.ceil(-count * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        numberOfBits = Math.max(64, (numberOfBits + 63) & ~63L);
+        int numberOfHashFunctions = Math.max(1, (int) Math.round((double) numberOfBits / count * Math.log(2)));
+        final HashSetBloomFilter filter = new HashSetBloomFilter(new long[(int) (numberOfBits >>> 6)], numberOfBits, numberOfHashFunctions);
+        index.forEach(new HashSetIndex.HashVisitor() {
+            @Override
+            public void visit(long high, long low) {
+                filter.add(high, low);
+            }
+        });
+        return filter;
+    }
+
+    private void add(long high, long low) {
+        for (int i = 0; i < numberOfHashFunctions; ++i) {
+            long bit = bitIndex(high, low, i);
+            bits[(int) (bit >>> 6)] |= (1L << bit);
+        }
+    }
+
+    private static HashSetBloomFilter load(File filterFile, File indexFile) throws IOException {
+        if (!filterFile.exists()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(filterFile, "r"); FileChannel channel = file.getChannel()) { //NON-NLS
+            if (file.length() < HEADER_SIZE
+                    || file.readInt() != MAGIC
+                    || file.readInt() != VERSION
+                    || file.readLong() != indexFile.lastModified()) {
+                return null;
+            }
+            int numberOfHashFunctions = file.readInt();
+            long numberOfBits = file.readLong();
+            if (numberOfHashFunctions < 1 || numberOfBits < 64 || (numberOfBits & 63) != 0
+                    || file.length() != HEADER_SIZE + numberOfBits / 8) {
+                return null;
+            }
+            long[] bits = new long[(int) (numberOfBits >>> 6)];
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            int word = 0;
+            channel.position(HEADER_SIZE);
+            while (word < bits.length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), (long) (bits.length - word) * 8));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        return null;
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    bits[word++] = buffer.getLong();
+                }
+            }
+            return new HashSetBloomFilter(bits, numberOfBits, numberOfHashFunctions);
+        }
+    }
+
+    private void save(File filterFile, File indexFile) throws IOException {
+        File tempFile = new File(filterFile.getPath() + ".tmp"); //NON-NLS
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw"); FileChannel channel = file.getChannel()) { //NON-NLS
+            file.setLength(0);
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(indexFile.lastModified());
+            buffer.putInt(numberOfHashFunctions);
+            buffer.putLong(numberOfBits);
+            for (long word : bits) {
+                if (buffer.remaining() < 8) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                buffer.putLong(word);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        if (filterFile.exists() && !filterFile.delete()) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + filterFile); //NON-NLS
+        }
+        if (!tempFile.renameTo(filterFile)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile + " to " + filterFile); //NON-NLS
+        }
+    }
+}
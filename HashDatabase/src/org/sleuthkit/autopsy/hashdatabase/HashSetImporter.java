@@ -0,0 +1,622 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.hashdatabase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import org.apache.commons.io.FilenameUtils;
+import org.netbeans.api.progress.ProgressHandle;
+import org.openide.util.NbBundle;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Builds the sorted text index (-md5.idx file) of an MD5 hash set in Java, as
+ * an alternative to the single-threaded native indexer. Handles md5sum style
+ * text files and NSRL CSV files, the formats that large hash sets are usually
+ * distributed in.
+ *
+ * The hash set is read as a stream of blocks of lines, and the blocks are
+ * parsed on a pool of threads. The parsed entries are collected into runs of
+ * bounded size, which are sorted on the pool and written to temporary files.
+ * The runs are then merged into the index. The index has the same layout as
+ * the one the native indexer writes: two header lines, then a line per entry
+ * of the form HASH|OFFSET in ascending order, where OFFSET is the position in
+ * the hash set file of the line the hash came from.
+ */
+final class HashSetImporter {
+
+    private static final Logger logger = Logger.getLogger(HashSetImporter.class.getName());
+    private static final String INDEX_FILE_SUFFIX = "-md5.idx"; //NON-NLS
+    private static final String HEADER_TYPE_HASH = "00000000000000000000000000000000000000000"; //NON-NLS
+    private static final String HEADER_NAME_HASH = "00000000000000000000000000000000000000001"; //NON-NLS
+    private static final String NSRL_TYPE = "nsrl-md5"; //NON-NLS
+    private static final String MD5SUM_TYPE = "md5sum"; //NON-NLS
+    private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int ENTRIES_PER_RUN = 2 * 1024 * 1024;
+    private static final int MAX_PENDING_RUNS = 2;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    private static final int PROGRESS_UNITS = 1000;
+
+    /**
+     * The formats of hash set files the importer can index.
+     */
+    private enum Format {
+
+        MD5SUM, NSRL
+    }
+
+    private final File hashSetFile;
+    private final File indexFile;
+    private final ProgressHandle progress;
+    private final Format format;
+    private final int nsrlMd5Column;
+    private final int numberOfThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private final List<File> runFiles = new ArrayList<>();
+    private long entriesCount = 0;
+    private long lastProgressTime = 0;
+    private long startTime;
+
+    /**
+     * Gets the index file the native indexer would create for a hash set
+     * file.
+     *
+     * @param hashSetPath The path of the hash set file.
+     * @return The index file.
+     */
+    static File getIndexFile(String hashSetPath) {
+        return new File(hashSetPath + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Creates an importer for a hash set file if the file is in a format the
+     * importer can index.
+     *
+     * @param hashSetPath The path of the hash set file.
+     * @param progress A determinate progress handle to update.
+     * @return The importer, or null if the format of the file is not one the
+     * importer can index.
+     * @throws IOException If the file cannot be read.
+     */
+    static HashSetImporter create(String hashSetPath, ProgressHandle progress) throws IOException {
+        File hashSetFile = new File(hashSetPath);
+        String firstLine = readFirstLine(hashSetFile);
+        if (firstLine == null) {
+            return null;
+        }
+        if (firstLine.startsWith("\"SHA-1\"")) { //NON-NLS
+            String[] columns = firstLine.split(","); //NON-NLS
+            for (int i = 0; i < columns.length; ++i) {
+                if (columns[i].trim().equals("\"MD5\"")) { //NON-NLS
+                    return new HashSetImporter(hashSetFile, progress, Format.NSRL, i);
+                }
+            }
+            return null;
+        }
+        byte[] line = firstLine.getBytes(StandardCharsets.US_ASCII);
+        if (parseMd5SumLine(line, 0, line.length, new long[2])) {
+            return new HashSetImporter(hashSetFile, progress, Format.MD5SUM, -1);
+        }
+        return null;
+    }
+
+    private HashSetImporter(File hashSetFile, ProgressHandle progress, Format format, int nsrlMd5Column) {
+        this.hashSetFile = hashSetFile;
+        this.indexFile = getIndexFile(hashSetFile.getPath());
+        this.progress = progress;
+        this.format = format;
+        this.nsrlMd5Column = nsrlMd5Column;
+    }
+
+    /**
+     * Builds the index, replacing any existing index file.
+     *
+     * @return The index file.
+     * @throws IOException If the hash set cannot be read or the index cannot
+     * be written.
+     */
+    File importHashSet() throws IOException {
+        startTime = System.currentTimeMillis();
+        progress.switchToDeterminate(PROGRESS_UNITS);
+        ExecutorService threadPool = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            createSortedRuns(threadPool);
+            mergeRuns();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing " + hashSetFile, ex); //NON-NLS
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        } finally {
+            threadPool.shutdownNow();
+            for (File runFile : runFiles) {
+                runFile.delete();
+            }
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        logger.log(Level.INFO, "Indexed {0} hashes from {1} in {2} ms ({3} hashes/s)", new Object[]{entriesCount, hashSetFile, elapsed, entriesCount * 1000 / elapsed}); //NON-NLS
+        return indexFile;
+    }
+
+    /**
+     * Reads the hash set, parses it on the thread pool, and writes the parsed
+     * entries to sorted run files. The number of blocks being parsed and runs
+     * being sorted at any time is bounded, which bounds the memory used.
+     */
+    private void createSortedRuns(ExecutorService threadPool) throws IOException, InterruptedException, ExecutionException {
+        final long fileSize = hashSetFile.length();
+        Deque<Future<Entries>> parseTasks = new ArrayDeque<>();
+        Deque<Future<File>> sortTasks = new ArrayDeque<>();
+        Entries run = new Entries(ENTRIES_PER_RUN);
+        try (InputStream in = new FileInputStream(hashSetFile)) {
+            byte[] carry = new byte[0];
+            long blockOffset = 0;
+            long bytesRead = 0;
+            while (true) {
+                byte[] block = Arrays.copyOf(carry, Math.max(BLOCK_SIZE, carry.length * 2));
+                int length = carry.length;
+                int read = 0;
+                while (length < block.length && (read = in.read(block, length, block.length - length)) > 0) {
+                    length += read;
+                    bytesRead += read;
+                }
+                boolean endOfFile = (read < 0) || (length < block.length);
+                int end = length;
+                if (!endOfFile) {
+                    // Leave any partial line at the end for the next block.
+                    while (end > 0 && block[end - 1] != '\n') {
+                        --end;
+                    }
+                    if (end == 0) {
+                        // A line longer than the block, read more of it.
+                        carry = Arrays.copyOf(block, length);
+                        continue;
+                    }
+                }
+                carry = Arrays.copyOfRange(block, end, length);
+                parseTasks.add(threadPool.submit(new ParseTask(block, end, blockOffset)));
+                blockOffset += end;
+
+                if (parseTasks.size() >= numberOfThreads * 2) {
+                    run = addEntries(run, parseTasks.remove().get(), threadPool, sortTasks);
+                }
+                updateProgress(bytesRead, fileSize, 0, "HashSetImporter.progress.parsing"); //NON-NLS
+                if (endOfFile) {
+                    break;
+                }
+            }
+        }
+        while (!parseTasks.isEmpty()) {
+            run = addEntries(run, parseTasks.remove().get(), threadPool, sortTasks);
+        }
+        if (run.count > 0) {
+            sortTasks.add(threadPool.submit(new SortTask(run)));
+        }
+        while (!sortTasks.isEmpty()) {
+            runFiles.add(sortTasks.remove().get());
+        }
+    }
+
+    private Entries addEntries(Entries run, Entries entries, ExecutorService threadPool, Deque<Future<File>> sortTasks) throws InterruptedException, ExecutionException {
+        for (int i = 0; i < entries.count; ++i) {
+            if (run.count == ENTRIES_PER_RUN) {
+                if (sortTasks.size() >= MAX_PENDING_RUNS) {
+                    runFiles.add(sortTasks.remove().get());
+                }
+                sortTasks.add(threadPool.submit(new SortTask(run)));
+                run = new Entries(ENTRIES_PER_RUN);
+            }
+            run.add(entries.values[i * 3], entries.values[i * 3 + 1], entries.values[i * 3 + 2]);
+        }
+        entriesCount += entries.count;
+        return run;
+    }
+
+    /**
+     * Merges the sorted runs into the index file, by way of a temporary file
+     * so that a failed import does not leave a partial index behind.
+     */
+    private void mergeRuns() throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp"); //NON-NLS
+        PriorityQueue<RunReader> readers = new PriorityQueue<>();
+        try {
+            for (File runFile : runFiles) {
+                RunReader reader = new RunReader(runFile);
+                if (reader.next()) {
+                    readers.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 20)) {
+                String dbName = FilenameUtils.getBaseName(hashSetFile.getName());
+                out.write((HEADER_TYPE_HASH + "|" + (format == Format.NSRL ? NSRL_TYPE : MD5SUM_TYPE) + "\n").getBytes(StandardCharsets.US_ASCII)); //NON-NLS
+                out.write((HEADER_NAME_HASH + "|" + dbName + "\n").getBytes(StandardCharsets.US_ASCII)); //NON-NLS
+                byte[] line = new byte[32 + 1 + 16 + 1];
+                long written = 0;
+                while (!readers.isEmpty()) {
+                    RunReader reader = readers.poll();
+                    formatLine(line, reader.high, reader.low, reader.offset);
+                    out.write(line);
+                    if (reader.next()) {
+                        readers.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                    if ((++written & 0xFFFF) == 0) {
+                        updateProgress(written, entriesCount, PROGRESS_UNITS / 2, "HashSetImporter.progress.writing"); //NON-NLS
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            tempFile.delete();
+            throw ex;
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        if (indexFile.exists() && !indexFile.delete()) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + indexFile); //NON-NLS
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile + " to " + indexFile); //NON-NLS
+        }
+    }
+
+    /**
+     * Updates the progress handle, at most every PROGRESS_INTERVAL_MS. Each of
+     * the two phases of the import takes half of the progress units.
+     */
+    private void updateProgress(long done, long total, int baseUnits, String messageKey) {
+        long now = System.currentTimeMillis();
+        if (now - lastProgressTime < PROGRESS_INTERVAL_MS) {
+            return;
+        }
+        lastProgressTime = now;
+        int units = baseUnits + (int) ((total > 0) ? Math.min(done, total) * (PROGRESS_UNITS / 2) / total : 0);
+        long elapsedSeconds = Math.max(1, (now - startTime) / 1000);
+        progress.progress(NbBundle.getMessage(this.getClass(), messageKey,
+                new Object[]{done / (1024 * 1024), total / (1024 * 1024), entriesCount / elapsedSeconds, done, total}), units);
+    }
+
+    private static void formatLine(byte[] line, long high, long low, long offset) {
+        for (int i = 0; i < 16; ++i) {
+            line[i] = HEX_DIGITS[(int) (high >>> (60 - 4 * i)) & 0x0F];
+            line[16 + i] = HEX_DIGITS[(int) (low >>> (60 - 4 * i)) & 0x0F];
+        }
+        line[32] = '|';
+        for (int i = 48; i >= 33; --i) {
+            line[i] = (byte) ('0' + (offset % 10));
+            offset /= 10;
+        }
+        line[49] = '\n';
+    }
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII); //NON-NLS
+
+    private static String readFirstLine(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) >= 0 && b != '\n' && line.length() < 4096) {
+                line.append((char) b);
+            }
+            if (line.length() == 0 && b < 0) {
+                return null;
+            }
+            return line.toString().trim();
+        }
+    }
+
+    /**
+     * Parses an md5sum style line, either "HASH  NAME" or "MD5 (NAME) =
+     * HASH".
+     *
+     * @param line The bytes holding the line.
+     * @param start The position of the start of the line.
+     * @param end The position just past the end of the line.
+     * @param hash Receives the two halves of the hash.
+     * @return True if the line holds a hash.
+     */
+    private static boolean parseMd5SumLine(byte[] line, int start, int end, long[] hash) {
+        while (end > start && (line[end - 1] == '\r' || line[end - 1] == ' ' || line[end - 1] == '\t')) {
+            --end;
+        }
+        if (end - start >= 32 + 5 && line[start] == 'M' && line[start + 1] == 'D' && line[start + 2] == '5' && line[start + 3] == ' ' && line[start + 4] == '(') {
+            return parseHash(line, end - 32, hash);
+        }
+        if (end - start < 32 || (end - start > 32 && line[start + 32] != ' ' && line[start + 32] != '\t')) {
+            return false;
+        }
+        return parseHash(line, start, hash);
+    }
+
+    /**
+     * Parses the MD5 column of an NSRL CSV line.
+     */
+    private boolean parseNsrlLine(byte[] line, int start, int end, long[] hash) {
+        int column = 0;
+        boolean inQuotes = false;
+        int position = start;
+        while (position < end && column < nsrlMd5Column) {
+            byte b = line[position++];
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == ',' && !inQuotes) {
+                ++column;
+            }
+        }
+        if (column != nsrlMd5Column) {
+            return false;
+        }
+        if (position < end && line[position] == '"') {
+            ++position;
+        }
+        return (end - position >= 32) && parseHash(line, position, hash);
+    }
+
+    private static boolean parseHash(byte[] line, int start, long[] hash) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 32; ++i) {
+            int digit = Character.digit(line[start + i], 16);
+            if (digit < 0) {
+                return false;
+            }
+            if (i < 16) {
+                high = (high << 4) | digit;
+            } else {
+                low = (low << 4) | digit;
+            }
+        }
+        hash[0] = high;
+        hash[1] = low;
+        return true;
+    }
+
+    /**
+     * Entries of the index, three longs each: the two halves of the hash and
+     * the offset of the line.
+     */
+    private static final class Entries {
+
+        private long[] values;
+        private int count = 0;
+
+        Entries(int capacity) {
+            values = new long[capacity * 3];
+        }
+
+        void add(long high, long low, long offset) {
+            if ((count + 1) * 3 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count * 3] = high;
+            values[count * 3 + 1] = low;
+            values[count * 3 + 2] = offset;
+            ++count;
+        }
+
+        int compare(int i, int j) {
+            int comparison = compareUnsigned(values[i * 3], values[j * 3]);
+            if (comparison == 0) {
+                comparison = compareUnsigned(values[i * 3 + 1], values[j * 3 + 1]);
+            }
+            if (comparison == 0) {
+                comparison = Long.compare(values[i * 3 + 2], values[j * 3 + 2]);
+            }
+            return comparison;
+        }
+
+        void swap(int i, int j) {
+            for (int k = 0; k < 3; ++k) {
+                long temp = values[i * 3 + k];
+                values[i * 3 + k] = values[j * 3 + k];
+                values[j * 3 + k] = temp;
+            }
+        }
+
+        /**
+         * Sorts the entries with a quicksort that recurses on the smaller
+         * partition, finishing small partitions with an insertion sort.
+         */
+        void sort() {
+            sort(0, count - 1);
+        }
+
+        private void sort(int first, int last) {
+            while (last - first > INSERTION_SORT_THRESHOLD) {
+                int middle = (first + last) >>> 1;
+                if (compare(middle, first) < 0) {
+                    swap(middle, first);
+                }
+                if (compare(last, first) < 0) {
+                    swap(last, first);
+                }
+                if (compare(last, middle) < 0) {
+                    swap(last, middle);
+                }
+                // The median of three is now at middle; use it as the pivot.
+                swap(middle, last - 1);
+                int pivot = last - 1;
+                int i = first;
+                int j = last - 1;
+                while (true) {
+                    while (compare(++i, pivot) < 0) {
+                    }
+                    while (compare(--j, pivot) > 0) {
+                    }
+                    if (i >= j) {
+                        break;
+                    }
+                    swap(i, j);
+                }
+                swap(i, last - 1);
+                if (i - first < last - i) {
+                    sort(first, i - 1);
+                    first = i + 1;
+                } else {
+                    sort(i + 1, last);
+                    last = i - 1;
+                }
+            }
+            for (int i = first + 1; i <= last; ++i) {
+                for (int j = i; j > first && compare(j, j - 1) < 0; --j) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+    }
+
+    private final class ParseTask implements Callable<Entries> {
+
+        private final byte[] block;
+        private final int length;
+        private final long blockOffset;
+
+        ParseTask(byte[] block, int length, long blockOffset) {
+            this.block = block;
+            this.length = length;
+            this.blockOffset = blockOffset;
+        }
+
+        @Override
+        public Entries call() {
+            Entries entries = new Entries(Math.max(16, length / 64));
+            long[] hash = new long[2];
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = lineStart;
+                while (lineEnd < length && block[lineEnd] != '\n') {
+                    ++lineEnd;
+                }
+                boolean parsed = (format == Format.NSRL)
+                        ? parseNsrlLine(block, lineStart, lineEnd, hash)
+                        : parseMd5SumLine(block, lineStart, lineEnd, hash);
+                if (parsed) {
+                    entries.add(hash[0], hash[1], blockOffset + lineStart);
+                }
+                lineStart = lineEnd + 1;
+            }
+            return entries;
+        }
+    }
+
+    private final class SortTask implements Callable<File> {
+
+        private final Entries run;
+
+        SortTask(Entries run) {
+            this.run = run;
+        }
+
+        @Override
+        public File call() throws IOException {
+            run.sort();
+            File runFile = File.createTempFile("hashset", ".run", indexFile.getParentFile()); //NON-NLS
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 20))) {
+                for (int i = 0; i < run.count * 3; ++i) {
+                    out.writeLong(run.values[i]);
+                }
+            } catch (IOException ex) {
+                runFile.delete();
+                throw ex;
+            }
+            return runFile;
+        }
+    }
+
+    /**
+     * Reads the entries of a sorted run file in order, for the merge.
+     */
+    private static final class RunReader implements Comparable<RunReader> {
+
+        private final DataInputStream in;
+        private long high;
+        private long low;
+        private long offset;
+
+        RunReader(File runFile) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 16));
+        }
+
+        boolean next() throws IOException {
+            try {
+                high = in.readLong();
+                low = in.readLong();
+                offset = in.readLong();
+                return true;
+            } catch (EOFException ex) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Error closing hash set import run file", ex); //NON-NLS
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            int comparison = compareUnsigned(high, other.high);
+            if (comparison == 0) {
+                comparison = compareUnsigned(low, other.low);
+            }
+            if (comparison == 0) {
+                comparison = Long.compare(offset, other.offset);
+            }
+            return comparison;
+        }
+    }
+
+    private static int compareUnsigned(long x, long y) {
+        x ^= Long.MIN_VALUE;
+        y ^= Long.MIN_VALUE;
+        return (x < y) ? -1 : ((x == y) ? 0 : 1);
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.hashdatabase;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * A compact binary index of the MD5 hashes of a hash set, memory-mapped for
+ * lookups from Java. The index is built from the sorted text index (.idx file)
+ * of the hash database the first time it is needed, and is stored next to it.
+ * It is rebuilt if the text index changes.
+ *
+ * The binary index file holds a header, a fan out table with the position of
+ * the first hash for each possible value of the first 16 bits of a hash, and
+ * the hashes in ascending order, 16 bytes each. A lookup uses the fan out
+ * table to find the range of hashes that could match and does a binary
+ * search of that range, which for a uniform distribution of hashes touches
+ * only a page or two of the mapped file. A Bloom filter can be put in front of
+ * the lookups, so that most misses do not touch the mapped file at all.
+ *
+ * The index must be closed when it is no longer used, to release the
+ * mappings of the file, since a mapped file cannot be replaced or deleted on
+ * some platforms. Lookups in a closed index throw an IllegalStateException.
+ */
+final class HashSetIndex {
+
+    private static final Logger logger = Logger.getLogger(HashSetIndex.class.getName());
+    private static final String FILE_EXTENSION = ".bin"; //NON-NLS
+    private static final int MAGIC = 0x48534958; // "HSIX"
+    private static final int VERSION = 1;
+    private static final int FAN_OUT_SIZE = 1 << 16;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+    private static final long ENTRIES_OFFSET = HEADER_SIZE + (FAN_OUT_SIZE + 1) * 8L;
+    private static final int ENTRY_SIZE = 16;
+    private static final int CHUNK_SHIFT = 30; // Map the hashes in 1 GB chunks
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private final long[] fanOut;
+    private final MappedByteBuffer[] chunks;
+    private final long count;
+    private final File file;
+    private volatile HashSetBloomFilter bloomFilter;
+    private final AtomicInteger activeLookups = new AtomicInteger(0);
+    private volatile boolean closed = false;
+
+    /**
+     * Receives the hashes in an index, in ascending order.
+     */
+    interface HashVisitor {
+
+        void visit(long high, long low);
+    }
+
+    /**
+     * Opens the binary index for a text hash database index, building it if
+     * it does not exist or is out of date.
+     *
+     * @param textIndexPath The path of the text index (.idx file).
+     * @return The binary index, or null if the text index cannot be used to
+     * build one.
+     */
+    static HashSetIndex open(String textIndexPath) {
+        File textIndex = new File(textIndexPath);
+        if (!textIndex.exists() || !textIndexPath.toLowerCase().endsWith(".idx")) { //NON-NLS
+            return null;
+        }
+        File binaryIndex = new File(textIndexPath + FILE_EXTENSION);
+        try {
+            HashSetIndex index = load(binaryIndex, textIndex);
+            if (index == null) {
+                long start = System.currentTimeMillis();
+                if (!build(textIndex, binaryIndex)) {
+                    return null;
+                }
+                index = load(binaryIndex, textIndex);
+                if (index != null) {
+                    logger.log(Level.INFO, "Built binary hash set index {0} with {1} hashes in {2} ms", new Object[]{binaryIndex, index.count, System.currentTimeMillis() - start}); //NON-NLS
+                }
+            }
+            return index;
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Could not open binary hash set index for " + textIndexPath, ex); //NON-NLS
+            return null;
+        }
+    }
+
+    private HashSetIndex(File file, long[] fanOut, MappedByteBuffer[] chunks, long count) {
+        this.file = file;
+        this.fanOut = fanOut;
+        this.chunks = chunks;
+        this.count = count;
+    }
+
+    /**
+     * Puts a Bloom filter in front of the lookups in the index, opening it or
+     * building it if need be.
+     *
+     * @return True if the filter is in use, false if it could not be opened.
+     */
+    boolean useBloomFilter() {
+        if (bloomFilter == null) {
+            bloomFilter = HashSetBloomFilter.open(this, file.getPath());
+        }
+        return (bloomFilter != null);
+    }
+
+    /**
+     * Gets a summary of how the Bloom filter in front of the lookups has done.
+     *
+     * @return The summary, or null if there is no filter.
+     */
+    String getBloomFilterSummary() {
+        HashSetBloomFilter filter = bloomFilter;
+        return (filter != null) ? filter.getSummary() : null;
+    }
+
+    /**
+     * Gets the number of hashes in the index.
+     *
+     * @return The number of hashes.
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Determines whether a hash is in the index.
+     *
+     * @param md5Hash An MD5 hash as a 32 character hex string.
+     * @return True or false.
+     */
+    boolean contains(String md5Hash) {
+        if (md5Hash == null || md5Hash.length() != 32) {
+            return false;
+        }
+        long high;
+        long low;
+        try {
+            high = parseHex(md5Hash, 0);
+            low = parseHex(md5Hash, 16);
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+        return contains(high, low);
+    }
+
+    /**
+     * Determines whether a hash is in the index.
+     *
+     * @param high The first 64 bits of the hash.
+     * @param low The last 64 bits of the hash.
+     * @return True or false.
+     */
+    boolean contains(long high, long low) {
+        HashSetBloomFilter filter = bloomFilter;
+        if (filter != null && !filter.mightContain(high, low)) {
+            return false;
+        }
+        boolean found;
+        beginLookup();
+        try {
+            found = search(high, low);
+        } finally {
+            activeLookups.decrementAndGet();
+        }
+        if (filter != null && !found) {
+            filter.recordFalsePositive();
+        }
+        return found;
+    }
+
+    /**
+     * Passes every hash in the index to a visitor, in ascending order.
+     *
+     * @param visitor The visitor.
+     */
+    void forEach(HashVisitor visitor) {
+        beginLookup();
+        try {
+            for (long i = 0; i < count; ++i) {
+                long offset = i * ENTRY_SIZE;
+                MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+                int position = (int) (offset & (CHUNK_SIZE - 1));
+                visitor.visit(chunk.getLong(position), chunk.getLong(position + 8));
+            }
+        } finally {
+            activeLookups.decrementAndGet();
+        }
+    }
+
+    /**
+     * Closes the index, releasing the mappings of the index file once the
+     * lookups in progress are done.
+     */
+    void close() {
+        closed = true;
+        while (activeLookups.get() > 0) {
+            Thread.yield();
+        }
+        for (MappedByteBuffer chunk : chunks) {
+            unmap(chunk);
+        }
+    }
+
+    /**
+     * Registers a lookup, so that the mappings are not released while it is
+     * in progress. The caller must decrement activeLookups when done.
+     */
+    private void beginLookup() {
+        activeLookups.incrementAndGet();
+        if (closed) {
+            activeLookups.decrementAndGet();
+            throw new IllegalStateException("Binary hash set index " + file + " is closed"); //NON-NLS
+        }
+    }
+
+    /**
+     * Releases the mapping of a buffer now, rather than when the buffer is
+     * garbage collected. There is no public API for this, so the cleaner of
+     * the buffer is run by reflection. If that is not possible, the mapping is
+     * left to the garbage collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner"); //NON-NLS
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method cleanMethod = cleaner.getClass().getMethod("clean"); //NON-NLS
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            logger.log(Level.FINE, "Could not unmap binary hash set index buffer", ex); //NON-NLS
+        }
+    }
+
+    private boolean search(long high, long low) {
+        int bucket = (int) (high >>> 48);
+        long first = fanOut[bucket];
+        long last = fanOut[bucket + 1] - 1;
+        while (first <= last) {
+            long middle = (first + last) >>> 1;
+            long offset = middle * ENTRY_SIZE;
+            MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+            int position = (int) (offset & (CHUNK_SIZE - 1));
+            int comparison = compareUnsigned(chunk.getLong(position), high);
+            if (comparison == 0) {
+                comparison = compareUnsigned(chunk.getLong(position + 8), low);
+            }
+            if (comparison < 0) {
+                first = middle + 1;
+            } else if (comparison > 0) {
+                last = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HashSetIndex load(File binaryIndex, File textIndex) throws IOException {
+        if (!binaryIndex.exists()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(binaryIndex, "r"); FileChannel channel = file.getChannel()) { //NON-NLS
+            if (file.length() < ENTRIES_OFFSET
+                    || file.readInt() != MAGIC
+                    || file.readInt() != VERSION
+                    || file.readLong() != textIndex.length()
+                    || file.readLong() != textIndex.lastModified()) {
+                // Not an index, or built from an older version of the text
+                // index.
+                return null;
+            }
+            long count = file.readLong();
+            if (file.length() != ENTRIES_OFFSET + count * ENTRY_SIZE) {
+                return null;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (FAN_OUT_SIZE + 1) * 8L);
+            long[] fanOut = new long[FAN_OUT_SIZE + 1];
+            header.asLongBuffer().get(fanOut);
+            unmap(header);
+            long entriesSize = count * ENTRY_SIZE;
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((entriesSize + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; ++i) {
+                long chunkOffset = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, ENTRIES_OFFSET + chunkOffset, Math.min(CHUNK_SIZE, entriesSize - chunkOffset));
+            }
+            // The mappings remain valid after the channel is closed.
+            return new HashSetIndex(binaryIndex, fanOut, chunks, count);
+        }
+    }
+
+    /**
+     * Builds a binary index from a text index. The text index has a line per
+     * hash, in ascending order of hash, of the form HASH|OFFSET, plus header
+     * lines that are not 32 character hashes.
+     */
+    private static boolean build(File textIndex, File binaryIndex) throws IOException {
+        File tempFile = new File(binaryIndex.getPath() + ".tmp"); //NON-NLS
+        long[] fanOut = new long[FAN_OUT_SIZE + 1];
+        long count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(textIndex), StandardCharsets.US_ASCII), 1 << 20);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 20))) {
+            out.write(new byte[(int) ENTRIES_OFFSET]);
+            long previousHigh = 0;
+            long previousLow = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('|');
+                if (separator != 32) {
+                    continue;
+                }
+                long high;
+                long low;
+                try {
+                    high = parseHex(line, 0);
+                    low = parseHex(line, 16);
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                if (count > 0) {
+                    int comparison = compareUnsigned(high, previousHigh);
+                    if (comparison == 0) {
+                        comparison = compareUnsigned(low, previousLow);
+                    }
+                    if (comparison == 0) {
+                        // Duplicate, e.g., the same hash with different names.
+                        continue;
+                    }
+                    if (comparison < 0) {
+                        logger.log(Level.WARNING, "Hash database index {0} is not sorted, not building binary index", textIndex); //NON-NLS
+                        out.close();
+                        tempFile.delete();
+                        return false;
+                    }
+                }
+                out.writeLong(high);
+                out.writeLong(low);
+                ++fanOut[(int) (high >>> 48) + 1];
+                ++count;
+                previousHigh = high;
+                previousLow = low;
+            }
+        }
+        for (int i = 1; i <= FAN_OUT_SIZE; ++i) {
+            fanOut[i] += fanOut[i - 1];
+        }
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) { //NON-NLS
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeLong(textIndex.length());
+            file.writeLong(textIndex.lastModified());
+            file.writeLong(count);
+            byte[] fanOutBytes = new byte[(FAN_OUT_SIZE + 1) * 8];
+            for (int i = 0; i <= FAN_OUT_SIZE; ++i) {
+                long value = fanOut[i];
+                for (int j = 0; j < 8; ++j) {
+                    fanOutBytes[i * 8 + j] = (byte) (value >>> (56 - 8 * j));
+                }
+            }
+            file.write(fanOutBytes);
+        }
+        if (binaryIndex.exists() && !binaryIndex.delete()) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + binaryIndex); //NON-NLS
+        }
+        if (!tempFile.renameTo(binaryIndex)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile + " to " + binaryIndex); //NON-NLS
+        }
+        return true;
+    }
+
+    private static long parseHex(String hex, int start) {
+        long value = 0;
+        for (int i = start; i < start + 16; ++i) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException(hex);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static int compareUnsigned(long x, long y) {
+        x ^= Long.MIN_VALUE;
+        y ^= Long.MIN_VALUE;
+        return (x < y) ? -1 : ((x == y) ? 0 : 1);
+    }
+}
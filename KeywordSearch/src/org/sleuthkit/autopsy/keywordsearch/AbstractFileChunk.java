@@ -57,7 +57,7 @@ public boolean index(Ingester ingester, byte[] content, long contentSize, Charse
         boolean success = true;
         ByteContentStream bcs = new ByteContentStream(content, contentSize, parent.getSourceFile(), indexCharset);
         try {
-            ingester.ingest(this, bcs, content.length);
+            ingester.ingest(this, bcs, (int) contentSize);
             //logger.log(Level.INFO, "Ingesting string chunk: " + this.getName() + ": " + chunkID);
         } catch (Exception ingEx) {
             success = false;
@@ -66,5 +66,24 @@ public boolean index(Ingester ingester, byte[] content, long contentSize, Charse
         }
         return success;
     }
+
+    /**
+     * Adds the chunk to the index with text that is already extracted, without
+     * encoding it to bytes first.
+     *
+     * @param ingester the ingester to use
+     * @param text the text of the chunk
+     * @return true if the chunk was indexed
+     * @throws IngesterException if the chunk could not be indexed
+     */
+    public boolean index(Ingester ingester, String text) throws IngesterException {
+        try {
+            ingester.ingest(this, text);
+        } catch (Exception ingEx) {
+            throw new IngesterException(NbBundle.getMessage(this.getClass(), "AbstractFileChunk.index.exception.msg",
+                                                            parent.getSourceFile().getId(), chunkID), ingEx);
+        }
+        return true;
+    }
     
 }
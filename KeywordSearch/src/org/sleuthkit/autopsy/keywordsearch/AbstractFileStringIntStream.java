@@ -37,11 +37,11 @@
  */
  class AbstractFileStringIntStream extends InputStream {
     private static final Logger logger = Logger.getLogger(AbstractFileStringIntStream.class.getName());
-    private static final int FILE_BUF_SIZE = 1024 * 1024;
+    private static final int FILE_BUF_SIZE = BufferPool.BYTE_BUFFER_SIZE;
     private AbstractFile content;
     private final byte[] oneCharBuf = new byte[1];
     private final StringExtract stringExtractor;    
-    private final byte[] fileReadBuff = new byte[FILE_BUF_SIZE];
+    private byte[] fileReadBuff = BufferPool.borrowBytes(); // Released on close()
     private long fileReadOffset = 0L;
     private byte[] convertBuff; //stores extracted string encoded as bytes, before returned to user
     private int convertBuffOffset = 0; //offset to start returning data to user on next read()
@@ -195,6 +195,13 @@ public int read(byte[] b, int off, int len) throws IOException {
         return bytesToUser;
     }
 
+    @Override
+    public void close() throws IOException {
+        BufferPool.release(fileReadBuff);
+        fileReadBuff = null;
+        super.close();
+    }
+
     /**
      * convert bytes in file buffer to string, and encode string in
      * convertBuffer
@@ -0,0 +1,143 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A shared, bounded pool of the large byte and char buffers used to extract
+ * and index text, so that the ingest threads reuse a few buffers instead of
+ * allocating buffers of a megabyte or so for every file or chunk.
+ *
+ * Buffers are borrowed for the processing of one file or chunk and must be
+ * released when done. Only buffers of the pooled sizes are kept, and at most
+ * the configured number of each, so the pool does not hold on to memory after
+ * a burst of work. A pool size of zero turns pooling off, which allows the
+ * allocation behavior with and without the pool to be compared.
+ */
+final class BufferPool {
+
+    static final int BYTE_BUFFER_SIZE = 1024 * 1024;
+    static final int CHAR_BUFFER_SIZE = 512 * 1024;
+    private static final Pool<byte[]> bytePool = new Pool<byte[]>(KeywordSearchSettings.getTextBufferPoolSize()) {
+        @Override
+        byte[] create() {
+            return new byte[BYTE_BUFFER_SIZE];
+        }
+    };
+    private static final Pool<char[]> charPool = new Pool<char[]>(KeywordSearchSettings.getTextBufferPoolSize()) {
+        @Override
+        char[] create() {
+            return new char[CHAR_BUFFER_SIZE];
+        }
+    };
+
+    private BufferPool() {
+    }
+
+    /**
+     * Borrows a byte buffer of BYTE_BUFFER_SIZE bytes.
+     *
+     * @return The buffer, not cleared.
+     */
+    static byte[] borrowBytes() {
+        return bytePool.borrow();
+    }
+
+    /**
+     * Returns a byte buffer to the pool.
+     *
+     * @param buffer The buffer, may be null.
+     */
+    static void release(byte[] buffer) {
+        if (buffer != null && buffer.length == BYTE_BUFFER_SIZE) {
+            bytePool.release(buffer);
+        }
+    }
+
+    /**
+     * Borrows a char buffer of CHAR_BUFFER_SIZE chars.
+     *
+     * @return The buffer, not cleared.
+     */
+    static char[] borrowChars() {
+        return charPool.borrow();
+    }
+
+    /**
+     * Returns a char buffer to the pool.
+     *
+     * @param buffer The buffer, may be null.
+     */
+    static void release(char[] buffer) {
+        if (buffer != null && buffer.length == CHAR_BUFFER_SIZE) {
+            charPool.release(buffer);
+        }
+    }
+
+    /**
+     * Gets a one line summary of the buffers allocated and reused, suitable
+     * for logging.
+     *
+     * @return The summary.
+     */
+    static String getSummary() {
+        return "byte buffers " + bytePool.getSummary() + ", char buffers " + charPool.getSummary(); //NON-NLS
+    }
+
+    private static abstract class Pool<T> {
+
+        private final int maxPooled;
+        private final ConcurrentLinkedQueue<T> freeBuffers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger freeBuffersCount = new AtomicInteger(0);
+        private final AtomicLong allocatedCount = new AtomicLong(0L);
+        private final AtomicLong reusedCount = new AtomicLong(0L);
+
+        Pool(int maxPooled) {
+            this.maxPooled = Math.max(0, maxPooled);
+        }
+
+        abstract T create();
+
+        T borrow() {
+            T buffer = freeBuffers.poll();
+            if (buffer != null) {
+                freeBuffersCount.decrementAndGet();
+                reusedCount.incrementAndGet();
+                return buffer;
+            }
+            allocatedCount.incrementAndGet();
+            return create();
+        }
+
+        void release(T buffer) {
+            if (freeBuffersCount.incrementAndGet() <= maxPooled) {
+                freeBuffers.offer(buffer);
+            } else {
+                freeBuffersCount.decrementAndGet();
+            }
+        }
+
+        String getSummary() {
+            return allocatedCount.get() + " allocated/" + reusedCount.get() + " reused"; //NON-NLS
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.apache.solr.common.SolrInputDocument;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Collects the documents added to the index by all of the ingest threads and
+ * sends them to Solr in batches, on a pool of indexing threads, so that
+ * indexing is not limited by the latency of a request per document, and the
+ * ingest threads go on to the next file without waiting for Solr.
+ *
+ * A batch is sent when it has the configured number of documents or about
+ * MAX_BATCH_BYTES of content. At most two batches per indexing thread may wait
+ * to be sent. When that many are waiting, the ingest thread that fills the
+ * next batch blocks until an indexing thread takes one, which keeps the ingest
+ * threads from getting far ahead of Solr. The time the ingest threads spend
+ * blocked is tracked, to tell when the indexing pool is too small.
+ *
+ * If a batch cannot be added, its documents are added one by one, and the
+ * files with documents that still cannot be added are recorded, so that the
+ * ingest status of the files can be corrected.
+ *
+ * Each document is stamped with the current index generation as it is added
+ * to a batch. Once the generation has been advanced and the batches flushed,
+ * all of the documents of the earlier generations have been sent.
+ */
+final class DocumentBatcher {
+
+    private static final Logger logger = Logger.getLogger(DocumentBatcher.class.getName());
+    private static final long MAX_BATCH_BYTES = 8L * 1024 * 1024;
+    private final Server solrServer;
+    private final int batchSize;
+    private final ExecutorService executor;
+    private final Semaphore queuedBatchSlots; // Bounds the batches waiting to be sent.
+    private final AtomicLong blockedNanos = new AtomicLong(0L);
+    private Batch batch = new Batch(); // Guarded by this
+    // Starts at the current time, so generations keep increasing across
+    // sessions with the same index.
+    private long generation = System.currentTimeMillis(); // Guarded by this
+    private final AtomicInteger pendingBatchesCount = new AtomicInteger(0);
+    private final Object batchesSentLock = new Object();
+    private final Set<Long> failedFileIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    DocumentBatcher(Server solrServer, int batchSize, int numberOfThreads) {
+        this.solrServer = solrServer;
+        this.batchSize = Math.max(1, batchSize);
+        int threads = Math.max(1, numberOfThreads);
+        this.queuedBatchSlots = new Semaphore(threads * 2);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "solr-indexing-" + threadCount.incrementAndGet()); //NON-NLS
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds a document to the current batch, sending the batch if it is full.
+     *
+     * @param doc The document.
+     * @param fileId The object id of the file the document belongs to.
+     * @param size The approximate size of the content of the document.
+     */
+    void add(SolrInputDocument doc, long fileId, long size) {
+        Batch fullBatch = null;
+        synchronized (this) {
+            doc.setField(Server.Schema.INDEX_GENERATION.toString(), generation);
+            batch.add(doc, fileId, size);
+            if (batch.docs.size() >= batchSize || batch.bytes >= MAX_BATCH_BYTES) {
+                fullBatch = batch;
+                batch = new Batch();
+                // Counted while the batch is swapped out, so a flush that
+                // starts before it is sent waits for it.
+                pendingBatchesCount.incrementAndGet();
+            }
+        }
+        if (fullBatch != null) {
+            send(fullBatch);
+        }
+    }
+
+    /**
+     * Gets the generation documents added now are stamped with.
+     *
+     * @return The generation.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Starts a new generation for the documents added from now on.
+     *
+     * @return The generation that ended.
+     */
+    synchronized long advanceGeneration() {
+        return generation++;
+    }
+
+    /**
+     * Sends the current batch and waits until all of the batches have been
+     * sent.
+     */
+    void flush() {
+        Batch lastBatch;
+        synchronized (this) {
+            lastBatch = batch;
+            batch = new Batch();
+            if (!lastBatch.docs.isEmpty()) {
+                pendingBatchesCount.incrementAndGet();
+            }
+        }
+        if (!lastBatch.docs.isEmpty()) {
+            send(lastBatch);
+        }
+        synchronized (batchesSentLock) {
+            while (pendingBatchesCount.get() > 0) {
+                try {
+                    batchesSentLock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the files that had documents that could not be added to the index,
+     * out of a given set of files. The files are forgotten once reported.
+     * flush() should be called first, so all of the documents of the files
+     * have been sent.
+     *
+     * @param fileIds The object ids of the files.
+     * @return The object ids of the files with documents that were not added.
+     */
+    Set<Long> takeFailedFileIds(Set<Long> fileIds) {
+        Set<Long> failed = new HashSet<>();
+        Iterator<Long> iterator = failedFileIds.iterator();
+        while (iterator.hasNext()) {
+            Long fileId = iterator.next();
+            if (fileIds.contains(fileId)) {
+                failed.add(fileId);
+                iterator.remove();
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Gets the total time the ingest threads have spent waiting for an
+     * indexing thread to take a batch.
+     *
+     * @return The time in milliseconds.
+     */
+    long getBlockedTimeMillis() {
+        return blockedNanos.get() / 1000000L;
+    }
+
+    /**
+     * Sends a batch that has already been counted as pending.
+     */
+    private void send(final Batch fullBatch) {
+        if (!queuedBatchSlots.tryAcquire()) {
+            // The documents are already out of the file, so wait even if the
+            // thread is interrupted rather than lose them.
+            long start = System.nanoTime();
+            queuedBatchSlots.acquireUninterruptibly();
+            blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                queuedBatchSlots.release();
+                try {
+                    addToIndex(fullBatch);
+                } finally {
+                    if (pendingBatchesCount.decrementAndGet() == 0) {
+                        synchronized (batchesSentLock) {
+                            batchesSentLock.notifyAll();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private void addToIndex(Batch fullBatch) {
+        try {
+            solrServer.addDocuments(fullBatch.docs);
+            return;
+        } catch (KeywordSearchModuleException ex) {
+            logger.log(Level.WARNING, "Could not add batch of " + fullBatch.docs.size() + " documents to index, adding them one at a time", ex); //NON-NLS
+        } catch (RuntimeException ex) {
+            // Unchecked SolrExceptions are thrown for bad documents.
+            logger.log(Level.WARNING, "Could not add batch of " + fullBatch.docs.size() + " documents to index, adding them one at a time", ex); //NON-NLS
+        }
+        for (int i = 0; i < fullBatch.docs.size(); ++i) {
+            try {
+                solrServer.addDocument(fullBatch.docs.get(i));
+            } catch (KeywordSearchModuleException | RuntimeException ex) {
+                logger.log(Level.WARNING, "Could not add document to index for file " + fullBatch.fileIds.get(i), ex); //NON-NLS
+                failedFileIds.add(fullBatch.fileIds.get(i));
+            }
+        }
+    }
+
+    private static final class Batch {
+
+        private final List<SolrInputDocument> docs = new ArrayList<>();
+        private final List<Long> fileIds = new ArrayList<>();
+        private long bytes = 0;
+
+        private void add(SolrInputDocument doc, long fileId, long size) {
+            docs.add(doc);
+            fileIds.add(fileId);
+            bytes += size;
+        }
+    }
+}
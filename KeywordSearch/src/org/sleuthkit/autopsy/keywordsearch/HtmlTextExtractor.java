@@ -30,7 +30,6 @@
 import org.sleuthkit.autopsy.coreutils.StringExtract.StringExtractUnicodeTable.SCRIPT;
 import org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException;
 import org.sleuthkit.datamodel.AbstractFile;
-import org.sleuthkit.datamodel.ReadContentInputStream;
 
 /**
  * Extractor of text from HTML supported AbstractFile content. Extracted text is
@@ -42,12 +41,11 @@ class HtmlTextExtractor implements TextExtractor {
     private static final Logger logger = Logger.getLogger(HtmlTextExtractor.class.getName());
     private static Ingester ingester;
     static final Charset outCharset = Server.DEFAULT_INDEXED_TEXT_CHARSET;
-    static final int MAX_EXTR_TEXT_CHARS = 512 * 1024;
+    static final int MAX_EXTR_TEXT_CHARS = BufferPool.CHAR_BUFFER_SIZE;
     private static final int SINGLE_READ_CHARS = 1024;
     private static final int EXTRA_CHARS = 128; //for whitespace    
     private static final int MAX_SIZE = 50000000;
     //private static final String UTF16BOM = "\uFEFF"; disabled prepending of BOM
-    private final char[] textChunkBuf = new char[MAX_EXTR_TEXT_CHARS];
     private KeywordSearchIngestModule module;    
     private AbstractFile sourceFile;
     private int numChunks = 0;
@@ -104,8 +102,9 @@ public boolean index(AbstractFile sourceFile) throws IngesterException {
 
         boolean success = false;
         Reader reader = null;
+        final char[] textChunkBuf = BufferPool.borrowChars();
 
-        final InputStream stream = new ReadContentInputStream(sourceFile);
+        final InputStream stream = module.getFileContentInputStream(sourceFile);
 
         try {
             // Parse the stream with Jericho
@@ -167,11 +166,9 @@ public boolean index(AbstractFile sourceFile) throws IngesterException {
                 totalRead = 0;
                 extracted = sb.toString();
 
-                //converts BOM automatically to charSet encoding
-                byte[] encodedBytes = extracted.getBytes(outCharset);
                 AbstractFileChunk chunk = new AbstractFileChunk(this, this.numChunks + 1);
                 try {
-                    chunk.index(ingester, encodedBytes, encodedBytes.length, outCharset);
+                    chunk.index(ingester, extracted);
                     ++this.numChunks;
                 } catch (Ingester.IngesterException ingEx) {
                     success = false;
@@ -187,6 +184,7 @@ public boolean index(AbstractFile sourceFile) throws IngesterException {
             logger.log(Level.WARNING, "Unexpected error, can't read content stream from " + sourceFile.getId() + ": " + sourceFile.getName(), ex); //NON-NLS
             success = false;
         } finally {
+            BufferPool.release(textChunkBuf);
             try {
                 stream.close();
             } catch (IOException ex) {
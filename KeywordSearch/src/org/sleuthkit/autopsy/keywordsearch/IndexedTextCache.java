@@ -0,0 +1,155 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Keeps the text of the files most recently added to the index in chunks, so
+ * that the text can be indexed again for a later file with the same content
+ * without reading it back from Solr, where it may not be committed yet.
+ *
+ * The chunks of a file are collected as they are added, and the text of the
+ * file is kept once the file itself is added with its number of chunks. Only
+ * files with at most MAX_FILE_CHARS characters of text are kept, and the
+ * least recently used files are dropped when the text kept exceeds
+ * MAX_CACHED_CHARS characters. The chunks of files still being added are
+ * limited to MAX_CACHED_CHARS characters as well.
+ */
+final class IndexedTextCache {
+
+    private static final long MAX_FILE_CHARS = 2L * 1024 * 1024;
+    private static final long MAX_CACHED_CHARS = 16L * 1024 * 1024;
+    private final LinkedHashMap<Long, FileText> filesInProgress = new LinkedHashMap<>(); // Guarded by this, oldest first
+    private long inProgressChars = 0L; // Guarded by this
+    private final LinkedHashMap<Long, FileText> completedFiles = new LinkedHashMap<>(16, 0.75f, true); // Guarded by this, in access order
+    private long cachedChars = 0L; // Guarded by this
+
+    /**
+     * Records a chunk of text added to the index for a file. The chunks of a
+     * file must be added in order.
+     *
+     * @param fileId The object id of the file.
+     * @param chunkId The number of the chunk, starting at 1.
+     * @param text The text of the chunk.
+     */
+    synchronized void addChunk(long fileId, int chunkId, String text) {
+        FileText fileText = (chunkId == 1) ? new FileText() : filesInProgress.get(fileId);
+        if (chunkId == 1) {
+            removeFileInProgress(fileId);
+            filesInProgress.put(fileId, fileText);
+        }
+        if (fileText == null) {
+            return;
+        }
+        if (chunkId != fileText.chunks.size() + 1 || fileText.chars + text.length() > MAX_FILE_CHARS) {
+            removeFileInProgress(fileId);
+            return;
+        }
+        fileText.chunks.add(text);
+        fileText.chars += text.length();
+        inProgressChars += text.length();
+        // Files whose text could not be extracted are never completed, so
+        // the oldest files in progress are dropped.
+        Iterator<FileText> iterator = filesInProgress.values().iterator();
+        while (inProgressChars > MAX_CACHED_CHARS && iterator.hasNext()) {
+            inProgressChars -= iterator.next().chars;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Records that a file has been added to the index with a given number of
+     * chunks, keeping its text if all of the chunks were recorded.
+     *
+     * @param fileId The object id of the file.
+     * @param numChunks The number of chunks.
+     */
+    synchronized void completeFile(long fileId, int numChunks) {
+        FileText fileText = removeFileInProgress(fileId);
+        removeCompletedFile(fileId);
+        if (fileText == null || fileText.chunks.size() != numChunks || numChunks == 0) {
+            return;
+        }
+        completedFiles.put(fileId, fileText);
+        cachedChars += fileText.chars;
+        Iterator<FileText> iterator = completedFiles.values().iterator();
+        while (cachedChars > MAX_CACHED_CHARS && iterator.hasNext()) {
+            cachedChars -= iterator.next().chars;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drops any text kept for a file, e.g., when the file is added to the
+     * index again without chunks.
+     *
+     * @param fileId The object id of the file.
+     */
+    synchronized void removeFile(long fileId) {
+        removeFileInProgress(fileId);
+        removeCompletedFile(fileId);
+    }
+
+    private FileText removeFileInProgress(long fileId) {
+        FileText removed = filesInProgress.remove(fileId);
+        if (removed != null) {
+            inProgressChars -= removed.chars;
+        }
+        return removed;
+    }
+
+    private void removeCompletedFile(long fileId) {
+        FileText removed = completedFiles.remove(fileId);
+        if (removed != null) {
+            cachedChars -= removed.chars;
+        }
+    }
+
+    /**
+     * Gets the chunks of text of a file added to the index, if they are still
+     * kept.
+     *
+     * @param fileId The object id of the file.
+     * @return The chunks, in order, or null if the text is not kept.
+     */
+    synchronized List<String> getChunks(long fileId) {
+        FileText fileText = completedFiles.get(fileId);
+        return (fileText != null) ? new ArrayList<>(fileText.chunks) : null;
+    }
+
+    /**
+     * Drops all of the text kept, e.g., when the index is closed.
+     */
+    synchronized void clear() {
+        filesInProgress.clear();
+        inProgressChars = 0L;
+        completedFiles.clear();
+        cachedChars = 0L;
+    }
+
+    private static final class FileText {
+
+        private final List<String> chunks = new ArrayList<>();
+        private long chars = 0L;
+    }
+}
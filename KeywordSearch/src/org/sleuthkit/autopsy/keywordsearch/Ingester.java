@@ -22,9 +22,12 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -40,7 +43,6 @@
 import org.apache.solr.common.SolrException.ErrorCode;
 import org.apache.solr.common.util.ContentStream;
 import org.apache.solr.common.SolrInputDocument;
-import org.openide.util.Exceptions;
 import org.openide.util.NbBundle;
 import org.sleuthkit.autopsy.casemodule.Case;
 import org.sleuthkit.autopsy.coreutils.Logger;
@@ -69,12 +71,26 @@ class Ingester {
     private final ExecutorService upRequestExecutor = Executors.newSingleThreadExecutor();
     private final Server solrServer = KeywordSearch.getServer();
     private final GetContentFieldsV getContentFieldsV = new GetContentFieldsV();
+    private final DocumentBatcher documentBatcher = new DocumentBatcher(solrServer, KeywordSearchSettings.getIndexingBatchSize(), KeywordSearchSettings.getIndexingBatchThreads());
+    private final IndexedTextCache indexedTextCache = new IndexedTextCache();
+    private final Runnable checkpointFlusher = new Runnable() {
+        @Override
+        public void run() {
+            // Documents Solr has accepted are in its update log and survive a
+            // crash without a commit, so the flusher does not commit, leaving
+            // that to the periodic commits.
+            documentBatcher.flush();
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Interrupted while sending documents to the index"); //NON-NLS
+            }
+        }
+    };
     private static Ingester instance;
    
     //for ingesting chunk as SolrInputDocument (non-content-streaming, by-pass tika)
     //TODO use a streaming way to add content to /update handler
     private static final int MAX_DOC_CHUNK_SIZE = 1024*1024;
-    private static final String docContentEncoding = "UTF-8"; //NON-NLS
+    private static final Charset docContentCharset = StandardCharsets.UTF_8;
 
 
     private Ingester() {
@@ -108,7 +124,7 @@ protected void finalize() throws Throwable {
      */
     void ingest(AbstractFileStringContentStream afscs) throws IngesterException {
         Map<String, String> params = getContentFields(afscs.getSourceContent());
-        ingest(afscs, params, afscs.getSourceContent().getSize());
+        ingest(afscs, params, afscs.getSourceContent().getSize(), afscs.getSourceContent().getId());
     }
 
     /**
@@ -127,7 +143,7 @@ void ingest(TextExtractor fe) throws IngesterException {
 
         params.put(Server.Schema.NUM_CHUNKS.toString(), Integer.toString(fe.getNumChunks()));
 
-        ingest(new NullContentStream(fe.getSourceFile()), params, 0);
+        ingest(new NullContentStream(fe.getSourceFile()), params, 0, fe.getSourceFile().getId());
     }
 
     /**
@@ -149,7 +165,57 @@ void ingest(AbstractFileChunk fec, ByteContentStream bcs, int size) throws Inges
         params.put(Server.Schema.ID.toString(),
                 Server.getChunkIdString(sourceContent.getId(), fec.getChunkId()));
 
-        ingest(bcs, params, size);
+        ingest(bcs, params, size, sourceContent.getId());
+    }
+
+    /**
+     * Adds text already extracted, e.g., from another file with the same
+     * content, to the index as a chunk of a file. commit() should be called
+     * once you're done ingesting files.
+     *
+     * @param file The file the chunk belongs to.
+     * @param chunkId The number of the chunk, starting at 1.
+     * @param text The text of the chunk.
+     * @throws IngesterException if there was an error processing the chunk,
+     * but the Solr server is probably fine.
+     */
+    void ingest(AbstractFile file, int chunkId, String text) throws IngesterException {
+        Map<String, String> params = getContentFields(file);
+        params.put(Server.Schema.ID.toString(), Server.getChunkIdString(file.getId(), chunkId));
+        checkImageId(params, file.getName());
+        // The text is already kept for the file it was copied from.
+        addDocument(params, text, file.getId(), false);
+    }
+
+    /**
+     * Adds an AbstractFileChunk and its extracted text to the index. commit()
+     * should be called once you're done ingesting files.
+     *
+     * @param fec AbstractFileChunk to ingest
+     * @param text the text of the chunk
+     * @throws IngesterException if there was an error processing a specific
+     * file, but the Solr server is probably fine.
+     */
+    void ingest(AbstractFileChunk fec, String text) throws IngesterException {
+        AbstractFile sourceFile = fec.getParent().getSourceFile();
+        Map<String, String> params = getContentFields(sourceFile);
+        params.put(Server.Schema.ID.toString(), Server.getChunkIdString(sourceFile.getId(), fec.getChunkId()));
+        ingest(sourceFile.getName(), params, text, sourceFile.getId());
+    }
+
+    /**
+     * Adds a file whose text has been added to the index in chunks to the
+     * index. commit() should be called once you're done ingesting files.
+     *
+     * @param file The file.
+     * @param numChunks The number of chunks of text of the file.
+     * @throws IngesterException if there was an error processing the file,
+     * but the Solr server is probably fine.
+     */
+    void ingest(AbstractFile file, int numChunks) throws IngesterException {
+        Map<String, String> params = getContentFields(file);
+        params.put(Server.Schema.NUM_CHUNKS.toString(), Integer.toString(numChunks));
+        ingest(new NullContentStream(file), params, 0, file.getId());
     }
 
     /**
@@ -166,9 +232,9 @@ void ingest(AbstractFileChunk fec, ByteContentStream bcs, int size) throws Inges
      */
     void ingest(AbstractFile file, boolean ingestContent) throws IngesterException {
         if (ingestContent == false || file.isDir()) {
-            ingest(new NullContentStream(file), getContentFields(file), 0);
+            ingest(new NullContentStream(file), getContentFields(file), 0, file.getId());
         } else {
-            ingest(new FscContentStream(file), getContentFields(file), file.getSize());
+            ingest(new FscContentStream(file), getContentFields(file), file.getSize(), file.getId());
         }
     }
 
@@ -269,78 +335,124 @@ private Map<String, String> getCommonFields(AbstractFile af) {
      * e.g. with XMLUpdateRequestHandler (deprecated in SOlr 4.0.0), see if possible 
      * to stream with UpdateRequestHandler
      * 
+     * The document is added to a batch and sent to Solr later, so failures to
+     * add it to the index are not reported here, see getFilesNotIndexed().
+     * 
      * @param cs
      * @param fields
      * @param size
+     * @param fileId object id of the file the content belongs to
      * @throws org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException 
      */
-    private void ingest(ContentStream cs, Map<String, String> fields, final long size) throws IngesterException {
-        
+    private void ingest(ContentStream cs, Map<String, String> fields, final long size, long fileId) throws IngesterException {
+        checkImageId(fields, cs.getName());
+
+        //using size here, but we are no longer ingesting entire files
+        //size is normally a chunk size, up to 1MB
+        String content = "";
+        if (size > 0) {
+            if (cs instanceof ByteContentStream) {
+                // The content is already in memory, decode it in place rather 
+                // than copying it to a buffer first.
+                ByteContentStream bcs = (ByteContentStream) cs;
+                int length = (int) Math.min(Math.min(bcs.getSize(), bcs.getByteContent().length), MAX_DOC_CHUNK_SIZE);
+                content = new String(bcs.getByteContent(), 0, length, docContentCharset);
+            } else {
+                content = readContent(cs);
+            }
+        }
+        //no content, such as case when 0th chunk indexed, is added as ""
+        addDocument(fields, content, fileId);
+    }
+
+    /**
+     * Indexing method for text that is already extracted, which does not need
+     * to be encoded and decoded again.
+     *
+     * @param name name of the content, for messages
+     * @param fields content specific fields
+     * @param text the text
+     * @param fileId object id of the file the text belongs to
+     * @throws IngesterException
+     */
+    private void ingest(String name, Map<String, String> fields, String text, long fileId) throws IngesterException {
+        checkImageId(fields, name);
+        addDocument(fields, text, fileId);
+    }
+
+    private void checkImageId(Map<String, String> fields, String name) throws IngesterException {
         if (fields.get(Server.Schema.IMAGE_ID.toString()) == null) {
             //skip the file, image id unknown
             String msg = NbBundle.getMessage(this.getClass(),
-                                             "Ingester.ingest.exception.unknownImgId.msg", cs.getName());
+                                             "Ingester.ingest.exception.unknownImgId.msg", name);
             logger.log(Level.SEVERE, msg);
             throw new IngesterException(msg);
         }
-        
-        final byte[] docChunkContentBuf = new byte[MAX_DOC_CHUNK_SIZE];
-        SolrInputDocument updateDoc = new SolrInputDocument();
-
-        for (String key : fields.keySet()) {
-            updateDoc.addField(key, fields.get(key));
-        }
+    }
 
-        //using size here, but we are no longer ingesting entire files
-        //size is normally a chunk size, up to 1MB
-    
-        if (size > 0) {
- 
+    /**
+     * Reads up to MAX_DOC_CHUNK_SIZE bytes of content from a stream, using a
+     * pooled buffer.
+     */
+    private String readContent(ContentStream cs) throws IngesterException {
+        byte[] docChunkContentBuf = BufferPool.borrowBytes();
+        try {
             InputStream is = null;
             int read = 0;
             try {
                 is = cs.getStream();
-                read = is.read(docChunkContentBuf);
+                read = is.read(docChunkContentBuf, 0, MAX_DOC_CHUNK_SIZE);
             } catch (IOException ex) {
                 throw new IngesterException(
                         NbBundle.getMessage(this.getClass(), "Ingester.ingest.exception.cantReadStream.msg",
                                             cs.getName()));
             } finally {
                 try {
-                    is.close();
+                    if (is != null) {
+                        is.close();
+                    }
                 } catch (IOException ex) {
                     logger.log(Level.WARNING, "Could not close input stream after reading content, " + cs.getName(), ex); //NON-NLS
                 }
             }
+            return (read > 0) ? new String(docChunkContentBuf, 0, read, docContentCharset) : "";
+        } finally {
+            BufferPool.release(docChunkContentBuf);
+        }
+    }
 
-            if (read != 0) {
-                String s = "";
-                try {
-                    s = new String(docChunkContentBuf, 0, read, docContentEncoding);
-                } catch (UnsupportedEncodingException ex) {
-                    Exceptions.printStackTrace(ex);
+    private void addDocument(Map<String, String> fields, String content, long fileId) {
+        addDocument(fields, content, fileId, true);
+    }
+
+    /**
+     * Adds a document to the current batch, keeping the text of the chunks of
+     * a file in the indexed text cache if asked to.
+     */
+    private void addDocument(Map<String, String> fields, String content, long fileId, boolean cacheText) {
+        if (cacheText) {
+            String id = fields.get(Server.Schema.ID.toString());
+            int separator = (id != null) ? id.indexOf(Server.ID_CHUNK_SEP) : -1;
+            String numChunks = fields.get(Server.Schema.NUM_CHUNKS.toString());
+            try {
+                if (separator >= 0) {
+                    indexedTextCache.addChunk(fileId, Integer.parseInt(id.substring(separator + 1)), content);
+                } else if (numChunks != null) {
+                    indexedTextCache.completeFile(fileId, Integer.parseInt(numChunks));
+                } else {
+                    indexedTextCache.removeFile(fileId);
                 }
-                updateDoc.addField(Server.Schema.CONTENT.toString(), s);
-            } else {
-                updateDoc.addField(Server.Schema.CONTENT.toString(), "");
+            } catch (NumberFormatException ex) {
+                indexedTextCache.removeFile(fileId);
             }
         }
-        else {
-            //no content, such as case when 0th chunk indexed
-            updateDoc.addField(Server.Schema.CONTENT.toString(), "");
-        }
-        
-
-        try {
-            //TODO consider timeout thread, or vary socket timeout based on size of indexed content
-            solrServer.addDocument(updateDoc);
-            uncommitedIngests = true;
-        } catch (KeywordSearchModuleException ex) {
-            throw new IngesterException(
-                    NbBundle.getMessage(this.getClass(), "Ingester.ingest.exception.err.msg", cs.getName()), ex);
+        SolrInputDocument updateDoc = new SolrInputDocument();
+        for (String key : fields.keySet()) {
+            updateDoc.addField(key, fields.get(key));
         }
-
-
+        updateDoc.addField(Server.Schema.CONTENT.toString(), content);
+        documentBatcher.add(updateDoc, fileId, content.length());
+        uncommitedIngests = true;
     }
 
     /**
@@ -487,6 +599,7 @@ public void run() {
      * searches)
      */
     void commit() {
+        documentBatcher.flush();
         try {
             solrServer.commit();
             uncommitedIngests = false;
@@ -497,6 +610,83 @@ void commit() {
         }
     }
 
+    /**
+     * Gets the text of a file recently added to the index in chunks, without
+     * waiting for it to be sent to Solr and committed.
+     *
+     * @param fileId the object id of the file
+     * @return the chunks of text, in order, or null if the text is no longer
+     * kept
+     */
+    List<String> getRecentlyIndexedText(long fileId) {
+        return indexedTextCache.getChunks(fileId);
+    }
+
+    /**
+     * Drops the text kept for files recently added to the index, e.g., when
+     * the case is closed and the file ids no longer apply.
+     */
+    void clearRecentlyIndexedText() {
+        indexedTextCache.clear();
+    }
+
+    /**
+     * Gets a flusher for the ingest job resume checkpoints, which sends the
+     * documents added so far to Solr, where the update log keeps them until
+     * they are committed, and throws an IllegalStateException if that could
+     * not be done.
+     *
+     * @return the flusher
+     */
+    Runnable getCheckpointFlusher() {
+        return checkpointFlusher;
+    }
+
+    /**
+     * Gets the index generation that documents added now belong to. Each
+     * document is stamped with its generation, so a search can be limited to
+     * the documents added since an earlier search.
+     *
+     * @return the current generation
+     */
+    long getIndexGeneration() {
+        return documentBatcher.getGeneration();
+    }
+
+    /**
+     * Starts a new index generation. Once the index has been committed after
+     * this call, all of the documents of the generation that ended, and of
+     * earlier ones, can be searched.
+     *
+     * @return the generation that ended
+     */
+    long advanceIndexGeneration() {
+        return documentBatcher.advanceGeneration();
+    }
+
+    /**
+     * Gets the total time the ingest threads have spent waiting for the
+     * indexing threads to catch up.
+     *
+     * @return time in milliseconds
+     */
+    long getIndexingBlockedTimeMillis() {
+        return documentBatcher.getBlockedTimeMillis();
+    }
+
+    /**
+     * Waits for the documents added so far to be sent to Solr, and gets which
+     * of the given files had documents that could not be added to the index.
+     * Each file is only reported once.
+     *
+     * @param fileIds object ids of the files to check
+     * @return object ids of the files that were not completely indexed
+     */
+    Set<Long> getFilesNotIndexed(Set<Long> fileIds) {
+        documentBatcher.flush();
+        return documentBatcher.takeFailedFileIds(fileIds);
+    }
+
     /**
      * Helper to set document fields
      *
@@ -31,10 +31,12 @@ class KeywordQueryFilter {
 
     public static enum FilterType {
 
-        FILE, CHUNK, DATA_SOURCE
+        FILE, CHUNK, DATA_SOURCE, INDEX_GENERATION
     };
     private Set<Long>idFilters;
     private FilterType filterType;
+    private long afterGeneration;
+    private long throughGeneration;
 
     public KeywordQueryFilter(FilterType filterType, long id) {
         this.filterType = filterType;
@@ -47,6 +49,21 @@ public KeywordQueryFilter(FilterType filterType, Set<Long>ids) {
         this.idFilters = ids;
     }
 
+    /**
+     * Creates a filter for the documents added to the index after one
+     * generation, up to and including another.
+     *
+     * @param afterGeneration the last generation already searched
+     * @param throughGeneration the last generation to search
+     * @return the filter
+     */
+    static KeywordQueryFilter createIndexGenerationFilter(long afterGeneration, long throughGeneration) {
+        KeywordQueryFilter filter = new KeywordQueryFilter(FilterType.INDEX_GENERATION, new HashSet<Long>());
+        filter.afterGeneration = afterGeneration;
+        filter.throughGeneration = throughGeneration;
+        return filter;
+    }
+
     public Set<Long> getIdFilters() {
         return idFilters;
     }
@@ -59,6 +76,12 @@ public FilterType getFilterType() {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         String id = null;
+
+        if (filterType == FilterType.INDEX_GENERATION) {
+            sb.append(Server.Schema.INDEX_GENERATION.toString()).append(":[");
+            sb.append(Long.toString(afterGeneration + 1)).append(" TO ").append(Long.toString(throughGeneration)).append("]"); //NON-NLS
+            return sb.toString();
+        }
         
         Iterator<Long>it = idFilters.iterator();
         for (int i = 0; it.hasNext(); ++i) {
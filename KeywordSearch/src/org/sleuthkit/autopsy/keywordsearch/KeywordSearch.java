@@ -140,6 +140,7 @@ public void propertyChange(PropertyChangeEvent evt) {
                     try {
                         BlackboardResultWriter.stopAllWriters();
                         Thread.sleep(2000);
+                        Ingester.getDefault().clearRecentlyIndexedText();
                         server.closeCore();
                     } catch (Exception e) {
                         logger.log(Level.WARNING, "Could not close core."); //NON-NLS
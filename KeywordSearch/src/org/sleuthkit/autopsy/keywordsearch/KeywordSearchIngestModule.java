@@ -22,14 +22,17 @@
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import org.openide.util.NbBundle;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.apache.tika.Tika;
 import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.casemodule.services.DuplicateContentManager;
 import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
 import org.sleuthkit.autopsy.coreutils.StringExtract.StringExtractUnicodeTable.SCRIPT;
 import org.sleuthkit.autopsy.ingest.FileIngestModule;
@@ -40,11 +43,9 @@
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
 import org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException;
 import org.sleuthkit.datamodel.AbstractFile;
-import org.sleuthkit.datamodel.ReadContentInputStream;
 import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskData;
-import org.sleuthkit.datamodel.TskData.FileKnown;
 
 /**
  * An ingest module on a file level Performs indexing of allocated and Solr
@@ -93,6 +94,7 @@ int getTime() {
     private int instanceNum = 0;
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
     private IngestJobContext context;
+    private DuplicateContentManager duplicateContentManager;
     
     private enum IngestStatus {
 
@@ -134,9 +136,13 @@ public void startUp(IngestJobContext context) throws IngestModuleException {
         initialized = false;       
         jobId = context.getJobId();        
         caseHandle = Case.getCurrentCase().getSleuthkitCase();
+        duplicateContentManager = Case.getCurrentCase().getServices().getDuplicateContentManager();
         tikaFormatDetector = new Tika();
         ingester = Server.getIngester();
         this.context = context;
+        // Documents are sent to Solr in batches, so they must be indexed
+        // before the files are recorded as completed in the job's checkpoints.
+        context.addDeferredResultsFlusher(ingester.getCheckpointFlusher());
 
         // increment the module reference count
         // if first instance of this module for this job then check the server and existence of keywords
@@ -225,7 +231,7 @@ public ProcessResult process(AbstractFile abstractFile) {
             return ProcessResult.OK;
         }
 
-        if (KeywordSearchSettings.getSkipKnown() && abstractFile.getKnown().equals(FileKnown.KNOWN)) {
+        if (KeywordSearchSettings.getSkipKnown() && context.getFileIngestContext(abstractFile).isKnown()) {
             //index meta-data only
             indexer.indexFile(abstractFile, false);
             return ProcessResult.OK;
@@ -280,6 +286,8 @@ public void shutDown() {
             final int numIndexedChunks = KeywordSearch.getServer().queryNumIndexedChunks();
             logger.log(Level.INFO, "Indexed files count: {0}", numIndexedFiles); //NON-NLS
             logger.log(Level.INFO, "Indexed file chunks count: {0}", numIndexedChunks); //NON-NLS
+            logger.log(Level.INFO, "Time ingest threads waited for indexing threads: {0} ms", ingester.getIndexingBlockedTimeMillis()); //NON-NLS
+            logger.log(Level.INFO, "Text buffers: {0}", BufferPool.getSummary()); //NON-NLS
         } catch (NoOpenCoreException | KeywordSearchModuleException ex) {
             logger.log(Level.WARNING, "Error executing Solr query to check number of indexed files/chunks: ", ex); //NON-NLS
         }
@@ -311,6 +319,18 @@ private void cleanup() {
         initialized = false;
     }
 
+    /**
+     * Gets a stream over the content of the file being ingested, shared with
+     * the other file ingest modules so the file is only read once.
+     *
+     * @param aFile file being ingested
+     *
+     * @return stream over the file content
+     */
+    InputStream getFileContentInputStream(AbstractFile aFile) {
+        return context.getFileContent(aFile).getInputStream();
+    }
+
     /**
      * Posts inbox message with summary of text_ingested files
      */
@@ -322,6 +342,20 @@ private void postIndexSummary() {
         int error_index = 0;
         int error_io = 0;
 
+        // Documents are sent to the index in batches after the files are
+        // processed, so correct the status of the files with documents that
+        // could not be added.
+        Set<Long> fileIds = new HashSet<>();
+        synchronized(ingestStatus) {
+            Map<Long, IngestStatus> ingestStatusForJob = ingestStatus.get(jobId);
+            if (ingestStatusForJob != null) {
+                fileIds.addAll(ingestStatusForJob.keySet());
+            }
+        }
+        for (Long fileId : ingester.getFilesNotIndexed(fileIds)) {
+            putIngestStatus(jobId, fileId, IngestStatus.SKIPPED_ERROR_INDEXING);
+        }
+
         synchronized(ingestStatus) {
             Map<Long, IngestStatus> ingestStatusForJob = ingestStatus.get(jobId);
             for (IngestStatus s : ingestStatusForJob.values()) {
@@ -484,11 +518,20 @@ private void indexFile(AbstractFile aFile, boolean indexContent) {
                 return;
             }
 
+            // Index the text of an earlier file with the same content rather 
+            // than extracting it again.
+            String md5Hash = context.getFileIngestContext(aFile).getMd5Hash();
+            if (indexCopiedText(aFile, md5Hash)) {
+                putIngestStatus(jobId, aFile.getId(), IngestStatus.TEXT_INGESTED);
+                duplicateContentManager.recordReuse(KeywordSearchModuleFactory.getModuleName(), size);
+                return;
+            }
+
             //use Tika to detect the format
             String detectedFormat = null;
             InputStream is = null;
             try {
-                is = new ReadContentInputStream(aFile);
+                is = getFileContentInputStream(aFile);
                 detectedFormat = tikaFormatDetector.detect(is, aFile.getName());
             } catch (Exception e) {
                 logger.log(Level.WARNING, "Could not detect format using tika for file: " + aFile, e); //NON-NLS
@@ -546,8 +589,75 @@ private void indexFile(AbstractFile aFile, boolean indexContent) {
 
             // if it wasn't supported or had an error, default to strings
             if (wasTextAdded == false) {
-                extractStringsAndIndex(aFile);
+                wasTextAdded = extractStringsAndIndex(aFile);
+            }
+
+            if (wasTextAdded) {
+                duplicateContentManager.recordProcessedFile(KeywordSearchModuleFactory.getModuleName(), md5Hash, aFile.getId());
+            }
+        }
+
+        /**
+         * Adds the text of an earlier file with the same content to the index
+         * for a file. The text is taken from the text the ingester keeps for
+         * recently indexed files if it is still there, so it does not matter
+         * whether it has been sent to Solr and committed yet. Otherwise it is
+         * read back from the index, which only works once it has been
+         * committed.
+         *
+         * @param aFile file to index
+         * @param md5Hash MD5 hash of the file, may be null
+         * @return true if the text of an earlier file was indexed, false if the
+         * text of the file has to be extracted
+         */
+        private boolean indexCopiedText(AbstractFile aFile, String md5Hash) {
+            Long indexedFileId = duplicateContentManager.getProcessedFileId(KeywordSearchModuleFactory.getModuleName(), md5Hash);
+            if (indexedFileId == null) {
+                return false;
+            }
+            try {
+                List<String> chunks = ingester.getRecentlyIndexedText(indexedFileId);
+                if (chunks == null) {
+                    chunks = getCommittedText(indexedFileId);
+                    if (chunks == null) {
+                        return false;
+                    }
+                }
+                // Chunks added before a failure are replaced when the text is
+                // extracted, since they have the same ids.
+                for (int i = 0; i < chunks.size(); ++i) {
+                    ingester.ingest(aFile, i + 1, chunks.get(i));
+                }
+                ingester.ingest(aFile, chunks.size());
+                return true;
+            } catch (NoOpenCoreException | KeywordSearchModuleException | IngesterException ex) {
+                logger.log(Level.WARNING, "Could not index text of file " + indexedFileId + " for file with same content " + aFile.getId() + ", extracting text instead", ex); //NON-NLS
+                return false;
+            }
+        }
+
+        /**
+         * Reads the chunks of text of a file back from the index.
+         *
+         * @param fileId object id of the file
+         * @return the chunks, or null if the file or any of its chunks is not
+         * committed yet
+         */
+        private List<String> getCommittedText(long fileId) throws NoOpenCoreException, KeywordSearchModuleException {
+            Server server = KeywordSearch.getServer();
+            int numChunks = server.queryNumFileChunks(fileId);
+            if (numChunks == 0) {
+                return null;
+            }
+            List<String> chunks = new ArrayList<>();
+            for (int chunkId = 1; chunkId <= numChunks; ++chunkId) {
+                String text = server.getSolrContent(fileId, chunkId);
+                if (text == null) {
+                    return null;
+                }
+                chunks.add(text);
             }
+            return chunks;
         }
     }
 }
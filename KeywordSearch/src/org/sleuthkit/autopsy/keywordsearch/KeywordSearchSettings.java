@@ -40,6 +40,12 @@ class KeywordSearchSettings {
     static final String PROPERTIES_SCRIPTS = NbBundle.getMessage(KeywordSearchSettings.class, "KeywordSearchSettings.propertiesScripts.text", MODULE_NAME);
     static final String SHOW_SNIPPETS = "showSnippets"; //NON-NLS
     static final boolean DEFAULT_SHOW_SNIPPETS = true;
+    static final String INDEXING_BATCH_SIZE = "indexingBatchSize"; //NON-NLS
+    static final int DEFAULT_INDEXING_BATCH_SIZE = 32;
+    static final String INDEXING_BATCH_THREADS = "indexingBatchThreads"; //NON-NLS
+    static final int DEFAULT_INDEXING_BATCH_THREADS = 2;
+    static final String TEXT_BUFFER_POOL_SIZE = "textBufferPoolSize"; //NON-NLS
+    static final int DEFAULT_TEXT_BUFFER_POOL_SIZE = 32;
     private static boolean skipKnown = true;
     private static final Logger logger = Logger.getLogger(KeywordSearchSettings.class.getName());
     private static UpdateFrequency UpdateFreq = UpdateFrequency.DEFAULT;
@@ -141,6 +147,48 @@ static boolean getShowSnippets() {
         }
     }
 
+    /**
+     * Gets the number of documents sent to Solr in one request while
+     * indexing.
+     *
+     * @return The batch size.
+     */
+    static int getIndexingBatchSize() {
+        return getIntSetting(INDEXING_BATCH_SIZE, DEFAULT_INDEXING_BATCH_SIZE);
+    }
+
+    /**
+     * Gets the number of indexing threads, which send batches of documents to
+     * Solr while the ingest threads go on extracting text. Sized separately
+     * from the ingest threads, since it depends on what Solr can absorb.
+     *
+     * @return The number of threads.
+     */
+    static int getIndexingBatchThreads() {
+        return getIntSetting(INDEXING_BATCH_THREADS, DEFAULT_INDEXING_BATCH_THREADS);
+    }
+
+    /**
+     * Gets the number of byte buffers and of char buffers kept for reuse while
+     * extracting and indexing text. Zero turns off reuse.
+     *
+     * @return The number of buffers of each kind.
+     */
+    static int getTextBufferPoolSize() {
+        return getIntSetting(TEXT_BUFFER_POOL_SIZE, DEFAULT_TEXT_BUFFER_POOL_SIZE);
+    }
+
+    private static int getIntSetting(String key, int defaultValue) {
+        if (ModuleSettings.settingExists(PROPERTIES_OPTIONS, key)) {
+            try {
+                return Integer.parseInt(ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, key));
+            } catch (NumberFormatException ex) {
+                logger.log(Level.WARNING, "Invalid value for " + key + ", using default", ex); //NON-NLS
+            }
+        }
+        return defaultValue;
+    }
+
     /**
      * gets the currently set scripts to use
      *
@@ -0,0 +1,145 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest.METHOD;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Finds which of a set of literal keywords have hits, using a few combined
+ * queries instead of a query per keyword.
+ *
+ * The keywords are OR'ed together in batches of at most
+ * MAX_KEYWORDS_PER_QUERY, well under the Solr limit on boolean clauses. Each
+ * keyword of a batch is also added as a facet query, so the response of the
+ * combined query gives the number of documents matched by each keyword. Only
+ * the keywords with hits then need a LuceneQuery of their own to get the
+ * files and snippets, which keeps the hits written to the blackboard the same
+ * as searching for each keyword separately.
+ */
+final class LiteralKeywordsQuery {
+
+    private static final Logger logger = Logger.getLogger(LiteralKeywordsQuery.class.getName());
+    static final int MAX_KEYWORDS_PER_QUERY = 256;
+    private final List<Keyword> keywords;
+    private final List<KeywordQueryFilter> filters = new ArrayList<>();
+
+    /**
+     * Constructs a query for a set of literal keywords.
+     *
+     * @param keywords the keywords, not escaped
+     */
+    LiteralKeywordsQuery(List<Keyword> keywords) {
+        this.keywords = keywords;
+    }
+
+    /**
+     * Adds a filter that applies to all of the keywords, as with
+     * KeywordSearchQuery.addFilter().
+     *
+     * @param filter the filter
+     */
+    void addFilter(KeywordQueryFilter filter) {
+        filters.add(filter);
+    }
+
+    /**
+     * Gets the keywords that match at least one document.
+     *
+     * If a combined query fails, all of the keywords of its batch are
+     * returned, so they are searched for separately as before.
+     *
+     * @return the keywords with hits
+     * @throws NoOpenCoreException
+     */
+    Set<Keyword> getKeywordsWithHits() throws NoOpenCoreException {
+        Set<Keyword> keywordsWithHits = new HashSet<>();
+        for (int start = 0; start < keywords.size(); start += MAX_KEYWORDS_PER_QUERY) {
+            List<Keyword> batch = keywords.subList(start, Math.min(start + MAX_KEYWORDS_PER_QUERY, keywords.size()));
+            keywordsWithHits.addAll(getKeywordsWithHits(batch));
+        }
+        return keywordsWithHits;
+    }
+
+    private Set<Keyword> getKeywordsWithHits(List<Keyword> batch) throws NoOpenCoreException {
+        Set<Keyword> keywordsWithHits = new HashSet<>();
+        List<String> groupedQueries = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (Keyword keyword : batch) {
+            String escaped = KeywordSearchUtil.escapeLuceneQuery(keyword.getQuery());
+            if (escaped.isEmpty()) {
+                groupedQueries.add(null);
+                continue;
+            }
+            //force quotes/grouping, as for a single LuceneQuery
+            String groupedQuery = KeywordSearchUtil.quoteQuery(escaped);
+            groupedQueries.add(groupedQuery);
+            if (sb.length() > 0) {
+                sb.append(" OR "); //NON-NLS
+            }
+            sb.append(groupedQuery);
+        }
+        if (sb.length() == 0) {
+            return keywordsWithHits;
+        }
+
+        SolrQuery q = new SolrQuery();
+        q.setQuery(sb.toString());
+        q.setRows(0);
+        q.setFacet(true);
+        for (String groupedQuery : groupedQueries) {
+            if (groupedQuery != null) {
+                q.addFacetQuery(groupedQuery);
+            }
+        }
+        for (KeywordQueryFilter filter : filters) {
+            q.addFilterQuery(filter.toString());
+        }
+
+        try {
+            QueryResponse response = KeywordSearch.getServer().query(q, METHOD.POST);
+            if (response.getResults().getNumFound() == 0) {
+                return keywordsWithHits;
+            }
+            Map<String, Integer> facetCounts = response.getFacetQuery();
+            for (int i = 0; i < batch.size(); ++i) {
+                String groupedQuery = groupedQueries.get(i);
+                if (groupedQuery == null) {
+                    continue;
+                }
+                Integer count = facetCounts.get(groupedQuery);
+                if (count == null || count > 0) {
+                    keywordsWithHits.add(batch.get(i));
+                }
+            }
+        } catch (KeywordSearchModuleException ex) {
+            logger.log(Level.WARNING, "Error executing combined Lucene Solr Query for " + batch.size() + " keywords, searching for them separately", ex); //NON-NLS
+            keywordsWithHits.addAll(batch);
+        }
+        return keywordsWithHits;
+    }
+}
@@ -25,6 +25,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -85,7 +86,9 @@ public static synchronized SearchRunner getInstance() {
     public synchronized void startJob(long jobId, long dataSourceId, List<String> keywordListNames) {
         if (jobs.containsKey(jobId) == false) {
             logger.log(Level.INFO, "Adding job {0}", jobId); //NON-NLS
-            SearchJobInfo jobData = new SearchJobInfo(jobId, dataSourceId, keywordListNames);
+            // Documents of the job are stamped with the current generation or
+            // later ones, so the first periodic search starts just before it.
+            SearchJobInfo jobData = new SearchJobInfo(jobId, dataSourceId, keywordListNames, ingester.getIndexGeneration() - 1);
             jobs.put(jobId, jobData);         
         }
         
@@ -224,6 +227,11 @@ public void run() {
                 return;
             }
             
+            // Once committed, the documents of the generation that ends here
+            // and of earlier ones can all be searched. Each periodic search 
+            // only covers the generations added since the last search of its
+            // job, so its cost depends on the new data, not the index size.
+            final long searchThroughGeneration = ingester.advanceIndexGeneration();
             commit();
 
             synchronized(SearchRunner.this) {
@@ -232,7 +240,7 @@ public void run() {
                     SearchJobInfo job = j.getValue();
                     // If no lists or the worker is already running then skip it
                     if (!job.getKeywordListNames().isEmpty() && !job.isWorkerRunning()) {
-                        Searcher searcher = new Searcher(job);
+                        Searcher searcher = new Searcher(job, searchThroughGeneration);
                         job.setCurrentSearcher(searcher); //save the ref
                         searcher.execute(); //start thread
                         job.setWorkerRunning(true);
@@ -256,10 +264,12 @@ private class SearchJobInfo {
         private SearchRunner.Searcher currentSearcher;
         private AtomicLong moduleReferenceCount = new AtomicLong(0);
         private final Object finalSearchLock = new Object(); //used for a condition wait
+        private volatile long searchedGeneration; //last index generation covered by a periodic search
 
-        public SearchJobInfo(long jobId, long dataSourceId, List<String> keywordListNames) {
+        public SearchJobInfo(long jobId, long dataSourceId, List<String> keywordListNames, long searchedGeneration) {
             this.jobId = jobId;
             this.dataSourceId = dataSourceId;
+            this.searchedGeneration = searchedGeneration;
             this.keywordListNames = new ArrayList<>(keywordListNames);
             currentResults = new HashMap<>();
             workerRunning = false;
@@ -274,6 +284,14 @@ public long getDataSourceId() {
             return dataSourceId;
         }
         
+        public long getSearchedGeneration() {
+            return searchedGeneration;
+        }
+
+        public void setSearchedGeneration(long generation) {
+            searchedGeneration = generation;
+        }
+
         public synchronized List<String> getKeywordListNames() {
             return new ArrayList<>(keywordListNames);
         }
@@ -342,8 +360,10 @@ public void searchNotify() {
     /**
      * Searcher responsible for searching the current index and writing results
      * to blackboard and the inbox. Also, posts results to listeners as Ingest
-     * data events. Searches entire index, and keeps track of only new results
-     * to report and save. Runs as a background thread.
+     * data events. A periodic search covers the documents added since the
+     * last periodic search of the job, the final search covers the entire
+     * index, and both keep track of only new results to report and save. Runs
+     * as a background thread.
      */
     private final class Searcher extends SwingWorker<Object, Void> {
 
@@ -358,8 +378,10 @@ private final class Searcher extends SwingWorker<Object, Void> {
         private AggregateProgressHandle progressGroup;
         private final Logger logger = Logger.getLogger(SearchRunner.Searcher.class.getName());
         private boolean finalRun = false;
+        private long searchAfterGeneration;
+        private long searchThroughGeneration;
 
-        Searcher(SearchJobInfo job) {
+        private Searcher(SearchJobInfo job) {
             this.job = job;
             keywordListNames = job.getKeywordListNames();
             keywords = new ArrayList<>();
@@ -373,6 +395,20 @@ private final class Searcher extends SwingWorker<Object, Void> {
             this.finalRun = finalRun;
         }
 
+        /**
+         * Creates a periodic searcher.
+         *
+         * @param job the job to search for
+         * @param searchThroughGeneration the last index generation committed,
+         * the search covers the generations after the last one searched for
+         * the job, through this one
+         */
+        Searcher(SearchJobInfo job, long searchThroughGeneration) {
+            this(job);
+            this.searchAfterGeneration = job.getSearchedGeneration();
+            this.searchThroughGeneration = searchThroughGeneration;
+        }
+
         @Override
         protected Object doInBackground() throws Exception {
             final String displayName = NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.doInBackGround.displayName")
@@ -408,6 +444,16 @@ public boolean cancel() {
 
                 int keywordsSearched = 0;
 
+                // Find the literal keywords with hits using a few combined
+                // queries, so only those need a query of their own
+                Set<Keyword> literalKeywordsWithHits;
+                try {
+                    literalKeywordsWithHits = findLiteralKeywordsWithHits();
+                } catch (NoOpenCoreException ex) {
+                    logger.log(Level.WARNING, "Error performing combined query for literal keywords", ex); //NON-NLS
+                    return null;
+                }
+
                 for (Keyword keywordQuery : keywords) {
                     if (this.isCancelled()) {
                         logger.log(Level.INFO, "Cancel detected, bailing before new keyword processed: {0}", keywordQuery.getQuery()); //NON-NLS
@@ -426,6 +472,11 @@ public boolean cancel() {
                     KeywordSearchQuery keywordSearchQuery = null;
 
                     boolean isRegex = !keywordQuery.isLiteral();
+                    if (!isRegex && !literalKeywordsWithHits.contains(keywordQuery)) {
+                        ++keywordsSearched;
+                        continue;
+                    }
+
                     if (isRegex) {
                         keywordSearchQuery = new TermComponentQuery(list, keywordQuery);
                     } else {
@@ -438,6 +489,9 @@ public boolean cancel() {
                     //set up a filter with 1 or more image ids OR'ed
                     final KeywordQueryFilter dataSourceFilter = new KeywordQueryFilter(KeywordQueryFilter.FilterType.DATA_SOURCE, job.getDataSourceId());
                     keywordSearchQuery.addFilter(dataSourceFilter);
+                    if (!finalRun) {
+                        keywordSearchQuery.addFilter(KeywordQueryFilter.createIndexGenerationFilter(searchAfterGeneration, searchThroughGeneration));
+                    }
 
                     QueryResults queryResults;
 
@@ -491,6 +545,10 @@ public boolean cancel() {
 
                 } //for each keyword
 
+                if (!finalRun) {
+                    job.setSearchedGeneration(searchThroughGeneration);
+                }
+
             } //end try block
             catch (Exception ex) {
                 logger.log(Level.WARNING, "searcher exception occurred", ex); //NON-NLS
@@ -544,6 +602,28 @@ private void updateKeywords() {
             }
         }
 
+        /**
+         * Finds the literal keywords that have hits in the documents this
+         * searcher covers.
+         *
+         * @return the literal keywords with hits
+         * @throws NoOpenCoreException
+         */
+        private Set<Keyword> findLiteralKeywordsWithHits() throws NoOpenCoreException {
+            List<Keyword> literalKeywords = new ArrayList<>();
+            for (Keyword keyword : keywords) {
+                if (keyword.isLiteral()) {
+                    literalKeywords.add(keyword);
+                }
+            }
+            LiteralKeywordsQuery literalKeywordsQuery = new LiteralKeywordsQuery(literalKeywords);
+            literalKeywordsQuery.addFilter(new KeywordQueryFilter(KeywordQueryFilter.FilterType.DATA_SOURCE, job.getDataSourceId()));
+            if (!finalRun) {
+                literalKeywordsQuery.addFilter(KeywordQueryFilter.createIndexGenerationFilter(searchAfterGeneration, searchThroughGeneration));
+            }
+            return literalKeywordsQuery.getKeywordsWithHits();
+        }
+
         /**
          * Performs the cleanup that needs to be done right AFTER
          * doInBackground() returns without relying on done() method that is not
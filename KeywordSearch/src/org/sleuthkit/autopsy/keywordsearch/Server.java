@@ -37,6 +37,7 @@
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.logging.Level;
 
@@ -58,6 +59,7 @@
 import org.sleuthkit.autopsy.coreutils.ModuleSettings;
 import org.sleuthkit.autopsy.coreutils.PlatformUtil;
 import org.sleuthkit.datamodel.Content;
+import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.client.solrj.impl.XMLResponseParser;
 import org.apache.solr.common.SolrException;
@@ -140,6 +142,12 @@ public String toString() {
                 return "num_chunks"; //NON-NLS
             }
         },
+        INDEX_GENERATION {
+            @Override
+            public String toString() {
+                return "index_generation"; //NON-NLS
+            }
+        },
     };
     public static final String HL_ANALYZE_CHARS_UNLIMITED = "500000"; //max 1MB in a chunk. use -1 for unlimited, but -1 option may not be supported (not documented)
     //max content size we can send to Solr
@@ -618,6 +626,10 @@ void addDocument(SolrInputDocument doc) throws KeywordSearchModuleException {
         currentCore.addDocument(doc);
     }
 
+    void addDocuments(Collection<SolrInputDocument> docs) throws KeywordSearchModuleException {
+        currentCore.addDocuments(docs);
+    }
+
     /**
      * Get index dir location for the case
      *
@@ -858,6 +870,23 @@ public String getSolrContent(final Content content, int chunkID) throws NoOpenCo
         return currentCore.getSolrContent(content.getId(), chunkID);
     }
 
+    /**
+     * Get the text contents of a single chunk of a file as stored in SOLR.
+     *
+     * @param contentID the object id of the file
+     * @param chunkID chunk number to query (starting at 1), or 0 if there is no
+     * chunks for that content
+     * @return content text string or null if error quering or the chunk is
+     * not in the index
+     * @throws NoOpenCoreException
+     */
+    String getSolrContent(long contentID, int chunkID) throws NoOpenCoreException {
+        if (currentCore == null) {
+            throw new NoOpenCoreException();
+        }
+        return currentCore.getSolrContent(contentID, chunkID);
+    }
+
     /**
      * Method to return ingester instance
      *
@@ -935,8 +964,10 @@ private Core(String name) {
             //TODO test these settings
             //solrCore.setSoTimeout(1000 * 60);  // socket read timeout, make large enough so can index larger files
             //solrCore.setConnectionTimeout(1000);
-            solrCore.setDefaultMaxConnectionsPerHost(2);
-            solrCore.setMaxTotalConnections(5);
+            // Leave a connection for queries besides one per indexing thread.
+            int indexingThreads = Math.max(1, KeywordSearchSettings.getIndexingBatchThreads());
+            solrCore.setDefaultMaxConnectionsPerHost(Math.max(2, indexingThreads + 1));
+            solrCore.setMaxTotalConnections(Math.max(5, indexingThreads + 3));
             solrCore.setFollowRedirects(false);  // defaults to false
             // allowCompression defaults to false.
             // Server side must support gzip or deflate for this to have any effect.
@@ -995,6 +1026,16 @@ void addDocument(SolrInputDocument doc) throws KeywordSearchModuleException {
             }
         }
 
+        void addDocuments(Collection<SolrInputDocument> docs) throws KeywordSearchModuleException {
+            try {
+                solrCore.add(docs);
+            } catch (SolrServerException | IOException ex) {
+                logger.log(Level.SEVERE, "Could not add " + docs.size() + " documents to index via update handler", ex); //NON-NLS
+                throw new KeywordSearchModuleException(
+                        NbBundle.getMessage(this.getClass(), "Server.addDocs.exception.msg", docs.size()), ex);
+            }
+        }
+
         /**
          * get the text from the content field for the given file
          * @param contentID
@@ -1012,8 +1053,12 @@ private String getSolrContent(long contentID, int chunkID) {
             q.setFields(Schema.TEXT.toString());
             try {
                 // @@@ BC Make this more robust -> using get(1) bcause 0 is the file name in the multivalued output. 
-                ArrayList<String> values = (ArrayList<String>)solrCore.query(q).getResults().get(0).getFieldValue(Schema.TEXT.toString());
-                return values.get(1);
+                SolrDocumentList results = solrCore.query(q).getResults();
+                if (results.isEmpty()) {
+                    return null;
+                }
+                ArrayList<String> values = (ArrayList<String>)results.get(0).getFieldValue(Schema.TEXT.toString());
+                return (values != null && values.size() > 1) ? values.get(1) : null;
             } catch (SolrServerException ex) {
                 logger.log(Level.WARNING, "Error getting content from Solr", ex); //NON-NLS
                 return null;
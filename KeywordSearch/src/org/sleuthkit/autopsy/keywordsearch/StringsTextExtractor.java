@@ -39,7 +39,7 @@ class StringsTextExtractor implements TextExtractor {
     
     private static Ingester ingester;    
     private static final Logger logger = Logger.getLogger(StringsTextExtractor.class.getName());
-    private static final long MAX_STRING_CHUNK_SIZE = 1 * 1024 * 1024L;        
+    private static final long MAX_STRING_CHUNK_SIZE = BufferPool.BYTE_BUFFER_SIZE;        
     //private static final int BOM_LEN = 3; 
     private static final int BOM_LEN = 0;  //disabled prepending of BOM
     private static final Charset INDEX_CHARSET = Server.DEFAULT_INDEXED_TEXT_CHARSET;
@@ -124,11 +124,11 @@ public boolean index(AbstractFile sourceFile) throws IngesterException {
         }
 
 
+        final byte[] stringChunkBuf = BufferPool.borrowBytes();
         try {
             success = true;
             //break input stream into chunks 
 
-            final byte[] stringChunkBuf = new byte[(int) MAX_STRING_CHUNK_SIZE];
             long readSize;
             while ((readSize = stringStream.read(stringChunkBuf, BOM_LEN, (int) MAX_STRING_CHUNK_SIZE - BOM_LEN)) != -1) {
                 //FileOutputStream debug = new FileOutputStream("c:\\temp\\" + sourceFile.getName() + Integer.toString(this.numChunks+1));
@@ -156,6 +156,7 @@ public boolean index(AbstractFile sourceFile) throws IngesterException {
             logger.log(Level.WARNING, "Unable to read input stream to divide and send to Solr, file: " + sourceFile.getName(), ex); //NON-NLS
             success = false;
         } finally {
+            BufferPool.release(stringChunkBuf);
             try {
                 stringStream.close();
             } catch (IOException ex) {
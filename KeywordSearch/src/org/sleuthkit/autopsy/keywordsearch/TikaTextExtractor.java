@@ -21,7 +21,6 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -38,7 +37,6 @@
 import org.openide.util.NbBundle;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.datamodel.AbstractFile;
-import org.sleuthkit.datamodel.ReadContentInputStream;
 import org.apache.tika.Tika;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
@@ -60,12 +58,10 @@ class TikaTextExtractor implements TextExtractor {
 
     private static final Logger logger = Logger.getLogger(TikaTextExtractor.class.getName());
     private static Ingester ingester;
-    private static final Charset OUTPUT_CHARSET = Server.DEFAULT_INDEXED_TEXT_CHARSET;
-    private static final int MAX_EXTR_TEXT_CHARS = 512 * 1024;
+    private static final int MAX_EXTR_TEXT_CHARS = BufferPool.CHAR_BUFFER_SIZE;
     private static final int SINGLE_READ_CHARS = 1024;
     private static final int EXTRA_CHARS = 128; //for whitespace
     //private static final String UTF16BOM = "\uFEFF"; disabled prepending of BOM
-    private final char[] textChunkBuf = new char[MAX_EXTR_TEXT_CHARS];
     private KeywordSearchIngestModule module;    
     private AbstractFile sourceFile; //currently processed file
     private int numChunks = 0;    
@@ -119,7 +115,8 @@ public boolean index(AbstractFile sourceFile) throws Ingester.IngesterException
 
         boolean success = false;
         Reader reader = null;
-        final InputStream stream = new ReadContentInputStream(sourceFile);
+        final char[] textChunkBuf = BufferPool.borrowChars();
+        final InputStream stream = module.getFileContentInputStream(sourceFile);
         try {
             Metadata meta = new Metadata();
 
@@ -216,11 +213,9 @@ public boolean index(AbstractFile sourceFile) throws Ingester.IngesterException
                 extracted = sb.toString();
 
                 
-                //converts BOM automatically to charSet encoding
-                byte[] encodedBytes = extracted.getBytes(OUTPUT_CHARSET);
                 AbstractFileChunk chunk = new AbstractFileChunk(this, this.numChunks + 1);
                 try {
-                    chunk.index(ingester, encodedBytes, encodedBytes.length, OUTPUT_CHARSET);
+                    chunk.index(ingester, extracted);
                     ++this.numChunks;
                 } catch (Ingester.IngesterException ingEx) {
                     success = false;
@@ -240,6 +235,7 @@ public boolean index(AbstractFile sourceFile) throws Ingester.IngesterException
             logger.log(Level.WARNING, msg);
             success = false;
         } finally {
+            BufferPool.release(textChunkBuf);
             try {
                 stream.close();
             } catch (IOException ex) {
@@ -18,11 +18,11 @@
  */
 package org.sleuthkit.autopsy.ewfverify;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.bind.DatatypeConverter;
+import org.sleuthkit.autopsy.coreutils.ContentHasher;
 import org.sleuthkit.autopsy.ingest.DataSourceIngestModuleProgress;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestMessage.MessageType;
@@ -47,7 +47,6 @@ public class EwfVerifyIngestModule implements DataSourceIngestModule {
     private static final IngestServices services = IngestServices.getInstance();
     private Image img;
     private String imgName;
-    private MessageDigest messageDigest;
     private boolean verified = false;
     private boolean skipped = false;
     private String calculatedHash = "";
@@ -65,18 +64,6 @@ public void startUp(IngestJobContext context) throws IngestModuleException {
         imgName = "";
         storedHash = "";
         calculatedHash = "";
-
-        if (messageDigest == null) {
-            try {
-                messageDigest = MessageDigest.getInstance("MD5"); //NON-NLS
-            } catch (NoSuchAlgorithmException ex) {
-                logger.log(Level.WARNING, "Error getting md5 algorithm", ex); //NON-NLS
-                throw new RuntimeException(
-                        NbBundle.getMessage(this.getClass(), "EwfVerifyIngestModule.startUp.exception.failGetMd5"));
-            }
-        } else {
-            messageDigest.reset();
-        }
     }
 
     @Override
@@ -136,34 +123,37 @@ public ProcessResult process(Content dataSource, DataSourceIngestModuleProgress
         long chunkSize = 64 * img.getSsize();
         chunkSize = (chunkSize == 0) ? DEFAULT_CHUNK_SIZE : chunkSize;
 
-        int totalChunks = (int) Math.ceil(size / chunkSize);
+        final long chunkSizeForProgress = chunkSize;
+        int totalChunks = (int) ((size + chunkSize - 1) / chunkSize);
         logger.log(Level.INFO, "Total chunks = {0}", totalChunks); //NON-NLS
-        int read;
-
-        byte[] data;
+        final DataSourceIngestModuleProgress progress = statusHelper;
         statusHelper.switchToDeterminate(totalChunks);
 
-        // Read in byte size chunks and update the hash value with the data.
-        for (int i = 0; i < totalChunks; i++) {
-            if (context.isJobCancelled()) {
-                return ProcessResult.OK;
-            }
-            data = new byte[(int) chunkSize];
-            try {
-                read = img.read(data, i * chunkSize, chunkSize);
-            } catch (TskCoreException ex) {
-                String msg = NbBundle.getMessage(this.getClass(),
-                        "EwfVerifyIngestModule.process.errReadImgAtChunk", imgName, i);
-                services.postMessage(IngestMessage.createMessage( MessageType.ERROR, EwfVerifierModuleFactory.getModuleName(), msg));
-                logger.log(Level.SEVERE, msg, ex);
-                return ProcessResult.ERROR;
-            }
-            messageDigest.update(data);
-            statusHelper.progress(i);
+        // Hash the image in a single pass, reading ahead of the digest 
+        // computation.
+        final long[] bytesHashed = new long[1];
+        Map<ContentHasher.HashType, String> hashes;
+        try {
+            hashes = ContentHasher.calculateHashes(img, EnumSet.of(ContentHasher.HashType.MD5), new ContentHasher.ProgressListener() {
+                @Override
+                public boolean progress(long hashed) {
+                    bytesHashed[0] = hashed;
+                    progress.progress((int) (hashed / chunkSizeForProgress));
+                    return !context.isJobCancelled();
+                }
+            });
+        } catch (TskCoreException ex) {
+            String msg = NbBundle.getMessage(this.getClass(),
+                    "EwfVerifyIngestModule.process.errReadImgAtChunk", imgName, bytesHashed[0] / chunkSize);
+            services.postMessage(IngestMessage.createMessage( MessageType.ERROR, EwfVerifierModuleFactory.getModuleName(), msg));
+            logger.log(Level.SEVERE, msg, ex);
+            return ProcessResult.ERROR;
+        }
+        if (hashes == null) {
+            return ProcessResult.OK;
         }
 
-        // Finish generating the hash and get it as a string value
-        calculatedHash = DatatypeConverter.printHexBinary(messageDigest.digest()).toLowerCase();
+        calculatedHash = hashes.get(ContentHasher.HashType.MD5);
         verified = calculatedHash.equals(storedHash);
         logger.log(Level.INFO, "Hash calculated from {0}: {1}", new Object[]{imgName, calculatedHash}); //NON-NLS
 
@@ -69,7 +69,7 @@ public void startUp(IngestJobContext context) throws IngestModuleException {
     public ProcessResult process(AbstractFile abstractFile) {
 
         // skip known
-        if (abstractFile.getKnown().equals(TskData.FileKnown.KNOWN)) {
+        if (context.getFileIngestContext(abstractFile).isKnown()) {
             return ProcessResult.OK;
         }
 